@@ -1,67 +1,242 @@
 package Service;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import dao.AccountDAO;
-import dao.UserAccountDAO;
+import dao.DAOFactory;
+import dao.HotAccounts;
+import dao.IAccountDAO;
+import dao.IUserAccountDAO;
+import dao.LedgerWriter;
+import dao.OwnershipIndex;
+import dao.RowCallback;
+import exceptions.ConcurrentUpdateException;
 import exceptions.FailedStatementException;
 import exceptions.IllegalBalanceException;
 import models.AbstractAccount;
+import models.Transaction;
 import models.UserAccount;
+import templates.BatchTransferItemTemplate;
+import templates.BatchTransferResultTemplate;
+import templates.PageTemplate;
+import templates.PassTimeResultTemplate;
+import templates.TransferResultTemplate;
+import templates.TransferTemplate;
+import util.Money;
+import util.StripedLocks;
 
 public class AccountService {
-private static AccountDAO aDAO = new AccountDAO();
-private static UserAccountDAO uaDAO = new UserAccountDAO();
+private static IAccountDAO aDAO = DAOFactory.getAccountDAO();
+private static IUserAccountDAO uaDAO = DAOFactory.getUserAccountDAO();
+private static OwnershipIndex ownership = DAOFactory.getOwnershipIndex(); // null if the index is turned off
+private static LedgerWriter ledger = DAOFactory.getLedger(); // Every balance movement is recorded here once it has gone through
+private static StripedLocks locks = DAOFactory.getAccountLocks(); // Balance changes to one account take turns here, before asking for a connection
+private static HotAccounts hot = DAOFactory.getHotAccounts();
+public static final int MAX_BATCH_TRANSFERS = 10000; // Per POST /accounts?batchTransfer
+private static final int MAX_LOCKED_ACCOUNTS = 64; // A batch touching more accounts than this skips the account locks
 	
 	public int insert(AbstractAccount u) {
-		return aDAO.insert(u);
+		int result = aDAO.insert(u);
+		if(result > 0 && u.getBalanceCents() != 0) { // Opened with money already in it
+			ledger.record(new Transaction(u.getAccountId(), Transaction.OPENING, u.getBalanceCents(), u.getBalanceCents(), 0));
+		}
+		return result;
 	}
 	
 	public List<AbstractAccount> findAll(){ // Pass the current list of accounts
 		return aDAO.findAll(); // No other logic needed 
 	}
 	
+	public void streamAll(RowCallback<AbstractAccount> callback) throws IOException { // Like findAll, without holding every account in memory
+		aDAO.streamAll(callback);
+	}
+	
+	// Keyset pagination - we ask for one extra row just to know whether there is a next page
+	public PageTemplate<AbstractAccount> findPage(int afterId, int limit) {
+		return PageTemplate.of(aDAO.findPage(afterId, limit + 1), limit, AbstractAccount::getAccountId);
+	}
+	
+	public PageTemplate<AbstractAccount> findByStatusPage(int statusId, int afterId, int limit) {
+		return PageTemplate.of(aDAO.findByStatusPage(statusId, afterId, limit + 1), limit, AbstractAccount::getAccountId);
+	}
+	
+	public PageTemplate<AbstractAccount> findByOwnerPage(int userId, int statusId, int afterId, int limit) { // statusId 0 for any status
+		return PageTemplate.of(aDAO.findByOwnerPage(userId, statusId, afterId, limit + 1), limit, AbstractAccount::getAccountId);
+	}
+	
 	public AbstractAccount findByID(int id) { // Find the record with the appropriate ID
 		return aDAO.findByID(id);		
 	}
 	
+	@SuppressWarnings("try") // The lock is only held, never used inside the block
 	public AbstractAccount update(AbstractAccount a) { // Update the associated ID with the new record.
-		int result = aDAO.update(a);
-		if(result != 1) { // If we updated more or less than 1 row something went wrong
-			throw new FailedStatementException(); // throw exception
+		int sentVersion = a.getVersion();
+		AbstractAccount before;
+		try (StripedLocks.Held held = locks.lock(a.getAccountId())) { // No deposit can land between the read and the update
+			before = aDAO.findByID(a.getAccountId()); // Usually a cache hit. Gives the ledger the balance being replaced
+			int result = aDAO.update(a);
+			if(result != 1) { // If we updated more or less than 1 row something went wrong
+				if(aDAO.findByID(a.getAccountId()) != null) { // The account is there, so its version had moved on
+					throw new ConcurrentUpdateException(); // Someone else changed it since it was read
+				}
+				throw new FailedStatementException(); // throw exception
+			}
+		}
+		// The update only matched the row at sentVersion, so if that's the version we read, 'before' is exactly what it replaced.
+		// (Only a cached copy gone stale through another node's write can differ - the same caveat as the cache itself.)
+		if(before != null && before.getVersion() == sentVersion && before.getBalanceCents() != a.getBalanceCents()) {
+			ledger.record(new Transaction(a.getAccountId(), Transaction.ADJUSTMENT, a.getBalanceCents() - before.getBalanceCents(),
+					a.getBalanceCents(), 0));
 		}
 		return aDAO.findByID(a.getAccountId()); // Returns appropriate record to verify update
 	}
 	
-	public AbstractAccount withdraw(int accountId, double amount) {
+	public long withdraw(int accountId, long amountCents) { // Amounts and balances are whole cents
 		// Given the current user and the account they want to withdraw from, how much? 
 		// If the amount is greater than balance or less than zero, throw an error
 		
-		if(amount < 0) { // If they try and withdraw a negative amount
+		if(amountCents < 0) { // If they try and withdraw a negative amount
 			throw new IllegalBalanceException(); // throw an exception
 		}
-		AbstractAccount dbAccount = aDAO.findByID(accountId);
-		double accountFunds = dbAccount.getBalance();
-		
-		if(accountFunds - amount < 0) { // Can't overdraw, could set some minimum alternatively.
-			throw new IllegalBalanceException();
+		return this.applyDelta(accountId, -amountCents, Transaction.WITHDRAWAL); // Can't overdraw - the DAO refuses anything that would go below zero
+	}
+	
+	public long deposit(int accountId, long amountCents) {
+		if(amountCents < 0) { // If trying to deposit a negative amount
+			throw new IllegalBalanceException(); // throw an exception
 		}
-		aDAO.updateBalance(accountId, (accountFunds - amount)); // commit the update when safe
+		return this.applyDelta(accountId, amountCents, Transaction.DEPOSIT);
+	}
 	
-		return aDAO.findByID(accountId); // return the updated user
+	@SuppressWarnings("try") // The lock is only held, never used inside the block
+	private long applyDelta(int accountId, long deltaCents, String kind) {
+		// Check and update happen in one statement, so there's nothing for a concurrent request to slip in between.
+		// Requests on the same account still queue in here rather than on the row lock, each holding a pooled connection
+		// while it waits. Credits to a hot account don't wait on its row, so they skip the lock too (a null resource is skipped).
+		Long newBalance;
+		try (StripedLocks.Held held = (deltaCents >= 0 && hot.isHot(accountId)) ? null : locks.lock(accountId)) {
+			newBalance = aDAO.adjustBalance(accountId, deltaCents);
+			if(newBalance == null) {
+				if(aDAO.findByID(accountId) == null) { // Only pay for the extra lookup on the failure path
+					throw new FailedStatementException(); // No such account
+				}
+				throw new IllegalBalanceException(); // Would have overdrawn (or overflowed) the account
+			}
+		}
+		ledger.record(new Transaction(accountId, kind, deltaCents, newBalance, 0)); // Queued, not written on this thread
+		return newBalance; // Return the updated balance
 	}
 	
-	public AbstractAccount deposit(int accountId, double amount) {
-		if(amount < 0) { // If trying to deposit a negative amount
-			throw new IllegalBalanceException(); // throw an exception
+	@SuppressWarnings("try") // The lock is only held, never used inside the block
+	public TransferResultTemplate transfer(int sourceAccountId, int targetAccountId, long amountCents) {
+		// Moves money between two accounts in a single database transaction
+		if(amountCents < 0) { // Transferring a negative amount would be a withdrawal from the target
+			throw new IllegalBalanceException();
+		}
+		if(sourceAccountId == targetAccountId) { // Nothing to move
+			throw new FailedStatementException();
+		}
+		
+		long start = System.nanoTime();
+		long[] balances;
+		try (StripedLocks.Held held = this.lockForTransfer(sourceAccountId, targetAccountId)) {
+			balances = aDAO.transfer(sourceAccountId, targetAccountId, amountCents);
+		}
+		long elapsedMicros = (System.nanoTime() - start) / 1000; // Includes any wait for the account locks
+		
+		if(balances == null) {
+			if(aDAO.findByID(sourceAccountId) == null || aDAO.findByID(targetAccountId) == null) { // Failure path only
+				throw new FailedStatementException(); // No such account
+			}
+			throw new IllegalBalanceException(); // Would have overdrawn the source
 		}
+		ledger.record(new Transaction(sourceAccountId, Transaction.TRANSFER, -amountCents, balances[0], targetAccountId),
+				new Transaction(targetAccountId, Transaction.TRANSFER, amountCents, balances[1], sourceAccountId));
 		
-		double accountFunds = aDAO.findByID(accountId).getBalance(); // Find how much they have
+		return new TransferResultTemplate(Money.format(amountCents) + " has been transfered from Account #" + sourceAccountId
+				+ " to Account #" + targetAccountId, sourceAccountId, targetAccountId, amountCents, balances[0], balances[1], elapsedMicros);
+	}
+	
+	@SuppressWarnings("try") // The lock is only held, never used inside the block
+	public BatchTransferResultTemplate transferAll(List<TransferTemplate> transfers) {
+		// Bulk movements like payroll: one set of account locks, one database transaction and one ledger batch for the lot.
+		// Transfers are applied in order, and one that can't go through is reported and skipped without stopping the rest.
+		int n = transfers.size();
+		if(n == 0 || n > MAX_BATCH_TRANSFERS) {
+			throw new FailedStatementException();
+		}
+		int[] sourceIds = new int[n];
+		int[] targetIds = new int[n];
+		long[] amountsCents = new long[n];
+		int[] accountIds = new int[2 * n];
+		for(int i = 0; i < n; i++) {
+			TransferTemplate t = transfers.get(i);
+			sourceIds[i] = t.getSourceAccountId();
+			targetIds[i] = t.getTargetAccountId();
+			amountsCents[i] = t.getAmountCents();
+			accountIds[2 * i] = sourceIds[i];
+			accountIds[2 * i + 1] = targetIds[i];
+		}
+		
+		long start = System.nanoTime();
+		long[][] balances;
+		// A big batch could hold most of the stripes for the whole transaction, and every other write on the node would
+		// wait on it. The DAO's row locks are what keep it correct, so past MAX_LOCKED_ACCOUNTS it just relies on those.
+		boolean lockAccounts = Arrays.stream(accountIds).distinct().limit(MAX_LOCKED_ACCOUNTS + 1).count() <= MAX_LOCKED_ACCOUNTS;
+		try (StripedLocks.Held held = lockAccounts ? locks.lock(accountIds) : null) {
+			balances = aDAO.transferAll(sourceIds, targetIds, amountsCents);
+		}
+		long elapsedMicros = (System.nanoTime() - start) / 1000;
+		
+		List<BatchTransferItemTemplate> results = new ArrayList<>(n);
+		List<Transaction> entries = new ArrayList<>();
+		Map<Integer, Boolean> exists = new HashMap<>(); // Failure path lookups, once per account
+		int completed = 0;
+		for(int i = 0; i < n; i++) {
+			long[] b = balances == null ? null : balances[i];
+			String status;
+			if(b != null) {
+				status = BatchTransferItemTemplate.COMPLETED;
+				completed++;
+				entries.add(new Transaction(sourceIds[i], Transaction.TRANSFER, -amountsCents[i], b[0], targetIds[i]));
+				entries.add(new Transaction(targetIds[i], Transaction.TRANSFER, amountsCents[i], b[1], sourceIds[i]));
+			} else if(balances == null) {
+				status = BatchTransferItemTemplate.FAILED;
+			} else if(sourceIds[i] == targetIds[i] || amountsCents[i] < 0) {
+				status = BatchTransferItemTemplate.INVALID;
+			} else if(!exists.computeIfAbsent(sourceIds[i], id -> aDAO.findByID(id) != null)
+					|| !exists.computeIfAbsent(targetIds[i], id -> aDAO.findByID(id) != null)) {
+				status = BatchTransferItemTemplate.NO_SUCH_ACCOUNT;
+			} else {
+				status = BatchTransferItemTemplate.INSUFFICIENT_FUNDS;
+			}
+			results.add(new BatchTransferItemTemplate(i, sourceIds[i], targetIds[i], amountsCents[i], status,
+					b == null ? 0 : b[0], b == null ? 0 : b[1]));
+		}
+		if(!entries.isEmpty()) ledger.record(entries.toArray(new Transaction[0])); // All legs in one ledger batch
 		
-		aDAO.updateBalance(accountId, (accountFunds + amount)); // safely commit change
+		return new BatchTransferResultTemplate(completed + " of " + n + " transfers completed", completed, n - completed,
+				elapsedMicros, results);
+	}
 	
-		return aDAO.findByID(accountId); // return updated user
+	public Set<Integer> ownedAccountIds(int userId) { // One lookup for a whole batch, instead of one ownership check per account
+		Set<Integer> accountIds = new HashSet<>();
+		for(UserAccount ua : uaDAO.findAccountsByUser(userId)) {
+			accountIds.add(ua.getAccountId());
+		}
+		return accountIds;
+	}
+	
+	public StripedLocks.Held lockForTransfer(int sourceAccountId, int targetAccountId) {
+		// The account locks a transfer takes, for callers that need more than the transfer done under them. Both are
+		// taken in one go, in stripe order, so opposite transfers can't deadlock. A hot target isn't locked - see applyDelta.
+		return hot.isHot(targetAccountId) ? locks.lock(sourceAccountId) : locks.lock(sourceAccountId, targetAccountId);
 	}
 	
 	public List<UserAccount> ownersOfAccount(int accountId) {
@@ -70,15 +245,12 @@ private static UserAccountDAO uaDAO = new UserAccountDAO();
 	}
 	
 	public boolean userIsOwner(int userId, int accountId) {
-		// Grabs the list of associated users and then checks if the given userId is in that list.
-		// confirmed works
-		List<UserAccount> usersList = this.ownersOfAccount(accountId); 
-		for(UserAccount userAccount : usersList) { // For each found result
-			if(userAccount.getUserId() == userId) { // compare if the userIds match
-				return true; // If so return true
-			}
-		}
-		return false; // If no match is found, return false.
+		// Answered by the in-memory ownership index, or one EXISTS-style query if the index is off
+		return uaDAO.isOwner(userId, accountId);
+	}
+	
+	public boolean hasPremiumOwner(int accountId) { // True if any owner is Premium / Employee / Admin
+		return uaDAO.hasPremiumOwner(accountId);
 	}
 	
 	public List<AbstractAccount> findByStatus(int statusId){ 
@@ -87,17 +259,15 @@ private static UserAccountDAO uaDAO = new UserAccountDAO();
 	}
 	
 	public List<AbstractAccount> findByOwner(int userId){ // Find all accounts associated with the given userID
-		// confirmed works
-		
-		List<UserAccount> userAccounts = uaDAO.findAccountsByUser(userId); // Grab the associated user/accounts
 		
-		if(userAccounts.isEmpty()) { // If the list is empty 
-			throw new FailedStatementException(); // Throw an exception
+		if(ownership != null && ownership.isReady() && ownership.accountsOf(userId).length == 0) { // The index already knows they own nothing
+			throw new FailedStatementException(); // Skip the database entirely
 		}
 		
-		List<AbstractAccount> accounts = new ArrayList<>(); // Make our empty List
-		for(UserAccount ua : userAccounts) { //For every user/account pair
-			accounts.add(this.findByID(ua.getAccountId())); // Find the associated Account with the specified ID
+		List<AbstractAccount> accounts = aDAO.findByOwner(userId, 0); // One joined query rather than one lookup per account
+		
+		if(accounts.isEmpty()) { // If the list is empty 
+			throw new FailedStatementException(); // Throw an exception
 		}
 		
 		return accounts;
@@ -108,17 +278,19 @@ private static UserAccountDAO uaDAO = new UserAccountDAO();
 		if(uaDAO.insert(userId, accountId) < 1) throw new FailedStatementException();
 	}
 	
-	public void passTime(int numOfMonths) { // Accrue 'numOfMonths' worth compound interest.
-		// Confirmed works
+	public PassTimeResultTemplate passTime(int numOfMonths) { // Accrue 'numOfMonths' worth compound interest.
 		int savingsId = 2; // This is here just so we know what '2' represents - the AccountType for savings
-		double interestRate = 0.005; // Monthly interest rate we control - 0.5% in this case
-		List<AbstractAccount> accounts = aDAO.findByType(savingsId);
-		for(AbstractAccount account : accounts) { // For every savings account
-			for(int i = 0; i < numOfMonths; i++) {
-				account.setBalance(account.getBalance()+(account.getBalance()*interestRate)); //Gain compound interest per month
-			}
-			aDAO.updateBalance(account.getAccountId(), account.getBalance()); // Update the balance before moving to the next account 
+		int interestBasisPoints = 50; // Monthly interest rate we control - 50 basis points, 0.5% in this case
+		
+		long start = System.nanoTime();
+		int affected = 0;
+		if(numOfMonths > 0) { // Nothing to accrue for zero or negative months
+			affected = aDAO.accrueInterest(savingsId, interestBasisPoints, numOfMonths); // One set-based update instead of a round trip per account
 		}
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+		
+		return new PassTimeResultTemplate(numOfMonths + " months of compound interest have been accrued on all Savings accounts",
+				numOfMonths, affected, elapsedMillis);
 	}
 
 	public List<AbstractAccount> findByType(int typeId) { // Find by account type (1 checking, 2 savings)
@@ -128,16 +300,9 @@ private static UserAccountDAO uaDAO = new UserAccountDAO();
 
 	public List<AbstractAccount> findByStatusAndOwner(int userId,int statusId){ // Grab all accounts belonging to an owner with the specified status
 		
-		List<AbstractAccount> resultAccounts = new ArrayList<>(); // The list we will be handing back
-		
-		for(AbstractAccount ownedAccount : this.findByOwner(userId)) { // Using our other method to get all accounts belonging to a user, iterate through that list
-			
-			if(ownedAccount.getStatus().getStatusId() == statusId) { // If the account's status matches the one we're looking for
-				resultAccounts.add(ownedAccount); // Add it to our return list
-			}
-			
+		if(statusId < 1) { // Status ids start at 1, 0 would mean 'any status' to the DAO
+			return new ArrayList<>();
 		}
-		
-		return resultAccounts; // Return the final list
+		return aDAO.findByOwner(userId, statusId); // The status filter is part of the query's WHERE clause
 	}
 }
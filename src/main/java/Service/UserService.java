@@ -1,30 +1,57 @@
 package Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import models.*;
 import templates.LoginTemplate;
-import dao.AbstractUserDAO;
+import templates.PageTemplate;
+import dao.DAOFactory;
 import dao.IAbstractUserDAO;
+import dao.RowCallback;
+import exceptions.ConcurrentUpdateException;
 import exceptions.FailedStatementException;
 import exceptions.InvalidLoginException;
 
 public class UserService {
-	private static IAbstractUserDAO uDAO = new AbstractUserDAO();
+	private static IAbstractUserDAO uDAO = DAOFactory.getUserDAO();
 	
 	public AbstractUser insert(AbstractUser u) {
-		int result = uDAO.insert(u); // determine if passed or not.
+		int result = uDAO.insert(u); // determine if passed or not. Also sets the auto-generated userID on u
 		if(result <= 0) {
 			throw new FailedStatementException();
 		}
-		int userId = uDAO.findByUsername(u.getUsername()).getUserId(); // Finds the auto-generated userID
-		u.setUserId(userId); // Then sets it.
 		return u;
 	}
 	
+	public int[] insertAll(List<AbstractUser> users) {
+		// Per user 1 if inserted, 0 if not. null entries (rows that couldn't be read as a user) and users missing a username
+		// or role never reach the DAO, so one of them doesn't cost the rest of the batch its fast path
+		int[] results = new int[users.size()];
+		List<AbstractUser> valid = new ArrayList<>(users.size());
+		for(AbstractUser u : users) {
+			if(u != null && u.getUsername() != null && u.getRole() != null) valid.add(u);
+		}
+		int[] inserted = uDAO.insertAll(valid);
+		for(int i = 0, v = 0; i < users.size(); i++) {
+			AbstractUser u = users.get(i);
+			if(v < valid.size() && u == valid.get(v)) results[i] = inserted[v++];
+		}
+		return results;
+	}
+	
 	public List<AbstractUser> findAll(){ // Pass in current user-list
 		return uDAO.findAll(); // No other logic needed 
 	}
 	
+	public void streamAll(RowCallback<AbstractUser> callback) throws IOException { // Like findAll, without holding every user in memory
+		uDAO.streamAll(callback);
+	}
+	
+	public PageTemplate<AbstractUser> findPage(int afterId, int limit) { // One extra row tells us whether there's a next page
+		return PageTemplate.of(uDAO.findPage(afterId, limit + 1), limit, AbstractUser::getUserId);
+	}
+	
 	public AbstractUser findByID(int id) {
 		if(id<1) {
 			throw new IllegalArgumentException(); // Id goes from 1 to above, anything else is an error.
@@ -50,13 +77,15 @@ public class UserService {
 		if(u.getPassword().equals(lt.getPassword())) {
 			return u;
 		} 		
-		System.out.println("No match");
-		return u;
+		throw new InvalidLoginException(); // Wrong password - same response as an unknown username
 	}
 	
 	public AbstractUser update(AbstractUser u) {
 		int result = uDAO.update(u);
 		if(result != 1) {
+			if(uDAO.findByID(u.getUserId()) != null) { // The user is there, so their version had moved on
+				throw new ConcurrentUpdateException(); // Someone else changed them since they were read
+			}
 			throw new FailedStatementException();
 		}
 		return uDAO.findByID(u.getUserId()); // Returns appropriate record to verify update
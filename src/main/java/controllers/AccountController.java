@@ -1,16 +1,21 @@
 package controllers;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 import javax.servlet.http.HttpSession;
 
 import Service.AccountService;
-import Service.UserService;
+import dao.RowCallback;
 import exceptions.FailedStatementException;
 import models.AbstractAccount;
 import models.AbstractUser;
-import models.UserAccount;
 import templates.BalanceTemplate;
+import templates.BatchTransferResultTemplate;
+import templates.PageTemplate;
+import templates.PassTimeResultTemplate;
+import templates.TransferResultTemplate;
 import templates.PostAccountTemplate;
 import templates.TransferTemplate;
 import templates.UserAccountTemplate;
@@ -22,6 +27,10 @@ public class AccountController {
 		return as.findAll();
 	}
 	
+	public void streamAll(RowCallback<AbstractAccount> callback) throws IOException {
+		as.streamAll(callback);
+	}
+	
 	public List<AbstractAccount> findByStatus(int statusId){
 		return as.findByStatus(statusId);
 	}
@@ -30,42 +39,49 @@ public class AccountController {
 		return as.findByOwner(userId);
 	}
 	
+	public PageTemplate<AbstractAccount> findPage(int afterId, int limit) {
+		return as.findPage(afterId, limit);
+	}
+	
+	public PageTemplate<AbstractAccount> findByStatusPage(int statusId, int afterId, int limit) {
+		return as.findByStatusPage(statusId, afterId, limit);
+	}
+	
+	public PageTemplate<AbstractAccount> findByOwnerPage(int userId, int statusId, int afterId, int limit) {
+		return as.findByOwnerPage(userId, statusId, afterId, limit);
+	}
+	
 	public AbstractAccount findAccountById(int accountId) {			
 		return as.findByID(accountId);
 	}
 	
 	public boolean isOwner(HttpSession session, int accountId) {
 		// Checks our current user's ID and see if it matches any owner ids from the provided account ID
-		AbstractUser u = (AbstractUser) session.getAttribute("currentuser");
+		AbstractUser u = (AbstractUser) session.getAttribute("currentUser");
 		return as.userIsOwner(u.getUserId(), accountId);
 	}
 	
+	public boolean isOwnerOfAll(HttpSession session, Collection<Integer> accountIds) {
+		// Same as isOwner for every account given, with one lookup of the current user's accounts
+		AbstractUser u = (AbstractUser) session.getAttribute("currentUser");
+		return as.ownedAccountIds(u.getUserId()).containsAll(accountIds);
+	}
+	
 	public AbstractAccount insert(PostAccountTemplate postedAccount) {
 		// Take info from posted account object and add records to the appropriate tables.
 		
-		if(as.insert(postedAccount.toAccount()) < 1) throw new FailedStatementException(); // Insert into record Account table
-		as.addUserAccount(postedAccount.getUserId(), postedAccount.getAccountId()); // Add relationship to Users-Accounts table
-		return this.findAccountById(postedAccount.getAccountId());
+		AbstractAccount account = postedAccount.toAccount();
+		if(as.insert(account) < 1) throw new FailedStatementException(); // Insert into record Account table, sets the generated ID
+		as.addUserAccount(postedAccount.getUserId(), account.getAccountId()); // Add relationship to Users-Accounts table
+		return this.findAccountById(account.getAccountId());
 	}
 	
 	public void addUserAccount(UserAccountTemplate userAccount, int currentUserId) {
 		// Adds a UserAccount pair to our USERS-ACCOUNTS table
 		
-		if(as.userIsOwner(currentUserId, userAccount.getAccountId())) { // If our USER is an owner of the account
+		if(as.userIsOwner(currentUserId, userAccount.getAccountId()) // If our USER is an owner of the account
+				|| as.hasPremiumOwner(userAccount.getAccountId())) { // or any owner is Premium / Employee / Admin
 			as.addUserAccount(userAccount.getUserId(), userAccount.getAccountId()); // Add the new joint user to the account
-			
-		} else {
-			
-			UserService us = new UserService(); // We will need to find the Roles of owners, so we call user services
-			
-			for(UserAccount owner : as.ownersOfAccount(userAccount.getAccountId())) { // For every User/Account pair with the right account ID
-				
-				AbstractUser user = us.findByID(owner.getUserId()); // Get the user information from our User service
-				if(user.getRole().getRoleId() > 1) { // If the owner is Premium / Employee / Admin
-					as.addUserAccount(userAccount.getUserId(), userAccount.getAccountId()); // Add the pair
-					return; // exit the method, we don't want to add multiple accounts on accident.
-				}
-			}
 		}
 		
 	}
@@ -74,23 +90,27 @@ public class AccountController {
 		return as.update(account);
 	}
 	
-	public AbstractAccount withdraw(BalanceTemplate withdraw) { // Withdraw from the specified account
-		return as.withdraw(withdraw.getAccountId(), withdraw.getAmount());
+	public long withdraw(BalanceTemplate withdraw) { // Withdraw from the specified account, returns the new balance
+		return as.withdraw(withdraw.getAccountId(), withdraw.getAmountCents());
+	}
+	
+	public long deposit(BalanceTemplate deposit) { // Deposit to the specified account, returns the new balance
+		return as.deposit(deposit.getAccountId(), deposit.getAmountCents());
 	}
 	
-	public AbstractAccount deposit(BalanceTemplate deposit) { // Deposit to the specified account
-		return as.deposit(deposit.getAccountId(), deposit.getAmount());
+	public TransferResultTemplate transfer(TransferTemplate transfer) {
+		// Withdraws from the Source account ID and deposits into the Target account ID in the same amount, as one transaction
+		return as.transfer(transfer.getSourceAccountId(), transfer.getTargetAccountId(), transfer.getAmountCents());
 	}
 	
-	public void transfer(TransferTemplate transfer) {
-		// The below simply withdraws from the Source account ID and deposits into the Target account ID in the same ammount. 
-		this.withdraw(new BalanceTemplate(transfer.getSourceAccountId(),transfer.getAmount()));
-		this.deposit(new BalanceTemplate(transfer.getTargetAccountId(),transfer.getAmount()));
+	public BatchTransferResultTemplate transferAll(List<TransferTemplate> transfers) {
+		// Many transfers in one transaction, with a result for each
+		return as.transferAll(transfers);
 	}
 	
-	public void passTime(int numOfMonths) {
+	public PassTimeResultTemplate passTime(int numOfMonths) {
 		// Give all savings accounts "numOfMonths" amount of interest.
-		as.passTime(numOfMonths);
+		return as.passTime(numOfMonths);
 	}
 	
 	public List<AbstractAccount> findByOwnerAndStatus(int userId, int statusId){
@@ -2,7 +2,6 @@ package controllers;
 
 
 import java.io.IOException;
-import java.io.PrintWriter;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -16,38 +15,37 @@ import exceptions.InvalidLoginException;
 import models.AbstractUser;
 import templates.LoginTemplate;
 import templates.MessageTemplate;
+import util.JsonResponder;
 
 public class LoginController {
 	UserService us = new UserService();
+	private static final byte[] NOT_LOGGED_IN = JsonResponder.message("You need to login. Post your credentials to /login");
+	private static final byte[] ALREADY_LOGGED_IN = JsonResponder.message("Logged in already - GET from /logout to log out.");
+	private static final byte[] LOGGED_OUT = JsonResponder.message("You have been logged out successfully.");
+	private static final byte[] NOT_LOGGED_IN_TO_LOG_OUT = JsonResponder.message("You aren't logged in to begin with. POST your credentials to /login");
 
-	public void doGet(HttpServletRequest req, HttpServletResponse rsp, MessageTemplate message, ObjectMapper om)
+	public void doGet(HttpServletRequest req, HttpServletResponse rsp, JsonResponder json, ObjectMapper om)
 		throws ServletException, IOException{
 		
 		rsp.setStatus(200); // Status ok
-		PrintWriter writer = rsp.getWriter();
 		HttpSession session = req.getSession(); // Creates a session 
 		
 		if(session.getAttribute("currentUser") != null) { // If a currentUser already exists
-			AbstractUser currentUser = (AbstractUser) req.getSession().getAttribute("currentuser");
-			message = new MessageTemplate("You are logged in as user: " + currentUser.toString());
-			writer.println(om.writeValueAsString(message)); // They're logged in
+			AbstractUser currentUser = (AbstractUser) req.getSession().getAttribute("currentUser");
+			json.write(rsp, new MessageTemplate("You are logged in as user: " + currentUser.toString())); // They're logged in
 		} else {
-			message = new MessageTemplate("You need to login. Post your credentials to /login");
-			writer.println(om.writeValueAsString(message)); // They're not logged in
+			json.write(rsp, NOT_LOGGED_IN); // They're not logged in
 		}
 	}
 	
-	public void doPost(HttpServletRequest req, HttpServletResponse rsp, MessageTemplate message, ObjectMapper om)
+	public void doPost(HttpServletRequest req, HttpServletResponse rsp, JsonResponder json, ObjectMapper om)
 		throws ServletException, IOException{
 		/*the doPost method is used */
 		
-		PrintWriter writer = rsp.getWriter();
-		
 		HttpSession session = req.getSession(); // Creates a session 
 		if(session.getAttribute("currentUser") != null) { // Checks if logged in
 			rsp.setStatus(400); // bad request
-			message = new MessageTemplate("Logged in already - GET from /logout to log out.");
-			writer.println(om.writeValueAsString(message));
+			json.write(rsp, ALREADY_LOGGED_IN);
 			return; // We are already logged in so no need to to it again.
 		}
 			
@@ -59,7 +57,7 @@ public class LoginController {
 		if(u != null) {
 			// Successful login attempt
 			rsp.setStatus(200);
-			writer.println(om.writeValueAsString(u));
+			json.write(rsp, u);
 			session.setAttribute("currentUser", u); // applies the 'credentials' to the session so we can see who it is in other requests 
 		} else {
 			// Unsuccessful login attempt
@@ -67,21 +65,18 @@ public class LoginController {
 		}
 	}
 	
-	public void logout(HttpServletRequest req, HttpServletResponse rsp, MessageTemplate message, ObjectMapper om)
+	public void logout(HttpServletRequest req, HttpServletResponse rsp, JsonResponder json, ObjectMapper om)
 			throws ServletException, IOException{
 		HttpSession session = req.getSession(); // grab our session info
-		PrintWriter writer = rsp.getWriter();
 		
 		if(session.getAttribute("currentUser") != null) { // If our user has a session:
 			session.invalidate(); // Totally destroys their session
 			rsp.setStatus(200); // Successful logout. 'OK'
-			message = new MessageTemplate ("You have been logged out successfully.");
-			writer.println(om.writeValueAsString(message));
+			json.write(rsp, LOGGED_OUT);
 			return;
 		} 
 		// If they don't have a session:
 		rsp.setStatus(400); // Bad request
-		message = new MessageTemplate("You aren't logged in to begin with. POST your credentials to /login");
-		writer.println(om.writeValueAsString(message));
+		json.write(rsp, NOT_LOGGED_IN_TO_LOG_OUT);
 	}
 }
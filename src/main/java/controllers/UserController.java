@@ -1,17 +1,25 @@
 package controllers;
 
 
+import java.io.IOException;
 import java.util.List;
 
 
+import Service.AccountService;
 import Service.UserService;
+import dao.DAOFactory;
+import dao.RowCallback;
 import exceptions.FailedStatementException;
 import models.AbstractUser;
-import models.Role;
+import templates.PageTemplate;
 import templates.TransferTemplate;
+import util.Money;
+import util.StripedLocks;
 
 public class UserController {
 private UserService us = new UserService(); // Lets us access User Service methods 
+private AccountService as = new AccountService(); // For the account locks around an upgrade
+public static final long UPGRADE_FEE_CENTS = 10000; // $100.00, paid into the bank account (#5)
 	
 	public AbstractUser accessUser(int id) { // Fetched when the page is loaded normally
 		
@@ -22,6 +30,14 @@ private UserService us = new UserService(); // Lets us access User Service metho
 		return us.findAll();
 	}
 	
+	public void streamAll(RowCallback<AbstractUser> callback) throws IOException {
+		us.streamAll(callback);
+	}
+	
+	public PageTemplate<AbstractUser> findPage(int afterId, int limit) {
+		return us.findPage(afterId, limit);
+	}
+	
 	public AbstractUser updateUser(AbstractUser u) { // Authorizes and allows for update.		
 		return us.update(u);
 	}
@@ -30,14 +46,39 @@ private UserService us = new UserService(); // Lets us access User Service metho
 		return us.insert(u);
 	}
 	
+	public int[] insertAll(List<AbstractUser> users) { // One batch of a bulk import. Per user 1 if inserted, 0 if not
+		return us.insertAll(users);
+	}
+	
+	@SuppressWarnings("try") // The locks are only held, never used inside the block
 	public void upgradeUser(int userId, int accountId, AccountController ac) {
-		AbstractUser user = us.findByID(userId);
-		if(user.getRole().getRoleId() < 1) {
-			throw new FailedStatementException(); // If the user account is already premium / employee / admin, they shouldn't be accessing.
+		// Two upgrades of the same user take turns on the user's lock, so the second one sees the Premium role and is refused
+		// instead of charged again - whichever accounts they're paid from. The user lock comes first and nothing takes a user
+		// lock while holding an account lock, so this can't deadlock. The account locks are the ones the fee transfer takes,
+		// so it only re-enters them.
+		try (StripedLocks.Held userLock = DAOFactory.getUserLocks().lock(userId);
+				StripedLocks.Held accountLocks = as.lockForTransfer(accountId, 5)) {
+			AbstractUser user = us.findByID(userId);
+			if(user.getRole().getRoleId() >= 2) {
+				throw new FailedStatementException(); // If the user account is already premium / employee / admin, they shouldn't be accessing.
+			}
+			ac.transfer(new TransferTemplate(accountId,5,UPGRADE_FEE_CENTS)); // Try to transfer from the given account to our Admin account (the 'bank' account
+			
+			try {
+				user.setRole(DAOFactory.getReferenceData().role(2)); // The shared Premium role
+				us.update(user);
+			} catch(RuntimeException e) {
+				// The fee went through but the upgrade didn't (e.g. the user was changed meanwhile), so give it back before
+				// reporting the failure. Still under the same locks, so the bank account has the fee to return.
+				try {
+					ac.transfer(new TransferTemplate(5,accountId,UPGRADE_FEE_CENTS));
+				} catch(RuntimeException refund) {
+					System.err.println("UserController: upgrade of user #" + userId + " failed after charging " + Money.format(UPGRADE_FEE_CENTS)
+							+ " to Account #" + accountId + ", and the refund failed too: " + refund);
+					e.addSuppressed(refund);
+				}
+				throw e;
+			}
 		}
-		ac.transfer(new TransferTemplate(userId,5,100)); // Try to transfer from the given ID to our Admin account (the 'bank' account
-		
-		user.setRole(new Role(2,"Premium"));
-		us.update(user);
 	}
 }
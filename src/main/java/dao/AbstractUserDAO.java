@@ -1,21 +1,39 @@
 package dao;
 
+import java.io.IOException;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import models.Role;
 import models.AbstractUser;
 import util.ConnectionUtil;
 
 public class AbstractUserDAO implements IAbstractUserDAO {
+	private static final int STREAM_PAGE_SIZE = 500; // Rows per keyset page when streaming
+	// Role names come from ReferenceData, so user queries only ever read USERS itself
+	private static final int IN_LIST_SIZE = 1000; // Oracle's limit on expressions in an IN list
+	private static final String INSERT_SQL = "INSERT INTO USERS (username,password,first_name,last_name,email,role_id) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String USER_COLUMNS = "SELECT ID, USERNAME, PASSWORD, FIRST_NAME, LAST_NAME, EMAIL, ROLE_ID, VERSION FROM USERS";
+
+	private final ReferenceData refs;
+	private final OwnershipIndex ownership; // null when the index is off. Deletes cascade to USERS_ACCOUNTS, and to this
+
+	public AbstractUserDAO(ReferenceData refs, OwnershipIndex ownership) {
+		super();
+		this.refs = refs;
+		this.ownership = ownership;
+	}
 
 	@Override
-	public int insert(AbstractUser u) {
+	public int insert(AbstractUser u) { // Insert user and update the given object with the generated ID
 		int result = 0;
 		try (Connection conn = ConnectionUtil.getConnection()) {
 			// The below 'unpacks' all the information in the user object for neat SQL implementation
@@ -27,9 +45,7 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			int roleID = u.getRole().getRoleId();
 			
 			// The below updates all fields
-			String sql = "INSERT INTO USERS (username,password,first_name,last_name,email,role_id) VALUES (?, ?, ?, ?, ?, ?)";
-			
-			PreparedStatement stmnt = conn.prepareStatement(sql);
+			PreparedStatement stmnt = conn.prepareStatement(INSERT_SQL, new String[] {"ID"}); // Hand back the generated ID with the insert
 			stmnt.setString(1, uname);
 			stmnt.setString(2, pass);
 			stmnt.setString(3, fName);
@@ -38,6 +54,12 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			stmnt.setInt(6, roleID);
 			
 			result = stmnt.executeUpdate();
+			
+			ResultSet rs = stmnt.getGeneratedKeys(); // Same round trip, saves looking the user back up by username
+			if(rs.next()) {
+				u.setUserId(rs.getInt(1));
+				u.setVersion(0); // VERSION defaults to 0 for new rows
+			}
 		} catch(SQLException e) {
 			e.printStackTrace();
 			return result; // If something goes wrong, return 0 for '0 changed rows'.
@@ -45,6 +67,78 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 		return result;
 	}
 
+	@Override
+	public int[] insertAll(List<AbstractUser> users) {
+		// Bulk import: the users go in with one JDBC batch and one commit, and their generated ids come back with one query
+		// by username per IN_LIST_SIZE users (this Oracle driver can't return generated keys from a batch). If any row is
+		// refused - a username that's taken, say - the batch is rolled back and the users are inserted one by one instead,
+		// so each gets its own result.
+		int[] results = new int[users.size()];
+		if(users.isEmpty()) return results;
+		try (Connection conn = ConnectionUtil.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				PreparedStatement stmnt = conn.prepareStatement(INSERT_SQL);
+				for(AbstractUser u : users) {
+					stmnt.setString(1, u.getUsername());
+					stmnt.setString(2, u.getPassword());
+					stmnt.setString(3, u.getFirstName());
+					stmnt.setString(4, u.getLastName());
+					stmnt.setString(5, u.getEmail());
+					stmnt.setInt(6, u.getRole().getRoleId());
+					stmnt.addBatch();
+				}
+				stmnt.executeBatch();
+				Map<String, Integer> ids = this.idsByUsername(conn, users);
+				conn.commit();
+				
+				for(int i = 0; i < users.size(); i++) {
+					AbstractUser u = users.get(i);
+					Integer id = ids.get(u.getUsername());
+					if(id == null) continue; // Can't happen once committed, but don't hand out a user without its id
+					u.setUserId(id);
+					u.setVersion(0); // VERSION defaults to 0 for new rows
+					results[i] = 1;
+				}
+				return results;
+			} catch(BatchUpdateException e) {
+				conn.rollback(); // Some row was refused, fall through to one at a time
+			} catch(SQLException e) {
+				conn.rollback();
+				throw e;
+			}
+		} catch(SQLException e) {
+			e.printStackTrace();
+			return results; // If something goes wrong, 0 for every user
+		}
+		
+		for(int i = 0; i < users.size(); i++) {
+			results[i] = this.insert(users.get(i));
+		}
+		return results;
+	}
+
+	private Map<String, Integer> idsByUsername(Connection conn, List<AbstractUser> users) throws SQLException {
+		Map<String, Integer> ids = new HashMap<>();
+		for(int from = 0; from < users.size(); from += IN_LIST_SIZE) {
+			List<AbstractUser> chunk = users.subList(from, Math.min(users.size(), from + IN_LIST_SIZE));
+			StringBuilder sql = new StringBuilder("SELECT ID, USERNAME FROM USERS WHERE USERNAME IN (");
+			for(int i = 0; i < chunk.size(); i++) {
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+			PreparedStatement stmnt = conn.prepareStatement(sql.append(")").toString());
+			for(int i = 0; i < chunk.size(); i++) {
+				stmnt.setString(i + 1, chunk.get(i).getUsername());
+			}
+			ResultSet rs = stmnt.executeQuery();
+			while(rs.next()) {
+				ids.put(rs.getString(2), rs.getInt(1));
+			}
+			stmnt.close();
+		}
+		return ids;
+	}
+
 	@Override
 	public List<AbstractUser> findAll() { // Find all records
 		List<AbstractUser> allAbstractUsers = new ArrayList<>();
@@ -53,25 +147,14 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			//Allows us to instantiate some variable, and at the end of try it will auto-close 
 			//to prevent memory leaks, even if exception is thrown.
 			
-			String sql = "SELECT * FROM USERS INNER JOIN ROLES ON USERS.role_id = ROLES.id"; // gets all users with the value of their role id displayed
+			String sql = USER_COLUMNS; // gets all users, role names are filled in from ReferenceData
 			
 			Statement stmnt = conn.createStatement();
 			
 			ResultSet rs = stmnt.executeQuery(sql); // Right as this is executed, the query runs to the database and grabs the info
 			
 			while(rs.next()) { // For each entry in the result set
-				int id = rs.getInt("ID"); // Grab the AbstractAbstractUser id
-				String uname = rs.getString("USERNAME"); // grab AbstractAbstractUsername
-				String password = rs.getString("PASSWORD"); // grab pass
-				String fName = rs.getString("FIRST_NAME"); // grab first name
-				String lName = rs.getString("LAST_NAME"); // grab last
-				String email = rs.getString("EMAIL"); // grab email
-				int roleID = rs.getInt("ROLE_ID"); // grab role id
-				String role = rs.getString("ROLE_NAME"); // grab role name
-				
-				Role r = new Role(roleID, role); // make role object
-				AbstractUser u = new AbstractUser(id,uname,password,fName,lName,email,r); // make AbstractAbstractUser object
-				allAbstractUsers.add(u); // add AbstractAbstractUser object to the list
+				allAbstractUsers.add(this.mapUser(rs)); // add user object to the list
 			}
 			
 		} catch(SQLException e) {
@@ -81,12 +164,77 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 		return allAbstractUsers;
 	}
 
+	@Override
+	public void streamAll(RowCallback<AbstractUser> callback) throws IOException {
+		// Every user in id order, read a keyset page at a time like findPage. Each page's connection goes back to the
+		// pool before its rows are handed on, so a slow client holds neither a connection nor an open cursor
+		int afterId = 0;
+		while(true) {
+			List<AbstractUser> page;
+			try {
+				page = this.queryPage(afterId, STREAM_PAGE_SIZE);
+			} catch(SQLException e) {
+				// Rows may already be on their way to the client - fail the stream rather than let it end looking complete
+				throw new IOException("Streaming failed part way through", e);
+			}
+			for(AbstractUser u : page) {
+				callback.accept(u);
+			}
+			if(page.size() < STREAM_PAGE_SIZE) return;
+			afterId = page.get(page.size() - 1).getUserId();
+		}
+	}
+
+	@Override
+	public List<AbstractUser> findPage(int afterId, int limit) {
+		// Seeks straight to afterId on the primary key index, so every page costs the same no matter how deep it is
+		try {
+			return this.queryPage(afterId, limit);
+		} catch(SQLException e) {
+			e.printStackTrace();
+			return new ArrayList<AbstractUser>(); // If something goes wrong, return an empty list.
+		}
+	}
+
+	private List<AbstractUser> queryPage(int afterId, int limit) throws SQLException { // findPage, letting failures through
+		List<AbstractUser> page = new ArrayList<>();
+		try (Connection conn = ConnectionUtil.getConnection()) {
+			
+			String sql = USER_COLUMNS + " "
+					+ "WHERE ID > ? ORDER BY ID FETCH FIRST ? ROWS ONLY";
+			
+			PreparedStatement stmnt = conn.prepareStatement(sql);
+			stmnt.setInt(1, afterId);
+			stmnt.setInt(2, limit);
+			
+			ResultSet rs = stmnt.executeQuery();
+			
+			while(rs.next()) {
+				page.add(this.mapUser(rs));
+			}
+		}
+		return page;
+	}
+
+	private AbstractUser mapUser(ResultSet rs) throws SQLException { // Turns the current USER_COLUMNS row into a user
+		int uid = rs.getInt(1);
+		String username = rs.getString(2);
+		String password = rs.getString(3);
+		String fName = rs.getString(4);
+		String lName = rs.getString(5);
+		String email = rs.getString(6);
+		Role r = refs.role(rs.getInt(7)); // Shared instance, nothing allocated for the role
+		AbstractUser u = new AbstractUser(uid,username,password,fName,lName,email,r);
+		u.setVersion(rs.getInt(8));
+		return u;
+	}
+
 	@Override
 	public AbstractUser findByID(int id) { // ID is primary key
 		AbstractUser result = null;
 		try (Connection conn = ConnectionUtil.getConnection()) {
 			
-			String sql = "SELECT * FROM USERS INNER JOIN ROLES ON USERS.role_id = ROLES.id WHERE USERS.ID = ?";
+			String sql = USER_COLUMNS + " WHERE ID = ?";
 			
 			PreparedStatement stmnt = conn.prepareStatement(sql);
 			stmnt.setInt(1, id); // Defines the WHERE ID = ?
@@ -94,17 +242,7 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			ResultSet rs = stmnt.executeQuery(); // grabs result set of the query
 			
 			while(rs.next()) { // While there are results:
-				int uid = rs.getInt("ID"); // Grab the AbstractAbstractUser id
-				String username = rs.getString("USERNAME"); // grab AbstractAbstractUsername
-				String password = rs.getString("PASSWORD"); // grab pass
-				String fName = rs.getString("FIRST_NAME"); // grab first name
-				String lName = rs.getString("LAST_NAME"); // grab last
-				String email = rs.getString("EMAIL"); // grab email
-				int roleID = rs.getInt("ROLE_ID"); // grab role id
-				String role = rs.getString("ROLE_NAME"); // grab role name
-
-				Role r = new Role(roleID, role); // make role object
-				result = new AbstractUser(uid,username,password,fName,lName,email,r); // make AbstractAbstractUser object
+				result = this.mapUser(rs);
 			}
 		} catch(SQLException e) {
 			e.printStackTrace();
@@ -118,7 +256,7 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 		AbstractUser result = null;
 		try (Connection conn = ConnectionUtil.getConnection()) {
 			
-			String sql = "SELECT * FROM USERS INNER JOIN ROLES ON USERS.role_id = ROLES.id WHERE USERNAME = ?";
+			String sql = USER_COLUMNS + " WHERE USERNAME = ?";
 			
 			PreparedStatement stmnt = conn.prepareStatement(sql);
 			stmnt.setString(1, uname); // Defines the WHERE ID = ?
@@ -126,17 +264,7 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			ResultSet rs = stmnt.executeQuery(); // grabs result set of the query
 			
 			while(rs.next()) { // While there are results:
-				int uid = rs.getInt("ID"); // Grab the user id
-				String username = rs.getString("USERNAME"); // grab username
-				String password = rs.getString("PASSWORD"); // grab pass
-				String fName = rs.getString("FIRST_NAME"); // grab first name
-				String lName = rs.getString("LAST_NAME"); // grab last
-				String email = rs.getString("EMAIL"); // grab email
-				int roleID = rs.getInt("ROLE_ID"); // grab role id
-				String role = rs.getString("ROLE_NAME"); // grab role name
-
-				Role r = new Role(roleID, role); // make role object
-				result = new AbstractUser(uid,username,password,fName,lName,email,r); // make AbstractAbstractUser object
+				result = this.mapUser(rs);
 			}
 		} catch(SQLException e) {
 			e.printStackTrace();
@@ -157,10 +285,13 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			String lName = u.getLastName();
 			String email = u.getEmail();
 			int roleID = u.getRole().getRoleId();
+			int version = u.getVersion();
 			
-			// The below updates all fields
+			// The below updates all fields, but only if nobody has changed the row since it was read (compare-and-set on VERSION).
+			// 0 rows means no such user or a version conflict - UserService tells the two apart.
 			String sql = "UPDATE USERS SET "
-					+ "USERNAME = ?, PASSWORD = ?, FIRST_NAME = ?, LAST_NAME = ?, EMAIL = ? WHERE ID = ?"; 
+					+ "USERNAME = ?, PASSWORD = ?, FIRST_NAME = ?, LAST_NAME = ?, EMAIL = ?, ROLE_ID = ?, VERSION = VERSION + 1 "
+					+ "WHERE ID = ? AND VERSION = ?"; 
 			
 			PreparedStatement stmnt = conn.prepareStatement(sql); //Insert values into statement
 			stmnt.setString(1, uname);
@@ -170,8 +301,10 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			stmnt.setString(5, email);
 			stmnt.setInt(6, roleID);
 			stmnt.setInt(7, id);
+			stmnt.setInt(8, version);
 			
 			result = stmnt.executeUpdate();
+			if(result == 1) u.setVersion(version + 1); // The caller's copy now matches the row
 		} catch(SQLException e) {
 			e.printStackTrace();
 			return result; // If something goes wrong, return 0 for '0 changed rows'.
@@ -192,6 +325,7 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			stmnt.setInt(1, id);
 			
 			result = stmnt.executeUpdate();
+			if(result > 0 && ownership != null) ownership.removeUser(id); // Their USERS_ACCOUNTS rows went with them
 		} catch(SQLException e) {
 			e.printStackTrace();
 			return result; // If something goes wrong, return 0 for '0 changed rows'.
@@ -204,7 +338,7 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 		AbstractUser result = null;
 		try (Connection conn = ConnectionUtil.getConnection()) {
 			
-			String sql = "SELECT * FROM USERS INNER JOIN ROLES ON USERS.role_id = ROLES.id WHERE EMAIL = ?";
+			String sql = USER_COLUMNS + " WHERE EMAIL = ?";
 			
 			PreparedStatement stmnt = conn.prepareStatement(sql);
 			stmnt.setString(1, email); // Defines the WHERE EMAIL = ?
@@ -212,17 +346,7 @@ public class AbstractUserDAO implements IAbstractUserDAO {
 			ResultSet rs = stmnt.executeQuery(); // grabs result set of the query
 			
 			while(rs.next()) { // While there are results:
-				int uid = rs.getInt("ID"); // Grab the AbstractAbstractUser id
-				String username = rs.getString("USERNAME"); // grab AbstractAbstractUsername
-				String password = rs.getString("PASSWORD"); // grab pass
-				String fName = rs.getString("FIRST_NAME"); // grab first name
-				String lName = rs.getString("LAST_NAME"); // grab last
-				String mail = rs.getString("EMAIL"); // grab email
-				int roleID = rs.getInt("ROLE_ID"); // grab role id
-				String role = rs.getString("ROLE_NAME"); // grab role name
-
-				Role r = new Role(roleID, role); // make role object
-				result = new AbstractUser(uid,username,password,fName,lName,mail,r); // make AbstractAbstractUser object
+				result = this.mapUser(rs);
 			}
 		} catch(SQLException e) {
 			e.printStackTrace();
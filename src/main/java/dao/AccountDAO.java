@@ -1,50 +1,87 @@
 package dao;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import models.AbstractAccount;
 import models.AccountStatus;
 import models.AccountType;
-import models.StandardAccount;	
+import models.StandardAccount;
+import models.Transaction;	
 import util.ConnectionUtil;
+import util.Money;
 
 public class AccountDAO implements IAccountDAO{
 	// All functions are fully operational at this point in time.
+	private static final int MAX_TRANSFER_ATTEMPTS = 3; // Tries per transfer / interest run when the database reports a deadlock / serialization failure
+	private static final int STREAM_PAGE_SIZE = 500; // Rows per keyset page when streaming
+	// A hot account's balance is its main row plus its ACCOUNT_SLOTS rows (see HotAccounts)
+	private static final String SLOT_SUM = "NVL((SELECT SUM(ACCOUNT_SLOTS.BALANCE_CENTS) FROM ACCOUNT_SLOTS WHERE ACCOUNT_SLOTS.ACCOUNT_ID = ACCOUNTS.ID), 0)";
+	// and its version is VERSION plus the credits its slots have taken since they were last swept
+	private static final String SLOT_CREDITS = "NVL((SELECT SUM(ACCOUNT_SLOTS.CREDITS) FROM ACCOUNT_SLOTS WHERE ACCOUNT_SLOTS.ACCOUNT_ID = ACCOUNTS.ID), 0)";
+
+	private final ReferenceData refs;
+	private final HotAccounts hot;
+	private final OwnershipIndex ownership; // null when the index is off. Deletes cascade to USERS_ACCOUNTS, and to this
+	private final String balanceColumn; // What an account's balance is read as
+	// Status and type come from ReferenceData, so account queries only ever read ACCOUNTS itself (and ACCOUNT_SLOTS if there are hot accounts)
+	private final String accountColumns;
+	// Joins through USERS_ACCOUNTS so all of a user's accounts come back in one round trip.
+	private final String ownerSql;
+	private final String pageSql; // Keyset page by id, for findPage and streamAll
+
+	public AccountDAO(ReferenceData refs, HotAccounts hot, OwnershipIndex ownership) {
+		super();
+		this.refs = refs;
+		this.hot = hot;
+		this.ownership = ownership;
+		// Only pay for the slot subquery when some account can have slots
+		this.balanceColumn = hot.isEmpty() ? "ACCOUNTS.BALANCE_CENTS" : "ACCOUNTS.BALANCE_CENTS + " + SLOT_SUM;
+		String versionColumn = hot.isEmpty() ? "ACCOUNTS.VERSION" : "ACCOUNTS.VERSION + " + SLOT_CREDITS;
+		this.accountColumns = "SELECT ACCOUNTS.ID, " + balanceColumn + ", ACCOUNTS.STATUS_ID, ACCOUNTS.TYPE_ID, " + versionColumn + " ";
+		this.ownerSql = accountColumns
+				+ "FROM USERS_ACCOUNTS "
+				+ "INNER JOIN ACCOUNTS ON USERS_ACCOUNTS.account_id = ACCOUNTS.id "
+				+ "WHERE USERS_ACCOUNTS.USER_ID = ? ";
+		this.pageSql = accountColumns + "FROM ACCOUNTS "
+				+ "WHERE ACCOUNTS.ID > ? ORDER BY ACCOUNTS.ID FETCH FIRST ? ROWS ONLY";
+	}
 
 	@Override
-	public int insert(AbstractAccount a) { // Insert user into database and update the given object with the generated ID
-		//CONFIRMED WORKS
+	public int insert(AbstractAccount a) { // Insert account into database and update the given object with the generated ID
 		int result = 0;
 		try (Connection conn = ConnectionUtil.getConnection()) {
 			// The below 'unpacks' all the information in the Account object for neat SQL implementation
-			double balance = a.getBalance();
+			long balanceCents = a.getBalanceCents();
 			AccountStatus as = a.getStatus();
 			AccountType at = a.getType();
 			
 			// The below updates all fields
-			String sql = "INSERT INTO ACCOUNTS (balance,status_id,type_id) VALUES (?, ?, ?)";
+			String sql = "INSERT INTO ACCOUNTS (balance_cents,status_id,type_id) VALUES (?, ?, ?)";
 			
-			PreparedStatement stmnt = conn.prepareStatement(sql);
-			stmnt.setDouble(1, balance);
+			PreparedStatement stmnt = conn.prepareStatement(sql, new String[] {"ID"}); // Hand back the generated ID with the insert
+			stmnt.setLong(1, balanceCents);
 			stmnt.setInt(2, as.getStatusId());
 			stmnt.setInt(3, at.getTypeId());
 			
 			result = stmnt.executeUpdate();
 			
-			sql = "SELECT ISEQ$$_21571.CURRVAL FROM DUAL"; //This gets the auto-generated ID we just used for our new account
-			stmnt = conn.prepareStatement(sql);
-			
-			ResultSet rs = stmnt.executeQuery();
+			ResultSet rs = stmnt.getGeneratedKeys(); // Same round trip, no need to know the identity sequence's name
 			
 			while(rs.next()) {
 				int id = rs.getInt(1); // Grabs the value from the first column
 				a.setAccountId(id);  // Now that we know the Value, we can access our new ID and assign it to our account.
+				a.setVersion(0); // VERSION defaults to 0 for new rows
 			}
 			
 		} catch(SQLException e) {
@@ -63,28 +100,14 @@ public class AccountDAO implements IAccountDAO{
 			//Allows us to instantiate some variable, and at the end of try it will auto-close 
 			//to prevent memory leaks, even if exception is thrown.
 			
-			String sql = "SELECT *"
-					+ "FROM ACCOUNTS "
-					+ "INNER JOIN ACCOUNT_STATUS ON ACCOUNTS.status_id = ACCOUNT_STATUS.id "
-					+ "INNER JOIN ACCOUNT_TYPE ON ACCOUNTS.type_id = ACCOUNT_TYPE.id"; // gets all Users with the value of their role id displayed
+			String sql = accountColumns + "FROM ACCOUNTS"; // gets all accounts, status and type names are filled in from ReferenceData
 			
 			Statement stmnt = conn.createStatement();
 			
 			ResultSet rs = stmnt.executeQuery(sql); // Right as this is executed, the query runs to the database and grabs the info
 			
 			while(rs.next()) { // For each entry in the result set
-				int id = rs.getInt("ID"); // Grab the account id
-				double balance = rs.getDouble("BALANCE");
-				int asID = rs.getInt("STATUS_ID");
-				String asStatus = rs.getString("status");
-				int atID = rs.getInt("type_id");
-				String atType = rs.getString("type");
-				
-				AccountStatus as = new AccountStatus(asID,asStatus);
-				AccountType at = new AccountType(atID, atType);
-				AbstractAccount a = new StandardAccount(id,balance,as,at);
-				
-				allAccounts.add(a); // add User object to the list
+				allAccounts.add(this.mapAccount(rs)); // add account object to the list
 			}
 			
 		} catch(SQLException e) {
@@ -94,16 +117,104 @@ public class AccountDAO implements IAccountDAO{
 		return allAccounts;
 	}
 
+	@Override
+	public void streamAll(RowCallback<AbstractAccount> callback) throws IOException {
+		// Every account in id order, read a keyset page at a time like findPage. Each page's connection goes back to the
+		// pool before its rows are handed on, so a slow client holds neither a connection nor an open cursor
+		int afterId = 0;
+		while(true) {
+			List<AbstractAccount> page;
+			try {
+				page = this.queryAccounts(pageSql, afterId, STREAM_PAGE_SIZE);
+			} catch(SQLException e) {
+				// Rows may already be on their way to the client - fail the stream rather than let it end looking complete
+				throw new IOException("Streaming failed part way through", e);
+			}
+			for(AbstractAccount a : page) {
+				callback.accept(a);
+			}
+			if(page.size() < STREAM_PAGE_SIZE) return;
+			afterId = page.get(page.size() - 1).getAccountId();
+		}
+	}
+
+	@Override
+	public List<AbstractAccount> findPage(int afterId, int limit) {
+		// Seeks straight to afterId on the primary key index, so every page costs the same no matter how deep it is
+		return this.findAccounts(pageSql, afterId, limit);
+	}
+
+	@Override
+	public List<AbstractAccount> findByStatusPage(int statusId, int afterId, int limit) {
+		String sql = accountColumns + "FROM ACCOUNTS "
+				+ "WHERE ACCOUNTS.STATUS_ID = ? AND ACCOUNTS.ID > ? ORDER BY ACCOUNTS.ID FETCH FIRST ? ROWS ONLY";
+		return this.findAccounts(sql, statusId, afterId, limit);
+	}
+
+	@Override
+	public List<AbstractAccount> findByOwner(int userId, int statusId) {
+		// Replaces looking up the USERS_ACCOUNTS rows and then each account one by one
+		if(statusId > 0) {
+			return this.findAccounts(ownerSql + "AND ACCOUNTS.STATUS_ID = ? ORDER BY ACCOUNTS.ID", userId, statusId);
+		}
+		return this.findAccounts(ownerSql + "ORDER BY ACCOUNTS.ID", userId);
+	}
+
+	@Override
+	public List<AbstractAccount> findByOwnerPage(int userId, int statusId, int afterId, int limit) {
+		String sql = ownerSql + "AND ACCOUNTS.ID > ? ";
+		if(statusId > 0) {
+			sql += "AND ACCOUNTS.STATUS_ID = ? ORDER BY ACCOUNTS.ID FETCH FIRST ? ROWS ONLY";
+			return this.findAccounts(sql, userId, afterId, statusId, limit);
+		}
+		sql += "ORDER BY ACCOUNTS.ID FETCH FIRST ? ROWS ONLY";
+		return this.findAccounts(sql, userId, afterId, limit);
+	}
+
+	private List<AbstractAccount> findAccounts(String sql, int... params) { // Runs an account query with int binds, in order
+		try {
+			return this.queryAccounts(sql, params);
+		} catch(SQLException e) {
+			e.printStackTrace();
+			return new ArrayList<AbstractAccount>(); // If something goes wrong, return an empty list.
+		}
+	}
+
+	private List<AbstractAccount> queryAccounts(String sql, int... params) throws SQLException { // findAccounts, letting failures through
+		List<AbstractAccount> accounts = new ArrayList<>();
+		try (Connection conn = ConnectionUtil.getConnection()) {
+			
+			PreparedStatement stmnt = conn.prepareStatement(sql);
+			for(int i = 0; i < params.length; i++) {
+				stmnt.setInt(i + 1, params[i]);
+			}
+			
+			ResultSet rs = stmnt.executeQuery();
+			
+			while(rs.next()) {
+				accounts.add(this.mapAccount(rs));
+			}
+		}
+		return accounts;
+	}
+
+	private AbstractAccount mapAccount(ResultSet rs) throws SQLException { // Turns the current accountColumns row into an account
+		int id = rs.getInt(1);
+		long balanceCents = rs.getLong(2);
+		AccountStatus as = refs.status(rs.getInt(3)); // Shared instances, nothing allocated per row
+		AccountType at = refs.type(rs.getInt(4));
+		AbstractAccount a = new StandardAccount(id,balanceCents,as,at);
+		a.setVersion(rs.getInt(5));
+		return a;
+	}
+
 	@Override
 	public AbstractAccount findByID(int id) { // Find an account matching the given account id
 		//CONFIRMED WORKS
 		AbstractAccount result = null;
 		try (Connection conn = ConnectionUtil.getConnection()) {
 			
-			String sql = "SELECT * FROM ACCOUNTS "
-					+ "INNER JOIN ACCOUNT_STATUS ON ACCOUNTS.status_id = ACCOUNT_STATUS.id "
-					+ "INNER JOIN ACCOUNT_TYPE ON ACCOUNTS.type_id = ACCOUNT_TYPE.id "
-					+ "WHERE ACCOUNTS.ID = ?";
+			String sql = accountColumns + "FROM ACCOUNTS WHERE ACCOUNTS.ID = ?"; // Primary key lookup, no joins
 			
 			PreparedStatement stmnt = conn.prepareStatement(sql);
 			stmnt.setInt(1, id); // Defines the WHERE ID = ?
@@ -111,16 +222,7 @@ public class AccountDAO implements IAccountDAO{
 			ResultSet rs = stmnt.executeQuery(); // grabs result set of the query
 			
 			while(rs.next()) { // While there are results:
-				int accountId = rs.getInt("id");
-				double balance = rs.getDouble("balance");
-				int statusId = rs.getInt("status_id");
-				String statusName = rs.getString("status");
-				int typeId = rs.getInt("type_id");
-				String typeName = rs.getString("type");
-				
-				AccountStatus as = new AccountStatus(statusId,statusName);
-				AccountType at = new AccountType(typeId,typeName);
-				result = new StandardAccount(accountId,balance,as,at);
+				result = this.mapAccount(rs);
 			}
 		} catch(SQLException e) {
 			e.printStackTrace();
@@ -137,21 +239,39 @@ public class AccountDAO implements IAccountDAO{
 		try (Connection conn = ConnectionUtil.getConnection()) {
 			// The below 'unpacks' all the information in the Account object for neat SQL implementation
 			int accountId = a.getAccountId();
-			double balance = a.getBalance();
+			long balanceCents = a.getBalanceCents();
 			int statusId = a.getStatus().getStatusId();
 			int typeId = a.getType().getTypeId();
 			
-			// The below updates all fields
+			int version = a.getVersion();
+			
+			boolean hotAccount = hot.isHot(accountId);
+			if(hotAccount) {
+				// Gather the slots into the row first, so the new balance replaces them too. A sweep moves their credit count
+				// into VERSION with the money, so credits made before the PUT's read still match, and later ones don't.
+				conn.setAutoCommit(false); // If anything below throws, the pool rolls back when the connection goes back
+				this.sweep(conn, accountId);
+			}
+			
+			// The below updates all fields, but only if nobody has changed the row since it was read (compare-and-set on VERSION).
+			// 0 rows means no such account or a version conflict - AccountService tells the two apart.
 			String sql = "UPDATE ACCOUNTS SET "
-					+ "BALANCE = ?, STATUS_ID = ?, TYPE_ID = ? WHERE ID = ?"; 
+					+ "BALANCE_CENTS = ?, STATUS_ID = ?, TYPE_ID = ?, VERSION = VERSION + 1 WHERE ID = ? AND VERSION = ?"; 
 			
 			PreparedStatement stmnt = conn.prepareStatement(sql); //Insert values into statement
-			stmnt.setDouble(1, balance);
+			stmnt.setLong(1, balanceCents);
 			stmnt.setInt(2, statusId);
 			stmnt.setInt(3, typeId);
 			stmnt.setInt(4, accountId);
+			stmnt.setInt(5, version);
 			
 			result = stmnt.executeUpdate();
+			if(hotAccount && result == 1) {
+				conn.commit();
+			} else if(hotAccount) {
+				conn.rollback(); // A conflict changes nothing, not even the sweep
+			}
+			if(result == 1) a.setVersion(version + 1); // The caller's copy now matches the row
 		} catch(SQLException e) {
 			e.printStackTrace();
 			return result; // If something goes wrong, return 0 for '0 changed rows'.
@@ -160,20 +280,25 @@ public class AccountDAO implements IAccountDAO{
 	}
 
 	@Override
-	public int updateBalance(int id, double balance) { // Update the balance of an account with the specified ID
+	public int updateBalance(int id, long balanceCents) { // Update the balance of an account with the specified ID
 		//CONFIRMED WORKS
 		int result = 0;
 		try (Connection conn = ConnectionUtil.getConnection()) {
-			// The below 'unpacks' all the information in the Account object for neat SQL implementation
+			boolean hotAccount = hot.isHot(id);
+			if(hotAccount) { // The new balance replaces whatever the slots held too
+				conn.setAutoCommit(false); // If anything below throws, the pool rolls back when the connection goes back
+				this.sweep(conn, id);
+			}
 			
 			// The below updates all fields
-			String sql = "UPDATE ACCOUNTS SET BALANCE = ? WHERE ID = ?"; 
+			String sql = "UPDATE ACCOUNTS SET BALANCE_CENTS = ?, VERSION = VERSION + 1 WHERE ID = ?"; 
 			
 			PreparedStatement stmnt = conn.prepareStatement(sql); //Insert values into statement
-			stmnt.setDouble(1, balance);
+			stmnt.setLong(1, balanceCents);
 			stmnt.setInt(2, id);
 			
 			result = stmnt.executeUpdate();
+			if(hotAccount) conn.commit();
 		} catch(SQLException e) {
 			e.printStackTrace();
 			return result; // If something goes wrong, return 0 for '0 changed rows'.
@@ -181,6 +306,351 @@ public class AccountDAO implements IAccountDAO{
 		return result;
 	}
 	
+	@Override
+	public Long adjustBalance(int id, long deltaCents) {
+		// Applies the change and checks for overdraft in the same statement, so two concurrent withdrawals
+		// can't both pass a balance check made in Java. The new balance is read back before the commit, while
+		// the UPDATE still holds the row lock - if it can't be read, nothing is committed and the caller sees a
+		// refusal it can safely retry, rather than a failure after the money already moved.
+		// Hot accounts take credits into a slot instead, and sweep their slots into the row before a debit.
+		Long result = null;
+		try (Connection conn = ConnectionUtil.getConnection()) {
+			
+			if(hot.isHot(id) && deltaCents >= 0) { // Credit - one slot row, the main row isn't locked
+				return this.creditSlot(conn, id, deltaCents) ? this.readBalance(conn, id) : null; // The balance may include other credits made meanwhile
+			}
+			
+			conn.setAutoCommit(false); // The change and the read of the new balance commit together
+			try {
+				if(hot.isHot(id) && this.sweep(conn, id) == null) { // Sweep and debit commit together, and the slots stay locked until then
+					conn.rollback();
+					return null;
+				}
+				
+				String sql = "UPDATE ACCOUNTS SET BALANCE_CENTS = BALANCE_CENTS + ?, VERSION = VERSION + 1 WHERE ID = ? AND BALANCE_CENTS + ? >= 0";
+				
+				PreparedStatement stmnt = conn.prepareStatement(sql);
+				stmnt.setLong(1, deltaCents);
+				stmnt.setInt(2, id);
+				stmnt.setLong(3, deltaCents);
+				
+				if(stmnt.executeUpdate() == 1) { // 0 rows means no such account, or not enough funds
+					PreparedStatement read = conn.prepareStatement("SELECT BALANCE_CENTS FROM ACCOUNTS WHERE ID = ?");
+					read.setInt(1, id);
+					ResultSet rs = read.executeQuery();
+					if(rs.next()) result = rs.getLong(1); // For a hot account this is everything - its slots were just emptied
+				}
+				if(result == null) {
+					conn.rollback(); // Refused, or the balance couldn't be read - nothing moves. A hot account's sweep is undone too, it only moved money within the account
+				} else {
+					conn.commit();
+				}
+			} catch(SQLException e) {
+				conn.rollback();
+				throw e;
+			}
+		} catch(SQLException e) {
+			e.printStackTrace();
+			return null;
+		}
+		return result;
+	}
+	
+	@Override
+	public long[] transfer(int sourceId, int targetId, long amountCents) {
+		// Debit and credit in one transaction on one connection, so a transfer is never half applied.
+		// Both rows are locked lowest id first - two transfers between the same accounts in opposite
+		// directions then queue up behind each other instead of deadlocking.
+		if(sourceId == targetId || amountCents < 0) return null; // Refused, like transferAll
+		for(int attempt = 1; ; attempt++) {
+			try (Connection conn = ConnectionUtil.getConnection()) {
+				conn.setAutoCommit(false);
+				try {
+					long[] result = this.transfer(conn, sourceId, targetId, amountCents);
+					if(result == null) {
+						conn.rollback(); // Refused, release the row locks
+					} else {
+						conn.commit();
+					}
+					return result;
+				} catch(SQLException e) {
+					conn.rollback();
+					throw e;
+				}
+			} catch(SQLException e) {
+				if(attempt < MAX_TRANSFER_ATTEMPTS && isRetryable(e)) {
+					continue; // Nothing was committed, safe to run the whole transaction again
+				}
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	private long[] transfer(Connection conn, int sourceId, int targetId, long amountCents) throws SQLException {
+		if(hot.isHot(targetId)) return this.transferToHot(conn, sourceId, targetId, amountCents);
+		
+		long sourceBalance = 0;
+		long targetBalance = 0;
+		int[] lockOrder = (sourceId < targetId) ? new int[] {sourceId, targetId} : new int[] {targetId, sourceId};
+		for(int id : lockOrder) {
+			Long balance = this.lockBalance(conn, id);
+			if(balance == null) return null; // No such account
+			if(id == sourceId) {
+				sourceBalance = balance;
+			} else {
+				targetBalance = balance;
+			}
+		}
+		if(hot.isHot(sourceId)) sourceBalance = this.sweep(conn, sourceId); // Its row is locked already, this brings in the slots
+		
+		if(sourceBalance - amountCents < 0) return null; // Can't overdraw. Safe to check in Java, nobody else can change the rows now
+		if(Money.overflows(targetBalance, amountCents)) return null; // Refused rather than letting the target wrap around
+		
+		PreparedStatement stmnt = conn.prepareStatement("UPDATE ACCOUNTS SET BALANCE_CENTS = BALANCE_CENTS + ?, VERSION = VERSION + 1 WHERE ID = ?");
+		stmnt.setLong(1, -amountCents);
+		stmnt.setInt(2, sourceId);
+		stmnt.addBatch();
+		stmnt.setLong(1, amountCents);
+		stmnt.setInt(2, targetId);
+		stmnt.addBatch();
+		stmnt.executeBatch(); // Debit and credit in one round trip
+		
+		return new long[] {sourceBalance - amountCents, targetBalance + amountCents};
+	}
+
+	@Override
+	public long[][] transferAll(int[] sourceIds, int[] targetIds, long[] amountsCents) {
+		// A batch of transfers (e.g. payroll) in one transaction on one connection: every row involved is locked once,
+		// the transfers are checked in order against running balances, and each account's final balance goes back in
+		// one JDBC batch - a few round trips for the lot instead of several per transfer.
+		for(int attempt = 1; ; attempt++) {
+			try (Connection conn = ConnectionUtil.getConnection()) {
+				conn.setAutoCommit(false);
+				try {
+					long[][] results = this.transferAll(conn, sourceIds, targetIds, amountsCents);
+					conn.commit(); // Refused transfers never touched anything, the rest go in together
+					return results;
+				} catch(SQLException e) {
+					conn.rollback();
+					throw e;
+				}
+			} catch(SQLException e) {
+				if(attempt < MAX_TRANSFER_ATTEMPTS && isRetryable(e)) {
+					continue; // Nothing was committed, run the whole batch again
+				}
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	private long[][] transferAll(Connection conn, int[] sourceIds, int[] targetIds, long[] amountsCents) throws SQLException {
+		TreeSet<Integer> ids = new TreeSet<>();
+		for(int i = 0; i < sourceIds.length; i++) {
+			ids.add(sourceIds[i]);
+			ids.add(targetIds[i]);
+		}
+		Map<Integer, Long> balances = this.lockBalances(conn, ids); // Accounts that don't exist are simply missing
+		for(int id : ids) {
+			if(hot.isHot(id) && balances.containsKey(id)) balances.put(id, this.sweep(conn, id)); // The final balance is written whole, so gather the slots first
+		}
+		
+		long[][] results = new long[sourceIds.length][];
+		Set<Integer> changed = new TreeSet<>();
+		for(int i = 0; i < sourceIds.length; i++) {
+			int sourceId = sourceIds[i];
+			int targetId = targetIds[i];
+			long amountCents = amountsCents[i];
+			Long sourceBalance = balances.get(sourceId);
+			Long targetBalance = balances.get(targetId);
+			if(sourceId == targetId || amountCents < 0 || sourceBalance == null || targetBalance == null) continue; // Refused
+			if(sourceBalance - amountCents < 0 || Money.overflows(targetBalance, amountCents)) continue; // Can't overdraw or overflow
+			
+			balances.put(sourceId, sourceBalance - amountCents);
+			balances.put(targetId, targetBalance + amountCents);
+			changed.add(sourceId);
+			changed.add(targetId);
+			results[i] = new long[] {sourceBalance - amountCents, targetBalance + amountCents};
+		}
+		if(changed.isEmpty()) return results;
+		
+		// The rows are locked, so writing the final balance is safe, and one UPDATE per account however many transfers touched it
+		PreparedStatement stmnt = conn.prepareStatement("UPDATE ACCOUNTS SET BALANCE_CENTS = ?, VERSION = VERSION + 1 WHERE ID = ?");
+		for(int id : changed) {
+			stmnt.setLong(1, balances.get(id));
+			stmnt.setInt(2, id);
+			stmnt.addBatch();
+		}
+		stmnt.executeBatch();
+		return results;
+	}
+
+	private Map<Integer, Long> lockBalances(Connection conn, TreeSet<Integer> ids) throws SQLException {
+		// Locks many main rows until commit, one at a time in ascending id order - the order transfer() uses too. A single
+		// FOR UPDATE over an IN list would lock in whatever order Oracle reads the rows, and two batches sharing accounts
+		// could deadlock. Row by row, they queue up behind each other instead.
+		Map<Integer, Long> balances = new HashMap<>();
+		PreparedStatement lock = conn.prepareStatement("SELECT BALANCE_CENTS FROM ACCOUNTS WHERE ID = ? FOR UPDATE");
+		for(int id : ids) {
+			lock.setInt(1, id);
+			ResultSet rs = lock.executeQuery();
+			if(rs.next()) balances.put(id, rs.getLong(1));
+			rs.close();
+		}
+		lock.close();
+		return balances;
+	}
+
+	private long[] transferToHot(Connection conn, int sourceId, int targetId, long amountCents) throws SQLException {
+		// The credit goes into one of the target's slots, so only the source row is locked - that's the point of a hot account
+		Long sourceBalance = hot.isHot(sourceId) ? this.sweep(conn, sourceId) : this.lockBalance(conn, sourceId);
+		if(sourceBalance == null || sourceBalance - amountCents < 0) return null; // No such account, or can't overdraw
+		
+		PreparedStatement stmnt = conn.prepareStatement("UPDATE ACCOUNTS SET BALANCE_CENTS = BALANCE_CENTS - ?, VERSION = VERSION + 1 WHERE ID = ?");
+		stmnt.setLong(1, amountCents);
+		stmnt.setInt(2, sourceId);
+		stmnt.executeUpdate();
+		
+		if(!this.creditSlot(conn, targetId, amountCents)) return null; // No such target, the caller rolls the debit back
+		Long targetBalance = this.readBalance(conn, targetId); // May include other credits made meanwhile
+		return new long[] {sourceBalance - amountCents, targetBalance == null ? 0 : targetBalance};
+	}
+
+	private Long lockBalance(Connection conn, int id) throws SQLException { // Locks an account's main row until commit. null if there's no such account
+		PreparedStatement lock = conn.prepareStatement("SELECT BALANCE_CENTS FROM ACCOUNTS WHERE ID = ? FOR UPDATE");
+		lock.setInt(1, id);
+		ResultSet rs = lock.executeQuery();
+		Long balance = rs.next() ? rs.getLong(1) : null;
+		lock.close(); // Same SQL is prepared again for the next row
+		return balance;
+	}
+
+	private Long readBalance(Connection conn, int id) throws SQLException { // Main row plus any slots, no locks. null if there's no such account
+		PreparedStatement stmnt = conn.prepareStatement("SELECT " + balanceColumn + " FROM ACCOUNTS WHERE ACCOUNTS.ID = ?");
+		stmnt.setInt(1, id);
+		ResultSet rs = stmnt.executeQuery();
+		return rs.next() ? rs.getLong(1) : null;
+	}
+
+	private boolean creditSlot(Connection conn, int id, long amountCents) throws SQLException {
+		// Adds to one of a hot account's slots, creating the slot row the first time it's picked. False if there's no such account.
+		// The slot counts the credit as well, which is what moves the account's version on without locking its row.
+		String sql = "MERGE INTO ACCOUNT_SLOTS USING (SELECT ? AS ACCOUNT_ID, ? AS SLOT FROM DUAL) NEW_SLOT "
+				+ "ON (ACCOUNT_SLOTS.ACCOUNT_ID = NEW_SLOT.ACCOUNT_ID AND ACCOUNT_SLOTS.SLOT = NEW_SLOT.SLOT) "
+				+ "WHEN MATCHED THEN UPDATE SET ACCOUNT_SLOTS.BALANCE_CENTS = ACCOUNT_SLOTS.BALANCE_CENTS + ?, ACCOUNT_SLOTS.CREDITS = ACCOUNT_SLOTS.CREDITS + 1 "
+				+ "WHEN NOT MATCHED THEN INSERT (ACCOUNT_ID, SLOT, BALANCE_CENTS, CREDITS) VALUES (NEW_SLOT.ACCOUNT_ID, NEW_SLOT.SLOT, ?, 1)";
+		int slot = hot.pickSlot();
+		for(int attempt = 1; ; attempt++) {
+			try {
+				PreparedStatement stmnt = conn.prepareStatement(sql);
+				stmnt.setInt(1, id);
+				stmnt.setInt(2, slot);
+				stmnt.setLong(3, amountCents);
+				stmnt.setLong(4, amountCents);
+				stmnt.executeUpdate();
+				return true;
+			} catch(SQLException e) {
+				if(e.getErrorCode() == 2291) return false; // ORA-02291, the foreign key to ACCOUNTS - no such account
+				if(e.getErrorCode() == 1 && attempt == 1) continue; // ORA-00001, another credit created the slot row first. It's there to update now
+				throw e;
+			}
+		}
+	}
+
+	private Long sweep(Connection conn, int id) throws SQLException {
+		// Caller is in a transaction. Locks a hot account's main row, then its slots - always in that order - and moves
+		// the slots' money into the row. Returns the whole balance, or null if there's no such account.
+		// The slots' credit count goes into VERSION alongside, so the version callers see doesn't change.
+		Long balance = this.lockBalance(conn, id);
+		if(balance == null) return null;
+		
+		PreparedStatement slots = conn.prepareStatement("SELECT BALANCE_CENTS, CREDITS FROM ACCOUNT_SLOTS WHERE ACCOUNT_ID = ? FOR UPDATE");
+		slots.setInt(1, id);
+		ResultSet rs = slots.executeQuery();
+		long moved = 0;
+		long credits = 0;
+		while(rs.next()) {
+			moved += rs.getLong(1);
+			credits += rs.getLong(2);
+		}
+		if(credits == 0) return balance; // Nothing to gather
+		
+		PreparedStatement empty = conn.prepareStatement("UPDATE ACCOUNT_SLOTS SET BALANCE_CENTS = 0, CREDITS = 0 WHERE ACCOUNT_ID = ?");
+		empty.setInt(1, id);
+		empty.executeUpdate();
+		
+		PreparedStatement gather = conn.prepareStatement("UPDATE ACCOUNTS SET BALANCE_CENTS = BALANCE_CENTS + ?, VERSION = VERSION + ? WHERE ID = ?");
+		gather.setLong(1, moved);
+		gather.setLong(2, credits);
+		gather.setInt(3, id);
+		gather.executeUpdate();
+		return balance + moved;
+	}
+
+	private static boolean isRetryable(SQLException e) {
+		// SQLState class 40 is 'transaction rollback' (40001 serialization failure), ORA-00060 a deadlock and ORA-08177 "can't serialize access"
+		String state = e.getSQLState();
+		return (state != null && state.startsWith("40")) || e.getErrorCode() == 60 || e.getErrorCode() == 8177;
+	}
+	
+	@Override
+	public int accrueInterest(int typeId, int monthlyRateBasisPoints, int months) {
+		// Compound 'months' of interest on every account of the given type in a single statement.
+		// balance * (1 + rate)^months is the closed form of adding balance * rate once a month. The rate is
+		// bound as whole basis points and divided in SQL, so Oracle works with the exact decimal, and the
+		// result is rounded to the cent once (half up) - the same rule as Money.compound for the in-memory backend.
+		// The ledger rows are written set-based alongside it rather than through LedgerWriter, which would mean
+		// reading every account back. Both statements run in one serializable transaction so they see the same
+		// balances - a deposit committed in between makes the UPDATE fail with ORA-08177, and we run it again.
+		for(int attempt = 1; ; attempt++) {
+			try (Connection conn = ConnectionUtil.getConnection()) {
+				conn.setAutoCommit(false);
+				try {
+					int result = this.accrueInterest(conn, typeId, monthlyRateBasisPoints, months);
+					conn.commit();
+					return result;
+				} catch(SQLException e) {
+					conn.rollback();
+					throw e;
+				}
+			} catch(SQLException e) {
+				if(attempt < MAX_TRANSFER_ATTEMPTS && isRetryable(e)) {
+					continue; // Nothing was committed, safe to run the whole transaction again
+				}
+				e.printStackTrace();
+				return 0; // If something goes wrong, return 0 for '0 changed rows'.
+			}
+		}
+	}
+
+	private int accrueInterest(Connection conn, int typeId, int monthlyRateBasisPoints, int months) throws SQLException {
+		// Interest is on the whole balance. A hot account's slots are left alone (no locks on them) and the interest goes into its main row
+		String balance = hot.isEmpty() ? "BALANCE_CENTS" : "(BALANCE_CENTS + " + SLOT_SUM + ")";
+		String compounded = "ROUND(" + balance + " * POWER(1 + ? / 10000, ?))";
+
+		Statement isolation = conn.createStatement();
+		isolation.execute("SET TRANSACTION ISOLATION LEVEL SERIALIZABLE"); // This transaction only, the pooled connection keeps its default
+		isolation.close();
+
+		PreparedStatement ledger = conn.prepareStatement("INSERT INTO TRANSACTIONS (ACCOUNT_ID, KIND, AMOUNT_CENTS, BALANCE_AFTER_CENTS, CREATED_AT) "
+				+ "SELECT ID, ?, " + compounded + " - " + balance + ", " + compounded + ", SYSTIMESTAMP FROM ACCOUNTS WHERE TYPE_ID = ?");
+		ledger.setString(1, Transaction.INTEREST);
+		ledger.setInt(2, monthlyRateBasisPoints);
+		ledger.setInt(3, months);
+		ledger.setInt(4, monthlyRateBasisPoints);
+		ledger.setInt(5, months);
+		ledger.setInt(6, typeId);
+		ledger.executeUpdate();
+
+		String slots = hot.isEmpty() ? "" : " - " + SLOT_SUM;
+		PreparedStatement stmnt = conn.prepareStatement("UPDATE ACCOUNTS SET BALANCE_CENTS = " + compounded + slots + ", VERSION = VERSION + 1 WHERE TYPE_ID = ?");
+		stmnt.setInt(1, monthlyRateBasisPoints);
+		stmnt.setInt(2, months);
+		stmnt.setInt(3, typeId);
+		return stmnt.executeUpdate(); // Still one UPDATE for the whole book
+	}
+	
 	@Override
 	public int delete(int accountId) {
 		// Delete the Account row that matches the given id
@@ -195,6 +665,7 @@ public class AccountDAO implements IAccountDAO{
 			stmnt.setInt(1, accountId);
 			
 			result = stmnt.executeUpdate();
+			if(result > 0 && ownership != null) ownership.removeAccount(accountId); // Its USERS_ACCOUNTS rows went with it
 		} catch(SQLException e) {
 			e.printStackTrace();
 			return result; // If something goes wrong, return 0 for '0 changed rows'.
@@ -212,11 +683,7 @@ public class AccountDAO implements IAccountDAO{
 			//Allows us to instantiate some variable, and at the end of try it will auto-close 
 			//to prevent memory leaks, even if exception is thrown.
 
-			String sql = "SELECT *"
-					+ "FROM ACCOUNTS "
-					+ "INNER JOIN ACCOUNT_STATUS ON ACCOUNTS.status_id = ACCOUNT_STATUS.id "
-					+ "INNER JOIN ACCOUNT_TYPE ON ACCOUNTS.type_id = ACCOUNT_TYPE.id "
-					+ "WHERE ACCOUNT_STATUS.id = ?"; // gets all accounts that match the specific account status ID
+			String sql = accountColumns + "FROM ACCOUNTS WHERE ACCOUNTS.STATUS_ID = ?"; // gets all accounts that match the specific account status ID
 
 			PreparedStatement stmnt = conn.prepareStatement(sql);
 			stmnt.setInt(1, statusId);
@@ -224,18 +691,7 @@ public class AccountDAO implements IAccountDAO{
 			ResultSet rs = stmnt.executeQuery(); // Right as this is executed, the query runs to the database and grabs the info
 
 			while(rs.next()) { // For each entry in the result set
-				int id = rs.getInt("ID"); // Grab the account id
-				double balance = rs.getDouble("BALANCE");
-				int asID = rs.getInt("status_id");
-				String asStatus = rs.getString("status");
-				int atID = rs.getInt("type_id");
-				String atType = rs.getString("type");
-
-				AccountStatus as = new AccountStatus(asID,asStatus);
-				AccountType at = new AccountType(atID, atType);
-				AbstractAccount a = new StandardAccount(id,balance,as,at);
-
-				allAccounts.add(a); // add User object to the list
+				allAccounts.add(this.mapAccount(rs)); // add account object to the list
 			}
 
 		} catch(SQLException e) {
@@ -245,6 +701,7 @@ public class AccountDAO implements IAccountDAO{
 		return allAccounts;
 	}
 
+	@Override
 	public List<AbstractAccount> findByType(int typeId){ // Find by type (1 checking, 2 savings)
 		//CONFIRMED WORKS
 		
@@ -253,11 +710,7 @@ public class AccountDAO implements IAccountDAO{
 			//Allows us to instantiate some variable, and at the end of try it will auto-close 
 			//to prevent memory leaks, even if exception is thrown.
 
-			String sql = "SELECT * "
-					+ "FROM ACCOUNTS "
-					+ "INNER JOIN ACCOUNT_STATUS ON ACCOUNTS.status_id = ACCOUNT_STATUS.id "
-					+ "INNER JOIN ACCOUNT_TYPE ON ACCOUNTS.type_id = ACCOUNT_TYPE.id "
-					+ "WHERE ACCOUNT_TYPE.id = ?"; // gets all accounts that match the specific account type ID
+			String sql = accountColumns + "FROM ACCOUNTS WHERE ACCOUNTS.TYPE_ID = ?"; // gets all accounts that match the specific account type ID
 
 			PreparedStatement stmnt = conn.prepareStatement(sql);
 			stmnt.setInt(1, typeId);
@@ -265,18 +718,7 @@ public class AccountDAO implements IAccountDAO{
 			ResultSet rs = stmnt.executeQuery(); // Right as this is executed, the query runs to the database and grabs the info
 
 			while(rs.next()) { // For each entry in the result set
-				int id = rs.getInt("id"); // Grab the account id
-				double balance = rs.getDouble("balance");
-				int asID = rs.getInt("status_id");
-				String asStatus = rs.getString("status");
-				int atID = rs.getInt("type_id");
-				String atType = rs.getString("type");
-
-				AccountStatus as = new AccountStatus(asID,asStatus);
-				AccountType at = new AccountType(atID, atType);
-				AbstractAccount a = new StandardAccount(id,balance,as,at);
-
-				allAccounts.add(a); // add User object to the list
+				allAccounts.add(this.mapAccount(rs)); // add account object to the list
 			}
 
 		} catch(SQLException e) {
@@ -0,0 +1,157 @@
+package dao;
+
+import java.io.IOException;
+import java.util.List;
+
+import models.AbstractUser;
+import util.CacheStatistics;
+import util.ConcurrentLruCache;
+
+public class CachingAbstractUserDAO implements IAbstractUserDAO {
+	// Wraps the real USERS DAO with a cache that answers findByID, findByUsername and findByEmail.
+	// Users are held once, by id. Usernames and emails map to the id, and a hit through them is only
+	// trusted if the cached user still has that username / email - so a stale mapping just misses.
+	// Entries expire after a time to live, which bounds how long another node's edits can go unseen.
+	// Writes go to the database first and then update or drop the cached user.
+	private final IAbstractUserDAO delegate;
+	private final ReferenceData refs;
+	private final ConcurrentLruCache<Integer, AbstractUser> byId;
+	private final ConcurrentLruCache<String, Integer> byUsername;
+	private final ConcurrentLruCache<String, Integer> byEmail;
+
+	public CachingAbstractUserDAO(IAbstractUserDAO delegate, ReferenceData refs, int maxSize, long timeToLiveMillis) {
+		super();
+		this.delegate = delegate;
+		this.refs = refs;
+		this.byId = new ConcurrentLruCache<>(maxSize, timeToLiveMillis);
+		this.byUsername = new ConcurrentLruCache<>(maxSize, timeToLiveMillis);
+		this.byEmail = new ConcurrentLruCache<>(maxSize, timeToLiveMillis);
+	}
+
+	public CacheStatistics getStatistics() { // The users themselves, every lookup ends up here
+		return byId.getStatistics();
+	}
+
+	public CacheStatistics getUsernameStatistics() {
+		return byUsername.getStatistics();
+	}
+
+	public CacheStatistics getEmailStatistics() {
+		return byEmail.getStatistics();
+	}
+
+	@Override
+	public int insert(AbstractUser u) {
+		int result = delegate.insert(u);
+		if(result > 0) { // New id, nobody else can be writing it
+			byId.put(u.getUserId(), this.snapshot(u));
+			this.mapKeys(u);
+		}
+		return result;
+	}
+
+	@Override
+	public int[] insertAll(List<AbstractUser> users) {
+		return delegate.insertAll(users); // Not cached - an import shouldn't push everyone else out of the cache
+	}
+
+	@Override
+	public List<AbstractUser> findAll() {
+		return delegate.findAll();
+	}
+
+	@Override
+	public void streamAll(RowCallback<AbstractUser> callback) throws IOException {
+		delegate.streamAll(callback);
+	}
+
+	@Override
+	public List<AbstractUser> findPage(int afterId, int limit) {
+		return delegate.findPage(afterId, limit);
+	}
+
+	@Override
+	public AbstractUser findByID(int id) {
+		AbstractUser cached = byId.get(id, delegate::findByID);
+		return cached == null ? null : this.snapshot(cached); // Callers get their own copy to modify
+	}
+
+	@Override
+	public AbstractUser findByUsername(String username) {
+		if(username == null) return delegate.findByUsername(username);
+		Integer id = byUsername.get(username);
+		if(id != null) {
+			AbstractUser cached = byId.get(id);
+			if(cached != null && username.equals(cached.getUsername())) return this.snapshot(cached);
+		}
+
+		long stamp = byId.writeStamp(); // Taken before the load, so a write that lands during it keeps the result out
+		AbstractUser loaded = byId.load(username, delegate::findByUsername);
+		if(loaded != null && byId.putIfUnchanged(loaded.getUserId(), this.snapshot(loaded), stamp)) {
+			byUsername.put(username, loaded.getUserId());
+		}
+		return loaded;
+	}
+
+	@Override
+	public AbstractUser findByEmail(String email) {
+		if(email == null) return delegate.findByEmail(email);
+		Integer id = byEmail.get(email);
+		if(id != null) {
+			AbstractUser cached = byId.get(id);
+			if(cached != null && email.equals(cached.getEmail())) return this.snapshot(cached);
+		}
+
+		long stamp = byId.writeStamp();
+		AbstractUser loaded = byId.load(email, delegate::findByEmail);
+		if(loaded != null && byId.putIfUnchanged(loaded.getUserId(), this.snapshot(loaded), stamp)) {
+			byEmail.put(email, loaded.getUserId());
+		}
+		return loaded;
+	}
+
+	@Override
+	public int update(AbstractUser u) {
+		int id = u.getUserId();
+		int result = 0;
+		byId.beginWrite(id);
+		try {
+			result = delegate.update(u);
+		} finally {
+			boolean updated = result == 1;
+			byId.endWrite(id, old -> updated ? this.snapshot(u) : null); // A conflict drops it too
+		}
+		if(result == 1) this.mapKeys(u); // Point the (possibly new) username and email at the id
+		return result;
+	}
+
+	@Override
+	public int delete(int id) {
+		int result = 0;
+		byId.beginWrite(id);
+		try {
+			result = delegate.delete(id);
+		} finally {
+			byId.endWrite(id, old -> null); // Any username / email mapping now finds nothing and misses
+		}
+		return result;
+	}
+
+	private void mapKeys(AbstractUser u) {
+		if(u.getUsername() != null) byUsername.put(u.getUsername(), u.getUserId());
+		if(u.getEmail() != null) byEmail.put(u.getEmail(), u.getUserId());
+	}
+
+	private AbstractUser snapshot(AbstractUser u) {
+		// The role is swapped for the shared ReferenceData instance, so the copy holds nothing a caller can change
+		AbstractUser copy = new AbstractUser(u.getUserId(), u.getUsername(), u.getPassword(), u.getFirstName(), u.getLastName(),
+				u.getEmail(), refs.role(u.getRole().getRoleId()));
+		copy.setVersion(u.getVersion());
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "CachingAbstractUserDAO " + byId.getStatistics();
+	}
+}
@@ -0,0 +1,195 @@
+package dao;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import models.AbstractAccount;
+import models.StandardAccount;
+import util.CacheStatistics;
+import util.ConcurrentLruCache;
+
+public class CachingAccountDAO implements IAccountDAO {
+	// Wraps the real ACCOUNTS DAO with a bounded cache of accounts by id. findByID is answered from
+	// memory once an account has been read. Writes go to the database first and then update or drop
+	// the cached copy, so this node never serves a balance older than its own last write.
+	// Listings (findAll, pages, owner lookups) always go to the database and aren't cached.
+	// Hot accounts aren't cached either - credits change their balance without bumping VERSION.
+	private final IAccountDAO delegate;
+	private final ReferenceData refs;
+	private final HotAccounts hot;
+	private final ConcurrentLruCache<Integer, AbstractAccount> cache;
+
+	public CachingAccountDAO(IAccountDAO delegate, ReferenceData refs, HotAccounts hot, int maxSize) {
+		super();
+		this.delegate = delegate;
+		this.refs = refs;
+		this.hot = hot;
+		this.cache = new ConcurrentLruCache<>(maxSize);
+	}
+
+	public CacheStatistics getStatistics() {
+		return cache.getStatistics();
+	}
+
+	@Override
+	public int insert(AbstractAccount a) {
+		int result = delegate.insert(a);
+		if(result > 0 && !hot.isHot(a.getAccountId())) cache.put(a.getAccountId(), this.snapshot(a, a.getBalanceCents(), a.getVersion())); // New id, nobody else can be writing it
+		return result;
+	}
+
+	@Override
+	public List<AbstractAccount> findAll() {
+		return delegate.findAll();
+	}
+
+	@Override
+	public void streamAll(RowCallback<AbstractAccount> callback) throws IOException {
+		delegate.streamAll(callback);
+	}
+
+	@Override
+	public List<AbstractAccount> findByStatus(int statusId) {
+		return delegate.findByStatus(statusId);
+	}
+
+	@Override
+	public List<AbstractAccount> findByType(int typeId) {
+		return delegate.findByType(typeId);
+	}
+
+	@Override
+	public List<AbstractAccount> findByOwner(int userId, int statusId) {
+		return delegate.findByOwner(userId, statusId);
+	}
+
+	@Override
+	public List<AbstractAccount> findPage(int afterId, int limit) {
+		return delegate.findPage(afterId, limit);
+	}
+
+	@Override
+	public List<AbstractAccount> findByStatusPage(int statusId, int afterId, int limit) {
+		return delegate.findByStatusPage(statusId, afterId, limit);
+	}
+
+	@Override
+	public List<AbstractAccount> findByOwnerPage(int userId, int statusId, int afterId, int limit) {
+		return delegate.findByOwnerPage(userId, statusId, afterId, limit);
+	}
+
+	@Override
+	public AbstractAccount findByID(int id) {
+		if(hot.isHot(id)) return delegate.findByID(id);
+		AbstractAccount cached = cache.get(id, delegate::findByID);
+		return cached == null ? null : this.snapshot(cached, cached.getBalanceCents(), cached.getVersion()); // Callers get their own copy to modify
+	}
+
+	@Override
+	public int update(AbstractAccount a) {
+		int id = a.getAccountId();
+		int result = 0;
+		cache.beginWrite(id);
+		try {
+			result = delegate.update(a);
+		} finally {
+			boolean updated = result == 1 && !hot.isHot(id);
+			cache.endWrite(id, old -> updated ? this.snapshot(a, a.getBalanceCents(), a.getVersion()) : null); // A conflict drops it too
+		}
+		return result;
+	}
+
+	@Override
+	public int updateBalance(int id, long balanceCents) {
+		int result = 0;
+		cache.beginWrite(id);
+		try {
+			result = delegate.updateBalance(id, balanceCents);
+		} finally {
+			boolean updated = result == 1;
+			cache.endWrite(id, old -> (updated && old != null) ? this.snapshot(old, balanceCents, old.getVersion() + 1) : null);
+		}
+		return result;
+	}
+
+	@Override
+	public Long adjustBalance(int id, long deltaCents) {
+		Long result = null;
+		cache.beginWrite(id);
+		try {
+			result = delegate.adjustBalance(id, deltaCents);
+		} finally {
+			Long newBalance = result; // null when refused, which still leaves the cached copy correct
+			cache.endWrite(id, old -> (old == null || newBalance == null) ? old : this.snapshot(old, newBalance, old.getVersion() + 1));
+		}
+		return result;
+	}
+
+	@Override
+	public long[] transfer(int sourceId, int targetId, long amountCents) {
+		long[] result = null;
+		cache.beginWrite(sourceId);
+		cache.beginWrite(targetId);
+		try {
+			result = delegate.transfer(sourceId, targetId, amountCents);
+		} finally {
+			long[] balances = result;
+			cache.endWrite(sourceId, old -> (old == null || balances == null) ? old : this.snapshot(old, balances[0], old.getVersion() + 1));
+			cache.endWrite(targetId, old -> (old == null || balances == null) ? old : this.snapshot(old, balances[1], old.getVersion() + 1));
+		}
+		return result;
+	}
+
+	@Override
+	public long[][] transferAll(int[] sourceIds, int[] targetIds, long[] amountsCents) {
+		Set<Integer> ids = new TreeSet<>();
+		for(int i = 0; i < sourceIds.length; i++) {
+			ids.add(sourceIds[i]);
+			ids.add(targetIds[i]);
+		}
+		for(int id : ids) {
+			cache.beginWrite(id);
+		}
+		try {
+			return delegate.transferAll(sourceIds, targetIds, amountsCents);
+		} finally {
+			for(int id : ids) {
+				cache.endWrite(id, old -> null); // Several transfers may have touched it, the next read loads it fresh
+			}
+		}
+	}
+
+	@Override
+	public int accrueInterest(int typeId, int monthlyRateBasisPoints, int months) {
+		int result = delegate.accrueInterest(typeId, monthlyRateBasisPoints, months);
+		cache.invalidateIf(a -> a.getType().getTypeId() == typeId); // Set-based update, drop what it may have touched
+		return result;
+	}
+
+	@Override
+	public int delete(int id) {
+		int result = 0;
+		cache.beginWrite(id);
+		try {
+			result = delegate.delete(id);
+		} finally {
+			cache.endWrite(id, old -> null);
+		}
+		return result;
+	}
+
+	private AbstractAccount snapshot(AbstractAccount a, long balanceCents, int version) {
+		// Status and type are swapped for the shared ReferenceData instances, so the copy holds nothing a caller can change
+		AbstractAccount copy = new StandardAccount(a.getAccountId(), balanceCents, refs.status(a.getStatus().getStatusId()),
+				refs.type(a.getType().getTypeId()));
+		copy.setVersion(version); // Balance changes bump VERSION in the database, so the cached copy follows
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "CachingAccountDAO " + cache.getStatistics();
+	}
+}
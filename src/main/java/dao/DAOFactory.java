@@ -0,0 +1,176 @@
+package dao;
+
+import util.CacheStatistics;
+import util.LedgerStatistics;
+import util.LockStatistics;
+import util.StripedLocks;
+
+public class DAOFactory {
+	/** Picks which storage backend the services talk to.
+	 *
+	 * Set with -Drocp.backend=... when starting the server:
+	 * oracle - (default) the remote Oracle database through ConnectionUtil
+	 * memory - the embedded InMemoryDatabase, for load testing and benchmarking without a network database
+	 *
+	 * ROLES, ACCOUNT_STATUS and ACCOUNT_TYPE are read once into ReferenceData here, before any DAO is built.
+	 *
+	 * -Drocp.ownershipIndex=false turns off the in-memory USERS_ACCOUNTS index (on by default).
+	 * The index is node-local, so only leave it on when this node is the only writer of USERS_ACCOUNTS.
+	 *
+	 * -Drocp.accountCache.maxSize=N sizes the account cache in front of the account DAO (10000 by default, 0 turns it off).
+	 * Like the index it only sees this node's writes.
+	 *
+	 * -Drocp.userCache.maxSize=N and -Drocp.userCache.ttlMillis=T do the same for users (10000 users for 60 seconds
+	 * by default, maxSize 0 turns it off). The time to live bounds how stale another node's edits can look here.
+	 *
+	 * Balance movements are written to TRANSACTIONS by a LedgerWriter in the background:
+	 * -Drocp.ledger.queueCapacity=N (10000) entries can wait before requests start writing their own,
+	 * -Drocp.ledger.batchSize=N (500) entries go into each commit, -Drocp.ledger.offerTimeoutMillis=T (50) is how long
+	 * a request waits for room in a full queue, and -Drocp.ledger.durability=async|sync (async) says whether it
+	 * also waits for its ledger row to commit.
+	 *
+	 * -Drocp.hotAccounts=5,7 lists accounts that take a stream of concurrent credits (none by default). Their credits
+	 * are spread over -Drocp.hotAccounts.slots=N (16) sub-balances instead of queueing on one row - see HotAccounts.
+	 *
+	 * -Drocp.accountLocks.stripes=N (1024) sizes the in-JVM locks the services take per account before changing a
+	 * balance, so requests on one account queue here instead of on its row lock. Like the caches they only
+	 * coordinate this node's requests. -Drocp.userLocks.stripes=N (256) does the same per user, for upgrades -
+	 * always taken before any account lock.
+	 * */
+
+	private static final String BACKEND = System.getProperty("rocp.backend", "oracle").toLowerCase();
+
+	private static final ReferenceData REFERENCE_DATA;
+	private static final HotAccounts HOT_ACCOUNTS = HotAccounts.parse(System.getProperty("rocp.hotAccounts", ""),
+			Integer.getInteger("rocp.hotAccounts.slots", 16));
+	private static final IAccountDAO ACCOUNT_DAO;
+	private static final CachingAccountDAO ACCOUNT_CACHE; // null when disabled
+	private static final IAbstractUserDAO USER_DAO;
+	private static final CachingAbstractUserDAO USER_CACHE; // null when disabled
+	private static final IUserAccountDAO USER_ACCOUNT_DAO;
+	private static final OwnershipIndex OWNERSHIP_INDEX; // null when disabled
+	private static final LedgerWriter LEDGER;
+	private static final StripedLocks ACCOUNT_LOCKS = new StripedLocks(Integer.getInteger("rocp.accountLocks.stripes", 1024));
+	private static final StripedLocks USER_LOCKS = new StripedLocks(Integer.getInteger("rocp.userLocks.stripes", 256));
+
+	static {
+		IAccountDAO accountDAO;
+		IAbstractUserDAO userDAO;
+		IUserAccountDAO userAccountDAO;
+		ITransactionDAO transactionDAO;
+		// Made first, so the account and user DAOs can drop deleted rows from it. Loaded by IndexedUserAccountDAO below
+		OWNERSHIP_INDEX = Boolean.parseBoolean(System.getProperty("rocp.ownershipIndex", "true")) ? new OwnershipIndex(16) : null;
+		switch(BACKEND) {
+		case "memory":
+			REFERENCE_DATA = new ReferenceData(new InMemoryReferenceDataDAO());
+			accountDAO = new InMemoryAccountDAO(REFERENCE_DATA, HOT_ACCOUNTS, OWNERSHIP_INDEX);
+			userDAO = new InMemoryAbstractUserDAO(REFERENCE_DATA, OWNERSHIP_INDEX);
+			userAccountDAO = new InMemoryUserAccountDAO();
+			transactionDAO = new InMemoryTransactionDAO();
+			break;
+		case "oracle":
+			REFERENCE_DATA = new ReferenceData(new ReferenceDataDAO());
+			accountDAO = new AccountDAO(REFERENCE_DATA, HOT_ACCOUNTS, OWNERSHIP_INDEX);
+			userDAO = new AbstractUserDAO(REFERENCE_DATA, OWNERSHIP_INDEX);
+			userAccountDAO = new UserAccountDAO();
+			transactionDAO = new TransactionDAO();
+			break;
+		default:
+			throw new IllegalStateException("Unknown rocp.backend '" + BACKEND + "', expected 'oracle' or 'memory'");
+		}
+
+		int accountCacheSize = Integer.getInteger("rocp.accountCache.maxSize", 10000);
+		if(accountCacheSize > 0) {
+			ACCOUNT_CACHE = new CachingAccountDAO(accountDAO, REFERENCE_DATA, HOT_ACCOUNTS, accountCacheSize);
+			ACCOUNT_DAO = ACCOUNT_CACHE;
+		} else {
+			ACCOUNT_CACHE = null;
+			ACCOUNT_DAO = accountDAO;
+		}
+
+		int userCacheSize = Integer.getInteger("rocp.userCache.maxSize", 10000);
+		if(userCacheSize > 0) {
+			USER_CACHE = new CachingAbstractUserDAO(userDAO, REFERENCE_DATA, userCacheSize,
+					Long.getLong("rocp.userCache.ttlMillis", 60000L));
+			USER_DAO = USER_CACHE;
+		} else {
+			USER_CACHE = null;
+			USER_DAO = userDAO;
+		}
+
+		USER_ACCOUNT_DAO = (OWNERSHIP_INDEX != null) ? new IndexedUserAccountDAO(userAccountDAO, OWNERSHIP_INDEX) : userAccountDAO;
+
+		String durability = System.getProperty("rocp.ledger.durability", "async").toLowerCase();
+		if(!durability.equals("async") && !durability.equals("sync")) {
+			throw new IllegalStateException("Unknown rocp.ledger.durability '" + durability + "', expected 'async' or 'sync'");
+		}
+		LEDGER = new LedgerWriter(transactionDAO, Integer.getInteger("rocp.ledger.queueCapacity", 10000),
+				Integer.getInteger("rocp.ledger.batchSize", 500), Long.getLong("rocp.ledger.offerTimeoutMillis", 50L),
+				durability.equals("sync"));
+	}
+
+	// Prevents us from EVER instantiating this class. Just used for static calls to the methods below
+	private DAOFactory() {
+		super();
+	}
+
+	public static String getBackend() {
+		return BACKEND;
+	}
+
+	public static boolean isJdbcBackend() { // True when the DAOs go through ConnectionUtil
+		return BACKEND.equals("oracle");
+	}
+
+	public static ReferenceData getReferenceData() {
+		return REFERENCE_DATA;
+	}
+
+	public static HotAccounts getHotAccounts() {
+		return HOT_ACCOUNTS;
+	}
+
+	public static IAccountDAO getAccountDAO() {
+		return ACCOUNT_DAO;
+	}
+
+	public static CacheStatistics getAccountCacheStatistics() { // null when -Drocp.accountCache.maxSize=0
+		return ACCOUNT_CACHE == null ? null : ACCOUNT_CACHE.getStatistics();
+	}
+
+	public static IAbstractUserDAO getUserDAO() {
+		return USER_DAO;
+	}
+
+	public static CacheStatistics getUserCacheStatistics() { // null when -Drocp.userCache.maxSize=0
+		return USER_CACHE == null ? null : USER_CACHE.getStatistics();
+	}
+
+	public static IUserAccountDAO getUserAccountDAO() {
+		return USER_ACCOUNT_DAO;
+	}
+
+	public static OwnershipIndex getOwnershipIndex() { // null when -Drocp.ownershipIndex=false
+		return OWNERSHIP_INDEX;
+	}
+
+	public static LedgerWriter getLedger() {
+		return LEDGER;
+	}
+
+	public static LedgerStatistics getLedgerStatistics() {
+		return LEDGER.getStatistics();
+	}
+
+	public static StripedLocks getAccountLocks() {
+		return ACCOUNT_LOCKS;
+	}
+
+	public static LockStatistics getAccountLockStatistics() {
+		return ACCOUNT_LOCKS.getStatistics();
+	}
+
+	public static StripedLocks getUserLocks() {
+		return USER_LOCKS;
+	}
+}
@@ -0,0 +1,71 @@
+package dao;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class HotAccounts {
+	/** Accounts whose credits are spread over several sub-balance slots instead of their ACCOUNTS row.
+	 *
+	 * Account #5 receives every Premium upgrade fee, so with a single row every upgrade waits on the same row
+	 * lock. A hot account keeps its main row plus 'slots' extra balances (ACCOUNT_SLOTS rows, or an array of
+	 * slots in memory). A credit adds to one slot picked at random and never touches the main row,
+	 * and a read adds the main row and the slots together.
+	 *
+	 * Debits, PUTs and deletes first sweep the slots back into the main row under its lock, so the overdraft
+	 * check sees the whole balance. Those are rare for the bank's own accounts, and they're the only
+	 * operations that serialise. Each slot also counts its credits, and the version callers see is VERSION plus
+	 * those counts: a credit moves it on without touching the main row, and a sweep moves the count into VERSION
+	 * along with the money, so sweeping alone never changes it.
+	 * */
+
+	private final Set<Integer> ids;
+	private final int slots;
+
+	public HotAccounts(Set<Integer> ids, int slots) {
+		if(slots < 1) throw new IllegalArgumentException("slots must be at least 1");
+		this.ids = Collections.unmodifiableSet(new TreeSet<>(ids));
+		this.slots = slots;
+	}
+
+	public static HotAccounts parse(String ids, int slots) { // "5" or "5, 7", blank for none
+		Set<Integer> parsed = new TreeSet<>();
+		if(ids != null) {
+			for(String id : ids.split(",")) {
+				if(id.trim().isEmpty()) continue;
+				try {
+					parsed.add(Integer.parseInt(id.trim()));
+				} catch(NumberFormatException e) {
+					throw new IllegalStateException("Bad hot account id '" + id.trim() + "'");
+				}
+			}
+		}
+		return new HotAccounts(parsed, slots);
+	}
+
+	public boolean isEmpty() {
+		return ids.isEmpty();
+	}
+
+	public boolean isHot(int accountId) {
+		return !ids.isEmpty() && ids.contains(accountId);
+	}
+
+	public Set<Integer> getIds() {
+		return ids;
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	int pickSlot() { // Random rather than per thread, so two busy threads don't end up sharing one slot for good
+		return ThreadLocalRandom.current().nextInt(slots);
+	}
+
+	@Override
+	public String toString() {
+		return "HotAccounts [ids=" + ids + ", slots=" + slots + "]";
+	}
+}
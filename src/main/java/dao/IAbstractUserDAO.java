@@ -1,13 +1,17 @@
 package dao;
 
+import java.io.IOException;
 import java.util.List;
 
 import models.AbstractUser;
 
 public interface IAbstractUserDAO {
-	public int insert(AbstractUser u); // Create operation
+	public int insert(AbstractUser u); // Create operation, sets the generated userId on u
+	public int[] insertAll(List<AbstractUser> users); // Bulk create, sets the generated ids. Per user 1 if inserted, 0 if not
 	public List<AbstractUser> findAll(); // Read operation
+	public void streamAll(RowCallback<AbstractUser> callback) throws IOException; // Read, one row at a time
 	public AbstractUser findByID(int id); // Read operation
+	public List<AbstractUser> findPage(int afterId, int limit); // Keyset page: up to 'limit' users with id > afterId, in id order
 	public AbstractUser findByUsername(String AbstractUsername);
 	public AbstractUser findByEmail(String email);
 	public int update(AbstractUser u); // Update operation
@@ -1,15 +1,29 @@
 package dao;
 
+import java.io.IOException;
 import java.util.List;
 
 import models.AbstractAccount;
 
 public interface IAccountDAO {
-	public int insert(AbstractAccount a); // Create operation
+	public int insert(AbstractAccount a); // Create operation, sets the generated accountId on a
 	public List<AbstractAccount> findAll(); // Read operation
+	public void streamAll(RowCallback<AbstractAccount> callback) throws IOException; // Read, one row at a time
 	public List<AbstractAccount> findByStatus(int statusId); // Read
+	public List<AbstractAccount> findByType(int typeId); // Read
+	public List<AbstractAccount> findByOwner(int userId, int statusId); // Read, joined through USERS_ACCOUNTS. statusId 0 means any status
+	// Keyset pages: up to 'limit' accounts with id > afterId, in id order
+	public List<AbstractAccount> findPage(int afterId, int limit);
+	public List<AbstractAccount> findByStatusPage(int statusId, int afterId, int limit);
+	public List<AbstractAccount> findByOwnerPage(int userId, int statusId, int afterId, int limit); // statusId 0 means any status
 	public AbstractAccount findByID(int id); // Read operation
 	public int update(AbstractAccount u); // Update operation
-	public int updateBalance(int id, double balance); // Update
+	public int updateBalance(int id, long balanceCents); // Update
+	public Long adjustBalance(int id, long deltaCents); // Atomically add delta unless it would go negative. New balance, or null if refused / not found
+	public long[] transfer(int sourceId, int targetId, long amountCents); // One transaction. {source, target} balances after, or null if refused / not found
+	// Many transfers, applied in order in one transaction. Per transfer {source, target} balances after, or a null entry if
+	// that transfer was refused / an account wasn't found. null if the batch couldn't be applied at all
+	public long[][] transferAll(int[] sourceIds, int[] targetIds, long[] amountsCents);
+	public int accrueInterest(int typeId, int monthlyRateBasisPoints, int months); // Compounds every account of a type in one set-based update, rounded to the cent
 	public int delete(int id); // Delete operation
 }
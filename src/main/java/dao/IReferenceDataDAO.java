@@ -0,0 +1,10 @@
+package dao;
+
+import java.util.Map;
+
+public interface IReferenceDataDAO {
+	// Reads the small lookup tables in full, id -> name. Only used to (re)load ReferenceData.
+	public Map<Integer, String> findRoles();
+	public Map<Integer, String> findAccountStatuses();
+	public Map<Integer, String> findAccountTypes();
+}
@@ -0,0 +1,12 @@
+package dao;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import models.Transaction;
+
+public interface ITransactionDAO {
+	// All rows in one batch and one commit, or none of them. Number of rows written. A failed batch throws, so
+	// LedgerWriter can tell rows the database refused from a database it couldn't reach
+	public int insertAll(List<Transaction> transactions) throws SQLException;
+}
@@ -11,7 +11,9 @@ public interface IUserAccountDAO {
 	public int insert(int userId, int accountId); // Add record to the table
 	public List<UserAccount> findAccountsByUser(int userId); // Grab a list of all accounts associated with user
 	public List<UserAccount> findUsersByAccount(AbstractAccount a); // Grab a list of all users associated with an account (joint)
-	public List<UserAccount> findAll(); // Allow employee / admin to see a list of all accounts
+	public List<UserAccount> findAll(); // Allow employee / admin to see a list of all accounts. null if it couldn't be read
+	public boolean isOwner(int userId, int accountId); // Is this user one of the account's owners
+	public boolean hasPremiumOwner(int accountId); // Does the account have an owner who is Premium / Employee / Admin
 	public int deleteByUser(AbstractUser u); // Delete all rows pertaining to the user
 	public int deleteByAccount(AbstractAccount a); // Delete all rows pertaining to a specific account.
 }
\ No newline at end of file
@@ -0,0 +1,136 @@
+package dao;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import dao.InMemoryDatabase.UserRow;
+import models.AbstractUser;
+
+public class InMemoryAbstractUserDAO implements IAbstractUserDAO {
+	// Same behaviour as AbstractUserDAO, but against the in-process InMemoryDatabase instead of Oracle.
+	private final InMemoryDatabase db = InMemoryDatabase.getInstance();
+	private final ReferenceData refs;
+	private final OwnershipIndex ownership; // null when the index is off
+
+	public InMemoryAbstractUserDAO(ReferenceData refs, OwnershipIndex ownership) {
+		super();
+		this.refs = refs;
+		this.ownership = ownership;
+	}
+
+	@Override
+	public int insert(AbstractUser u) {
+		int roleId = u.getRole().getRoleId();
+		if(!db.roles.containsKey(roleId) || u.getUsername() == null) {
+			return 0; // Foreign key / not null violation
+		}
+
+		int id = db.userSequence.incrementAndGet();
+		if(db.usernames.putIfAbsent(u.getUsername(), id) != null) {
+			return 0; // Unique constraint on USERNAME
+		}
+		db.users.put(id, new UserRow(id, u.getUsername(), u.getPassword(), u.getFirstName(), u.getLastName(),
+				u.getEmail(), roleId, 0));
+		u.setUserId(id);
+		u.setVersion(0);
+		return 1;
+	}
+
+	@Override
+	public int[] insertAll(List<AbstractUser> users) {
+		int[] results = new int[users.size()];
+		for(int i = 0; i < users.size(); i++) {
+			results[i] = this.insert(users.get(i));
+		}
+		return results;
+	}
+
+	@Override
+	public List<AbstractUser> findAll() {
+		List<AbstractUser> allUsers = new ArrayList<>();
+		for(UserRow row : db.users.values()) {
+			allUsers.add(this.toUser(row));
+		}
+		return allUsers;
+	}
+
+	@Override
+	public void streamAll(RowCallback<AbstractUser> callback) throws IOException {
+		for(UserRow row : db.users.values()) { // Weakly consistent iteration, no copy of the table is made
+			callback.accept(this.toUser(row));
+		}
+	}
+
+	@Override
+	public AbstractUser findByID(int id) {
+		UserRow row = db.users.get(id);
+		return row == null ? null : this.toUser(row);
+	}
+
+	@Override
+	public List<AbstractUser> findPage(int afterId, int limit) {
+		List<AbstractUser> page = new ArrayList<>();
+		for(UserRow row : db.users.tailMap(afterId, false).values()) { // Seek past the cursor, like the index range scan
+			if(page.size() >= limit) break;
+			page.add(this.toUser(row));
+		}
+		return page;
+	}
+
+	@Override
+	public AbstractUser findByUsername(String uname) {
+		Integer id = db.usernames.get(uname);
+		return id == null ? null : this.findByID(id);
+	}
+
+	@Override
+	public AbstractUser findByEmail(String email) {
+		for(UserRow row : db.users.values()) { // No index on EMAIL in the real schema either
+			if(row.email != null && row.email.equals(email)) return this.toUser(row);
+		}
+		return null;
+	}
+
+	@Override
+	public int update(AbstractUser u) {
+		int id = u.getUserId();
+		int roleId = u.getRole().getRoleId();
+		int version = u.getVersion();
+		UserRow old = db.users.get(id);
+		if(old == null || old.version != version || !db.roles.containsKey(roleId)) return 0;
+
+		boolean renamed = !old.username.equals(u.getUsername());
+		if(renamed && db.usernames.putIfAbsent(u.getUsername(), id) != null) return 0; // Unique constraint on USERNAME
+
+		UserRow updated = new UserRow(id, u.getUsername(), u.getPassword(), u.getFirstName(), u.getLastName(),
+				u.getEmail(), roleId, version + 1);
+		if(!db.users.replace(id, old, updated)) { // Someone else updated (or deleted) the row first
+			if(renamed) db.usernames.remove(u.getUsername(), id);
+			return 0;
+		}
+		if(renamed) db.usernames.remove(old.username, id); // Move the unique username index entry along with the row
+		u.setVersion(version + 1);
+		return 1;
+	}
+
+	@Override
+	public int delete(int id) {
+		UserRow old = db.users.remove(id);
+		if(old == null) return 0;
+		db.usernames.remove(old.username, id);
+		db.accountsByUser.remove(id); // ON DELETE CASCADE for USERS_ACCOUNTS
+		for(Set<Integer> owners : db.usersByAccount.values()) {
+			owners.remove(id);
+		}
+		if(ownership != null) ownership.removeUser(id);
+		return 1;
+	}
+
+	private AbstractUser toUser(UserRow row) {
+		AbstractUser u = new AbstractUser(row.id, row.username, row.password, row.firstName, row.lastName, row.email, refs.role(row.roleId));
+		u.setVersion(row.version);
+		return u;
+	}
+}
@@ -0,0 +1,461 @@
+package dao;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+import dao.InMemoryDatabase.AccountRow;
+import models.AbstractAccount;
+import models.StandardAccount;
+import models.Transaction;
+import util.Money;
+
+public class InMemoryAccountDAO implements IAccountDAO {
+	// Same behaviour as AccountDAO, but against the in-process InMemoryDatabase instead of Oracle.
+	private final InMemoryDatabase db = InMemoryDatabase.getInstance();
+	private final ReferenceData refs;
+	private final Map<Integer, HotBalance> hotBalances = new HashMap<>(); // Filled here and only read afterwards
+	private final OwnershipIndex ownership; // null when the index is off
+
+	public InMemoryAccountDAO(ReferenceData refs, HotAccounts hot, OwnershipIndex ownership) {
+		super();
+		this.refs = refs;
+		this.ownership = ownership;
+		for(int id : hot.getIds()) {
+			hotBalances.put(id, new HotBalance(hot.getSlots()));
+		}
+	}
+
+	@Override
+	public int insert(AbstractAccount a) { // Insert account and update the given object with the generated ID
+		int statusId = a.getStatus().getStatusId();
+		int typeId = a.getType().getTypeId();
+		if(!db.accountStatuses.containsKey(statusId) || !db.accountTypes.containsKey(typeId)) {
+			return 0; // Foreign key violation, nothing inserted
+		}
+
+		int id = db.accountSequence.incrementAndGet();
+		db.accounts.put(id, new AccountRow(id, a.getBalanceCents(), statusId, typeId, 0));
+		a.setAccountId(id);
+		a.setVersion(0);
+		return 1;
+	}
+
+	@Override
+	public List<AbstractAccount> findAll() {
+		List<AbstractAccount> allAccounts = new ArrayList<>();
+		for(AccountRow row : db.accounts.values()) {
+			allAccounts.add(this.toAccount(row));
+		}
+		return allAccounts;
+	}
+
+	@Override
+	public void streamAll(RowCallback<AbstractAccount> callback) throws IOException {
+		for(AccountRow row : db.accounts.values()) { // Weakly consistent iteration, no copy of the table is made
+			callback.accept(this.toAccount(row));
+		}
+	}
+
+	@Override
+	public List<AbstractAccount> findByStatus(int statusId) {
+		List<AbstractAccount> allAccounts = new ArrayList<>();
+		for(AccountRow row : db.accounts.values()) {
+			if(row.statusId == statusId) allAccounts.add(this.toAccount(row));
+		}
+		return allAccounts;
+	}
+
+	@Override
+	public List<AbstractAccount> findByType(int typeId) {
+		List<AbstractAccount> allAccounts = new ArrayList<>();
+		for(AccountRow row : db.accounts.values()) {
+			if(row.typeId == typeId) allAccounts.add(this.toAccount(row));
+		}
+		return allAccounts;
+	}
+
+	@Override
+	public AbstractAccount findByID(int id) {
+		AccountRow row = db.accounts.get(id);
+		return row == null ? null : this.toAccount(row);
+	}
+
+	@Override
+	public int update(AbstractAccount a) {
+		ReentrantLock row = this.lockRow(a.getAccountId());
+		try {
+			HotBalance hb = this.hotBalance(a.getAccountId());
+			if(hb == null) return this.updateRow(a);
+			long stamp = hb.sweepLock.writeLock();
+			try {
+				// The slots' credits go into the row's version with their money, so the version callers see stays the same -
+				// credits made before the PUT's read still match, later ones don't. On a conflict the sweep changes nothing visible.
+				this.sweep(a.getAccountId(), hb);
+				return this.updateRow(a);
+			} finally {
+				hb.sweepLock.unlockWrite(stamp);
+			}
+		} finally {
+			row.unlock();
+		}
+	}
+
+	private int updateRow(AbstractAccount a) {
+		int statusId = a.getStatus().getStatusId();
+		int typeId = a.getType().getTypeId();
+		if(!db.accountStatuses.containsKey(statusId) || !db.accountTypes.containsKey(typeId)) {
+			return 0;
+		}
+		int version = a.getVersion();
+		boolean[] updated = {false};
+		db.accounts.computeIfPresent(a.getAccountId(), (id, old) -> { // Compare-and-set on the version, like the WHERE VERSION = ?
+			if(old.version != version) return old;
+			updated[0] = true;
+			return new AccountRow(id, a.getBalanceCents(), statusId, typeId, version + 1);
+		});
+		if(!updated[0]) return 0;
+		a.setVersion(version + 1);
+		return 1;
+	}
+
+	@Override
+	public int updateBalance(int id, long balanceCents) {
+		ReentrantLock row = this.lockRow(id);
+		HotBalance hb = this.hotBalance(id);
+		long stamp = hb == null ? 0 : hb.sweepLock.writeLock();
+		try {
+			if(hb != null) this.sweep(id, hb); // The new balance replaces whatever the slots held too
+			return db.accounts.computeIfPresent(id, (key, old) -> old.withBalance(balanceCents)) == null ? 0 : 1;
+		} finally {
+			if(hb != null) hb.sweepLock.unlockWrite(stamp);
+			row.unlock();
+		}
+	}
+
+	@Override
+	public Long adjustBalance(int id, long deltaCents) {
+		HotBalance hb = this.hotBalance(id);
+		if(hb != null && deltaCents >= 0) { // Credit - one slot, the main row isn't locked or touched
+			if(!db.accounts.containsKey(id) || !hb.credit(deltaCents)) return null;
+			AccountRow row = db.accounts.get(id);
+			return row == null ? null : this.withSlots(row, hb).balanceCents; // May include other credits made meanwhile
+		}
+
+		ReentrantLock row = this.lockRow(id);
+		try {
+			if(hb == null) return this.adjustRow(id, deltaCents);
+			long stamp = hb.sweepLock.writeLock(); // Debit - gather the slots into the row first so the overdraft check sees everything
+			try {
+				this.sweep(id, hb);
+				Long newBalance = this.adjustRow(id, deltaCents);
+				return newBalance == null ? null : newBalance + hb.sum()[0]; // Plus any credits since the sweep
+			} finally {
+				hb.sweepLock.unlockWrite(stamp);
+			}
+		} finally {
+			row.unlock();
+		}
+	}
+
+	private Long adjustRow(int id, long deltaCents) { // Caller holds the row lock
+		Long[] result = {null};
+		db.accounts.computeIfPresent(id, (key, old) -> {
+			if(Money.overflows(old.balanceCents, deltaCents)) return old; // Refused rather than wrapping around
+			long newBalance = old.balanceCents + deltaCents;
+			if(newBalance < 0) return old; // Refused, leave the row alone
+			result[0] = newBalance;
+			return old.withBalance(newBalance);
+		});
+		return result[0];
+	}
+
+	@Override
+	public long[] transfer(int sourceId, int targetId, long amountCents) {
+		// Like AccountDAO: both rows are locked lowest id first, everything is checked, and only then are both written.
+		// No other write to either row can come in between, and nothing is ever half done and undone.
+		if(sourceId == targetId || amountCents < 0) return null; // Refused, like transferAll
+		HotBalance targetSlots = this.hotBalance(targetId);
+		ReentrantLock first = this.lockRow(targetSlots != null ? sourceId : Math.min(sourceId, targetId)); // A hot target's row isn't locked
+		try {
+			ReentrantLock second = targetSlots != null ? null : this.lockRow(Math.max(sourceId, targetId));
+			try {
+				HotBalance sourceSlots = this.hotBalance(sourceId);
+				long stamp = sourceSlots == null ? 0 : sourceSlots.sweepLock.writeLock();
+				try {
+					if(sourceSlots != null) this.sweep(sourceId, sourceSlots); // The overdraft check sees the whole balance
+					AccountRow source = db.accounts.get(sourceId);
+					AccountRow target = db.accounts.get(targetId);
+					if(source == null || target == null) return null; // No such account
+					if(source.balanceCents - amountCents < 0) return null; // Can't overdraw
+					
+					if(targetSlots != null) { // Into a slot, which refuses an overflow itself. The source is only debited once that's done
+						if(!targetSlots.credit(amountCents)) return null;
+						target = this.withSlots(target, targetSlots);
+					} else {
+						if(Money.overflows(target.balanceCents, amountCents)) return null;
+						target = target.withBalance(target.balanceCents + amountCents);
+						db.accounts.put(targetId, target);
+					}
+					source = source.withBalance(source.balanceCents - amountCents);
+					db.accounts.put(sourceId, source);
+					return new long[] {source.balanceCents, target.balanceCents};
+				} finally {
+					if(sourceSlots != null) sourceSlots.sweepLock.unlockWrite(stamp);
+				}
+			} finally {
+				if(second != null) second.unlock();
+			}
+		} finally {
+			first.unlock();
+		}
+	}
+
+	@Override
+	public long[][] transferAll(int[] sourceIds, int[] targetIds, long[] amountsCents) {
+		// One unit, like AccountDAO's transaction: every row involved is locked lowest id first, the transfers are checked
+		// in order against running balances, and each account's final balance is written once they've all been decided
+		TreeSet<Integer> ids = new TreeSet<>();
+		for(int i = 0; i < sourceIds.length; i++) {
+			ids.add(sourceIds[i]);
+			ids.add(targetIds[i]);
+		}
+		List<ReentrantLock> held = new ArrayList<>(ids.size());
+		try {
+			Map<Integer, Long> balances = new HashMap<>(); // Accounts that don't exist are simply missing
+			for(int id : ids) {
+				held.add(this.lockRow(id));
+				HotBalance hb = this.hotBalance(id);
+				if(hb != null) { // The final balance is written whole, so gather the slots first
+					long stamp = hb.sweepLock.writeLock();
+					try {
+						this.sweep(id, hb);
+					} finally {
+						hb.sweepLock.unlockWrite(stamp);
+					}
+				}
+				AccountRow row = db.accounts.get(id);
+				if(row != null) balances.put(id, row.balanceCents);
+			}
+			
+			long[][] results = new long[sourceIds.length][];
+			Set<Integer> changed = new TreeSet<>();
+			for(int i = 0; i < sourceIds.length; i++) {
+				Long sourceBalance = balances.get(sourceIds[i]);
+				Long targetBalance = balances.get(targetIds[i]);
+				long amountCents = amountsCents[i];
+				if(sourceIds[i] == targetIds[i] || amountCents < 0 || sourceBalance == null || targetBalance == null) continue; // Refused
+				if(sourceBalance - amountCents < 0 || Money.overflows(targetBalance, amountCents)) continue; // Can't overdraw or overflow
+				
+				balances.put(sourceIds[i], sourceBalance - amountCents);
+				balances.put(targetIds[i], targetBalance + amountCents);
+				changed.add(sourceIds[i]);
+				changed.add(targetIds[i]);
+				results[i] = new long[] {sourceBalance - amountCents, targetBalance + amountCents};
+			}
+			for(int id : changed) { // Still under the row locks, so these are the balances worked out above
+				db.accounts.computeIfPresent(id, (key, old) -> old.withBalance(balances.get(key)));
+			}
+			return results;
+		} finally {
+			for(int i = held.size() - 1; i >= 0; i--) {
+				held.get(i).unlock();
+			}
+		}
+	}
+
+	@Override
+	public int accrueInterest(int typeId, int monthlyRateBasisPoints, int months) {
+		BigDecimal factor = Money.compoundFactor(monthlyRateBasisPoints, months); // Same for every account
+		int result = 0;
+		for(AccountRow row : db.accounts.values()) {
+			if(row.typeId != typeId) continue;
+			ReentrantLock lock = this.lockRow(row.id);
+			HotBalance hb = this.hotBalance(row.id);
+			long stamp = hb == null ? 0 : hb.sweepLock.writeLock();
+			long[] before = {0}; // The function can be retried, so only the last run's balance counts
+			AccountRow updated;
+			try {
+				if(hb != null) this.sweep(row.id, hb); // Interest is on the whole balance, slots included
+				// Re-read under the row lock, so a balance change made since the scan isn't overwritten
+				updated = db.accounts.computeIfPresent(row.id, (key, old) -> {
+					before[0] = old.balanceCents;
+					return old.withBalance(Money.compound(old.balanceCents, factor));
+				});
+			} finally {
+				if(hb != null) hb.sweepLock.unlockWrite(stamp);
+				lock.unlock();
+			}
+			if(updated == null) continue;
+			// Written here like the SQL version's INSERT ... SELECT, not through LedgerWriter
+			db.appendTransaction(row.id, Transaction.INTEREST, updated.balanceCents - before[0], updated.balanceCents, 0,
+					System.currentTimeMillis());
+			result++;
+		}
+		return result;
+	}
+
+	@Override
+	public int delete(int id) {
+		ReentrantLock row = this.lockRow(id);
+		HotBalance hb = this.hotBalance(id);
+		long stamp = hb == null ? 0 : hb.sweepLock.writeLock();
+		try {
+			if(db.accounts.remove(id) == null) return 0;
+			if(hb != null) hb.drain(); // The slots go with the row, like ON DELETE CASCADE on ACCOUNT_SLOTS
+			db.accountLocks.remove(id); // Ids aren't reused, so nobody needs it again
+		} finally {
+			if(hb != null) hb.sweepLock.unlockWrite(stamp);
+			row.unlock();
+		}
+		Set<Integer> owners = db.usersByAccount.remove(id); // ON DELETE CASCADE for USERS_ACCOUNTS
+		if(owners != null) {
+			for(int userId : owners) {
+				Set<Integer> owned = db.accountsByUser.get(userId);
+				if(owned != null) owned.remove(id);
+			}
+		}
+		if(ownership != null) ownership.removeAccount(id);
+		return 1;
+	}
+
+	@Override
+	public List<AbstractAccount> findPage(int afterId, int limit) {
+		return this.findByStatusPage(0, afterId, limit);
+	}
+
+	@Override
+	public List<AbstractAccount> findByStatusPage(int statusId, int afterId, int limit) {
+		List<AbstractAccount> page = new ArrayList<>();
+		for(AccountRow row : db.accounts.tailMap(afterId, false).values()) { // Seek past the cursor, like the index range scan
+			if(page.size() >= limit) break;
+			if(statusId == 0 || row.statusId == statusId) page.add(this.toAccount(row));
+		}
+		return page;
+	}
+
+	@Override
+	public List<AbstractAccount> findByOwner(int userId, int statusId) {
+		return this.findByOwnerPage(userId, statusId, 0, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public List<AbstractAccount> findByOwnerPage(int userId, int statusId, int afterId, int limit) {
+		List<AbstractAccount> page = new ArrayList<>();
+		Set<Integer> owned = db.accountsByUser.get(userId);
+		if(owned == null) return page;
+
+		int[] ids = owned.stream().mapToInt(Integer::intValue).filter(id -> id > afterId).sorted().toArray();
+		for(int id : ids) {
+			if(page.size() >= limit) break;
+			AccountRow row = db.accounts.get(id);
+			if(row != null && (statusId == 0 || row.statusId == statusId)) page.add(this.toAccount(row));
+		}
+		return page;
+	}
+
+	private ReentrantLock lockRow(int id) {
+		// Every change to an account row holds its lock, the in-memory SELECT ... FOR UPDATE. Several are always
+		// taken lowest id first, and a hot account's sweep lock only ever after its row lock.
+		ReentrantLock lock = db.accountLock(id);
+		lock.lock();
+		return lock;
+	}
+
+	private HotBalance hotBalance(int id) {
+		return hotBalances.isEmpty() ? null : hotBalances.get(id);
+	}
+
+	private void sweep(int id, HotBalance hb) {
+		// Caller holds hb's write lock. Moves the slots' money into the main row, and their credit count into its
+		// version, so the version callers see doesn't change
+		long[] moved = hb.drain();
+		if(moved[1] == 0) return;
+		db.accounts.computeIfPresent(id, (key, old) -> new AccountRow(id, old.balanceCents + moved[0], old.statusId, old.typeId,
+				old.version + (int) moved[1]));
+	}
+
+	private AccountRow withSlots(AccountRow row, HotBalance hb) { // The row as callers see it, with the slots added to its balance and version
+		long stamp = hb.sweepLock.tryOptimisticRead();
+		AccountRow current = db.accounts.getOrDefault(row.id, row);
+		long[] slots = hb.sum();
+		if(!hb.sweepLock.validate(stamp)) { // A sweep ran meanwhile and we may have seen its money twice or not at all
+			stamp = hb.sweepLock.readLock();
+			try {
+				current = db.accounts.getOrDefault(row.id, row);
+				slots = hb.sum();
+			} finally {
+				hb.sweepLock.unlockRead(stamp);
+			}
+		}
+		return new AccountRow(current.id, current.balanceCents + slots[0], current.statusId, current.typeId, current.version + (int) slots[1]);
+	}
+
+	private AbstractAccount toAccount(AccountRow row) {
+		HotBalance hb = this.hotBalance(row.id);
+		if(hb != null) row = this.withSlots(row, hb);
+		AbstractAccount a = new StandardAccount(row.id, row.balanceCents, refs.status(row.statusId), refs.type(row.typeId));
+		a.setVersion(row.version);
+		return a;
+	}
+
+	private static final class HotBalance {
+		// A hot account's slots. Each one is guarded by its own monitor, as each ACCOUNT_SLOTS row has its own row lock,
+		// so a credit always lands in a slot's balance and its credit count together.
+		final Slot[] slots;
+		final StampedLock sweepLock = new StampedLock(); // Write locked while slots move into the main row, read optimistically
+
+		HotBalance(int count) {
+			this.slots = new Slot[count];
+			for(int i = 0; i < count; i++) {
+				slots[i] = new Slot();
+			}
+		}
+
+		boolean credit(long amountCents) { // False if the picked slot would overflow, with nothing added
+			Slot slot = slots[ThreadLocalRandom.current().nextInt(slots.length)];
+			synchronized(slot) {
+				if(Money.overflows(slot.balanceCents, amountCents)) return false;
+				slot.balanceCents += amountCents;
+				slot.credits++;
+			}
+			return true;
+		}
+
+		long[] sum() { // {balance, credits} over all slots. Not a snapshot, but each credit is counted in both or in neither
+			return this.total(false);
+		}
+
+		long[] drain() { // Empties the slots and returns what they held
+			return this.total(true);
+		}
+
+		private long[] total(boolean empty) {
+			long[] total = new long[2];
+			for(Slot slot : slots) {
+				synchronized(slot) {
+					total[0] += slot.balanceCents;
+					total[1] += slot.credits;
+					if(empty) {
+						slot.balanceCents = 0;
+						slot.credits = 0;
+					}
+				}
+			}
+			return total;
+		}
+	}
+
+	private static final class Slot {
+		long balanceCents;
+		long credits; // Since the slot was last swept
+	}
+}
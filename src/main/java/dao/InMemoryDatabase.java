@@ -0,0 +1,160 @@
+package dao;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class InMemoryDatabase {
+	/** The in-process stand-in for our Oracle schema, shared by the InMemory DAOs.
+	 *
+	 * Tables are kept as concurrent maps of immutable rows, mirroring the columns of the real tables:
+	 * USERS, ROLES, ACCOUNTS, ACCOUNT_STATUS, ACCOUNT_TYPE, USERS_ACCOUNTS and TRANSACTIONS.
+	 * Rows are swapped out whole (never mutated), so readers always see a consistent row without locking.
+	 * */
+
+	private static final InMemoryDatabase INSTANCE = new InMemoryDatabase();
+
+	// Reference tables
+	final Map<Integer, String> roles = new ConcurrentHashMap<>();
+	final Map<Integer, String> accountStatuses = new ConcurrentHashMap<>();
+	final Map<Integer, String> accountTypes = new ConcurrentHashMap<>();
+
+	// Sorted by id so listings come back in the same order an ORDER BY ID would give
+	final ConcurrentSkipListMap<Integer, UserRow> users = new ConcurrentSkipListMap<>();
+	final ConcurrentSkipListMap<Integer, AccountRow> accounts = new ConcurrentSkipListMap<>();
+	final Map<String, Integer> usernames = new ConcurrentHashMap<>(); // Unique index on USERS.USERNAME
+
+	// USERS_ACCOUNTS, indexed both ways since we look it up from either side
+	final Map<Integer, Set<Integer>> accountsByUser = new ConcurrentHashMap<>();
+	final Map<Integer, Set<Integer>> usersByAccount = new ConcurrentHashMap<>();
+
+	// Row locks for ACCOUNTS, made the first time a row is locked and dropped when it's deleted
+	final Map<Integer, ReentrantLock> accountLocks = new ConcurrentHashMap<>();
+
+	// The append-only ledger, in the order rows were written
+	final Queue<TransactionRow> transactions = new ConcurrentLinkedQueue<>();
+
+	// Identity columns
+	final AtomicInteger userSequence = new AtomicInteger();
+	final AtomicInteger accountSequence = new AtomicInteger();
+	final AtomicLong transactionSequence = new AtomicLong();
+
+	private InMemoryDatabase() {
+		super();
+		this.seed();
+	}
+
+	public static InMemoryDatabase getInstance() {
+		return INSTANCE;
+	}
+
+	private void seed() {
+		// Same reference data as the Oracle schema
+		roles.put(1, "Standard");
+		roles.put(2, "Premium");
+		roles.put(3, "Employee");
+		roles.put(4, "Admin");
+
+		accountStatuses.put(1, "Pending");
+		accountStatuses.put(2, "Open");
+		accountStatuses.put(3, "Closed");
+		accountStatuses.put(4, "Denied");
+
+		accountTypes.put(1, "Checking");
+		accountTypes.put(2, "Savings");
+
+		// An admin to log in with, and the bank's own account #5 that upgrade fees are paid into
+		int adminId = userSequence.incrementAndGet();
+		users.put(adminId, new UserRow(adminId, "admin", "password", "Bank", "Admin", "admin@bank.com", 4, 0));
+		usernames.put("admin", adminId);
+
+		accountSequence.set(4);
+		int bankAccountId = accountSequence.incrementAndGet();
+		accounts.put(bankAccountId, new AccountRow(bankAccountId, 0, 2, 1, 0));
+		accountsByUser.computeIfAbsent(adminId, k -> ConcurrentHashMap.newKeySet()).add(bankAccountId);
+		usersByAccount.computeIfAbsent(bankAccountId, k -> ConcurrentHashMap.newKeySet()).add(adminId);
+	}
+
+	static final class UserRow {
+		// One row of USERS
+		final int id;
+		final String username;
+		final String password;
+		final String firstName;
+		final String lastName;
+		final String email;
+		final int roleId;
+		final int version;
+
+		UserRow(int id, String username, String password, String firstName, String lastName, String email, int roleId,
+				int version) {
+			this.id = id;
+			this.username = username;
+			this.password = password;
+			this.firstName = firstName;
+			this.lastName = lastName;
+			this.email = email;
+			this.roleId = roleId;
+			this.version = version;
+		}
+	}
+
+	static final class AccountRow {
+		// One row of ACCOUNTS
+		final int id;
+		final long balanceCents;
+		final int statusId;
+		final int typeId;
+		final int version;
+
+		AccountRow(int id, long balanceCents, int statusId, int typeId, int version) {
+			this.id = id;
+			this.balanceCents = balanceCents;
+			this.statusId = statusId;
+			this.typeId = typeId;
+			this.version = version;
+		}
+
+		AccountRow withBalance(long newBalanceCents) { // Like every UPDATE, bumps the version
+			return new AccountRow(id, newBalanceCents, statusId, typeId, version + 1);
+		}
+	}
+
+	ReentrantLock accountLock(int id) {
+		return accountLocks.computeIfAbsent(id, k -> new ReentrantLock());
+	}
+
+	void appendTransaction(int accountId, String kind, long amountCents, long balanceAfterCents, int counterpartyAccountId,
+			long createdAt) { // INSERT INTO TRANSACTIONS, with the identity column filled in
+		transactions.add(new TransactionRow(transactionSequence.incrementAndGet(), accountId, kind, amountCents,
+				balanceAfterCents, counterpartyAccountId, createdAt));
+	}
+
+	static final class TransactionRow {
+		// One row of TRANSACTIONS
+		final long id;
+		final int accountId;
+		final String kind;
+		final long amountCents;
+		final long balanceAfterCents;
+		final int counterpartyAccountId; // 0 for NULL
+		final long createdAt;
+
+		TransactionRow(long id, int accountId, String kind, long amountCents, long balanceAfterCents,
+				int counterpartyAccountId, long createdAt) {
+			this.id = id;
+			this.accountId = accountId;
+			this.kind = kind;
+			this.amountCents = amountCents;
+			this.balanceAfterCents = balanceAfterCents;
+			this.counterpartyAccountId = counterpartyAccountId;
+			this.createdAt = createdAt;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package dao;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class InMemoryReferenceDataDAO implements IReferenceDataDAO {
+	// Same behaviour as ReferenceDataDAO, but against the in-process InMemoryDatabase instead of Oracle.
+	private final InMemoryDatabase db = InMemoryDatabase.getInstance();
+
+	@Override
+	public Map<Integer, String> findRoles() {
+		return new HashMap<>(db.roles);
+	}
+
+	@Override
+	public Map<Integer, String> findAccountStatuses() {
+		return new HashMap<>(db.accountStatuses);
+	}
+
+	@Override
+	public Map<Integer, String> findAccountTypes() {
+		return new HashMap<>(db.accountTypes);
+	}
+}
@@ -0,0 +1,19 @@
+package dao;
+
+import java.util.List;
+
+import models.Transaction;
+
+public class InMemoryTransactionDAO implements ITransactionDAO {
+	// TRANSACTIONS in the embedded InMemoryDatabase. Appends can't fail, so a batch always lands whole.
+	private final InMemoryDatabase db = InMemoryDatabase.getInstance();
+
+	@Override
+	public int insertAll(List<Transaction> transactions) {
+		for(Transaction t : transactions) {
+			db.appendTransaction(t.getAccountId(), t.getKind(), t.getAmountCents(), t.getBalanceAfterCents(),
+					t.getCounterpartyAccountId(), t.getCreatedAt());
+		}
+		return transactions.size();
+	}
+}
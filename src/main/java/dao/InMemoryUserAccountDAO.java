@@ -0,0 +1,105 @@
+package dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import models.AbstractAccount;
+import models.AbstractUser;
+import models.UserAccount;
+
+public class InMemoryUserAccountDAO implements IUserAccountDAO {
+	// Same behaviour as UserAccountDAO, but against the in-process InMemoryDatabase instead of Oracle.
+	private final InMemoryDatabase db = InMemoryDatabase.getInstance();
+
+	@Override
+	public int insert(int userId, int accountId) {
+		if(!db.users.containsKey(userId) || !db.accounts.containsKey(accountId)) {
+			return 0; // Foreign key violation
+		}
+		if(!db.accountsByUser.computeIfAbsent(userId, k -> ConcurrentHashMap.newKeySet()).add(accountId)) {
+			return 0; // Pair already exists (primary key on USER_ID, ACCOUNT_ID)
+		}
+		db.usersByAccount.computeIfAbsent(accountId, k -> ConcurrentHashMap.newKeySet()).add(userId);
+		return 1;
+	}
+
+	@Override
+	public List<UserAccount> findAccountsByUser(int userId) {
+		List<UserAccount> accountsByUser = new ArrayList<>();
+		Set<Integer> accountIds = db.accountsByUser.get(userId);
+		if(accountIds != null) {
+			for(int accountId : accountIds) {
+				accountsByUser.add(new UserAccount(userId, accountId));
+			}
+		}
+		return accountsByUser;
+	}
+
+	@Override
+	public List<UserAccount> findUsersByAccount(AbstractAccount a) {
+		List<UserAccount> usersByAccount = new ArrayList<>();
+		int accountId = a.getAccountId();
+		Set<Integer> userIds = db.usersByAccount.get(accountId);
+		if(userIds != null) {
+			for(int userId : userIds) {
+				usersByAccount.add(new UserAccount(userId, accountId));
+			}
+		}
+		return usersByAccount;
+	}
+
+	@Override
+	public List<UserAccount> findAll() {
+		List<UserAccount> all = new ArrayList<>();
+		for(Map.Entry<Integer, Set<Integer>> entry : db.accountsByUser.entrySet()) {
+			for(int accountId : entry.getValue()) {
+				all.add(new UserAccount(entry.getKey(), accountId));
+			}
+		}
+		return all;
+	}
+
+	@Override
+	public boolean isOwner(int userId, int accountId) {
+		Set<Integer> accountIds = db.accountsByUser.get(userId);
+		return accountIds != null && accountIds.contains(accountId);
+	}
+
+	@Override
+	public boolean hasPremiumOwner(int accountId) {
+		Set<Integer> userIds = db.usersByAccount.get(accountId);
+		if(userIds == null) return false;
+		for(int userId : userIds) {
+			InMemoryDatabase.UserRow user = db.users.get(userId);
+			if(user != null && user.roleId > 1) return true; // Premium / Employee / Admin
+		}
+		return false;
+	}
+
+	@Override
+	public int deleteByUser(AbstractUser u) {
+		int userId = u.getUserId();
+		Set<Integer> accountIds = db.accountsByUser.remove(userId);
+		if(accountIds == null) return 0;
+		for(int accountId : accountIds) {
+			Set<Integer> owners = db.usersByAccount.get(accountId);
+			if(owners != null) owners.remove(userId);
+		}
+		return accountIds.size();
+	}
+
+	@Override
+	public int deleteByAccount(AbstractAccount a) {
+		int accountId = a.getAccountId();
+		Set<Integer> userIds = db.usersByAccount.remove(accountId);
+		if(userIds == null) return 0;
+		for(int userId : userIds) {
+			Set<Integer> owned = db.accountsByUser.get(userId);
+			if(owned != null) owned.remove(accountId);
+		}
+		return userIds.size();
+	}
+}
@@ -0,0 +1,112 @@
+package dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import models.AbstractAccount;
+import models.AbstractUser;
+import models.UserAccount;
+
+public class IndexedUserAccountDAO implements IUserAccountDAO {
+	// Wraps the real USERS_ACCOUNTS DAO with an OwnershipIndex. Ownership reads come from memory,
+	// writes go to the database first and then to the index so the two never disagree on this node.
+	// If the relation can't be loaded (database down at startup), reads go to the database instead, and
+	// the load is tried again at most every RELOAD_INTERVAL until it works.
+	private static final long RELOAD_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private final IUserAccountDAO delegate;
+	private final OwnershipIndex index;
+	private volatile long lastLoadAttempt;
+
+	public IndexedUserAccountDAO(IUserAccountDAO delegate, OwnershipIndex index) {
+		super();
+		this.delegate = delegate;
+		this.index = index;
+		this.load(); // Load the whole relation once at startup
+	}
+
+	public OwnershipIndex getIndex() {
+		return index;
+	}
+
+	private synchronized boolean load() {
+		// Writes below are synchronized too, so none can land between the SELECT and the index taking its result
+		if(index.isReady()) return true;
+		lastLoadAttempt = System.nanoTime();
+		List<UserAccount> pairs = delegate.findAll();
+		if(pairs == null) {
+			System.err.println("IndexedUserAccountDAO: couldn't load USERS_ACCOUNTS, checking ownership in the database until it can");
+			return false;
+		}
+		index.load(pairs);
+		return true;
+	}
+
+	private boolean ready() { // True when reads can use the index, retrying a failed load now and then
+		if(index.isReady()) return true;
+		if(System.nanoTime() - lastLoadAttempt < RELOAD_INTERVAL_NANOS) return false;
+		return this.load();
+	}
+
+	@Override
+	public synchronized int insert(int userId, int accountId) {
+		int result = delegate.insert(userId, accountId);
+		if(result > 0) index.add(userId, accountId);
+		return result;
+	}
+
+	@Override
+	public List<UserAccount> findAccountsByUser(int userId) {
+		if(!this.ready()) return delegate.findAccountsByUser(userId);
+		int[] accountIds = index.accountsOf(userId);
+		List<UserAccount> accountsByUser = new ArrayList<>(accountIds.length);
+		for(int accountId : accountIds) {
+			accountsByUser.add(new UserAccount(userId, accountId));
+		}
+		return accountsByUser;
+	}
+
+	@Override
+	public List<UserAccount> findUsersByAccount(AbstractAccount a) {
+		if(!this.ready()) return delegate.findUsersByAccount(a);
+		int accountId = a.getAccountId();
+		int[] userIds = index.ownersOf(accountId);
+		List<UserAccount> usersByAccount = new ArrayList<>(userIds.length);
+		for(int userId : userIds) {
+			usersByAccount.add(new UserAccount(userId, accountId));
+		}
+		return usersByAccount;
+	}
+
+	@Override
+	public List<UserAccount> findAll() {
+		return delegate.findAll();
+	}
+
+	@Override
+	public boolean isOwner(int userId, int accountId) {
+		if(!this.ready()) return delegate.isOwner(userId, accountId);
+		return index.isOwner(userId, accountId); // No round trip at all
+	}
+
+	@Override
+	public boolean hasPremiumOwner(int accountId) {
+		if(this.ready() && index.ownersOf(accountId).length == 0) return false; // No owners, no need to ask about roles
+		return delegate.hasPremiumOwner(accountId); // Roles live in USERS, which this index doesn't hold
+	}
+
+	@Override
+	public synchronized int deleteByUser(AbstractUser u) {
+		int result = delegate.deleteByUser(u);
+		index.removeUser(u.getUserId());
+		return result;
+	}
+
+	@Override
+	public synchronized int deleteByAccount(AbstractAccount a) {
+		int result = delegate.deleteByAccount(a);
+		index.removeAccount(a.getAccountId());
+		return result;
+	}
+}
@@ -0,0 +1,300 @@
+package dao;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import models.Transaction;
+import util.LedgerStatistics;
+
+public class LedgerWriter {
+	/** Writes TRANSACTIONS rows off the request thread.
+	 *
+	 * The services hand every balance movement to record() once the balance change itself has gone through.
+	 * Entries wait in a bounded queue, and one background thread takes whatever has piled up (up to batchSize
+	 * entries) and writes it with ITransactionDAO.insertAll - one JDBC batch and one commit shared by many
+	 * requests, instead of an extra INSERT round trip inside each of them.
+	 *
+	 * Back-pressure: when the queue is full, record() waits up to offerTimeoutMillis for room and then writes
+	 * its entry on the caller's own thread. A slow database slows requests down rather than dropping history
+	 * or letting the queue grow without bound.
+	 *
+	 * Durability: by default record() returns as soon as the entry is queued, so a crash can lose the rows
+	 * still queued - never balances. In synchronous mode record() waits until the batch holding its entry
+	 * has committed, and throws if it was set aside instead. Callers still share commits, so that costs
+	 * latency rather than round trips.
+	 *
+	 * Failures are handled by what they say about the rows. A batch the database refused (a BatchUpdateException,
+	 * a constraint or a value that doesn't fit - SQLState classes 23 and 22) will be refused again, so it isn't
+	 * retried: it's split in half and each half written on its own, down to single entries, so one bad row can't
+	 * hold up the rows around it. Any other failure - a lost connection, a pool timeout - says nothing about the
+	 * rows, so the batch is retried whole a few times with a growing pause, and never split: during an outage
+	 * splitting would only multiply the attempts. A write on the caller's thread makes fewer attempts and doesn't
+	 * split. Its request has already changed a balance, so it must not hang.
+	 *
+	 * Entries that still couldn't be written are set aside, in memory, and counted. Ones that met an unreachable
+	 * database are tried again after the writer's next successful commit, so an outage drains by itself once it's
+	 * over (their rows get later TRANSACTION_IDs, but keep their CREATED_AT). Ones the database refused wait for
+	 * replaySetAside(), once whatever was wrong with them has been fixed - getSetAside() lists them. At most
+	 * capacity entries are held. Past that, and at shutdown, rows are printed to stderr as the last resort.
+	 * */
+
+	private static final long POLL_MILLIS = 100;
+	private static final long MAX_RETRY_PAUSE_MILLIS = 5000;
+	private static final int BATCH_ATTEMPTS = 4; // Tries for a whole batch on the writer thread before it's split
+	private static final int CALLER_ATTEMPTS = 2; // Tries for an entry written on the request thread
+	private static final long SHUTDOWN_WAIT_MILLIS = 30000;
+
+	private final ITransactionDAO dao;
+	private final BlockingQueue<Pending> queue;
+	private final int capacity;
+	private final int batchSize;
+	private final long offerTimeoutMillis;
+	private final boolean synchronous;
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder batches = new LongAdder();
+	private final LongAdder callerWrites = new LongAdder(); // Entries written in line because the queue was full
+	private final LongAdder failedBatches = new LongAdder();
+	private final LongAdder setAside = new LongAdder(); // Rows that couldn't be written when first tried, see setAside()
+	private final Queue<Pending> unwritten = new ConcurrentLinkedQueue<>(); // Database unreachable, retried after the next commit
+	private final Queue<Pending> refused = new ConcurrentLinkedQueue<>(); // Refused by the database, kept for replaySetAside()
+	private final AtomicInteger held = new AtomicInteger(); // Entries in both
+
+	public LedgerWriter(ITransactionDAO dao, int capacity, int batchSize, long offerTimeoutMillis, boolean synchronous) {
+		if(capacity < 1 || batchSize < 1) throw new IllegalArgumentException("capacity and batchSize must be at least 1");
+		this.dao = dao;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.offerTimeoutMillis = Math.max(0, offerTimeoutMillis);
+		this.synchronous = synchronous;
+
+		this.writer = new Thread(this::run, "ledger-writer");
+		writer.setDaemon(true); // Never keep the servlet container from shutting down
+		writer.start();
+	}
+
+	public void record(Transaction... transactions) {
+		// Entries given together are always written in the same batch, so both legs of a transfer commit as one
+		Pending p = new Pending(Arrays.asList(transactions), synchronous ? new CompletableFuture<>() : null);
+		recorded.add(transactions.length);
+
+		boolean queued = false;
+		if(running) {
+			try {
+				queued = queue.offer(p, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt(); // Keep the flag, and write the entry ourselves below
+			}
+		}
+		if(!queued) { // Queue full, or shutting down
+			callerWrites.add(transactions.length);
+			this.write(Collections.singletonList(p), CALLER_ATTEMPTS, false);
+		}
+		if(p.done != null) p.done.join(); // Synchronous mode, wait for the batch's commit. Throws if it was set aside
+	}
+
+	public List<Transaction> getSetAside() { // Rows waiting for a retry or for replaySetAside(), oldest first
+		List<Pending> entries = new ArrayList<>(unwritten);
+		entries.addAll(refused);
+		return rowsOf(entries);
+	}
+
+	public int replaySetAside() {
+		// Tries every set-aside entry again, on the calling thread - e.g. once the cause of a refused row has been fixed.
+		// Entries that fail again are set aside again. Number of rows written
+		List<Pending> entries = new ArrayList<>();
+		this.takeSetAside(unwritten, Integer.MAX_VALUE, entries);
+		this.takeSetAside(refused, Integer.MAX_VALUE, entries);
+		int rows = 0;
+		for(int from = 0; from < entries.size(); from += batchSize) {
+			rows += this.write(entries.subList(from, Math.min(entries.size(), from + batchSize)), BATCH_ATTEMPTS, true);
+		}
+		return rows;
+	}
+
+	public boolean isSynchronous() {
+		return synchronous;
+	}
+
+	public LedgerStatistics getStatistics() {
+		return new LedgerStatistics(queue.size(), capacity, synchronous, recorded.sum(), written.sum(), batches.sum(),
+				callerWrites.sum(), failedBatches.sum(), setAside.sum(), held.get());
+	}
+
+	public void shutdown() { // Writes out everything still queued, then stops the writer thread
+		running = false;
+		try {
+			writer.join(SHUTDOWN_WAIT_MILLIS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		List<Pending> rest = new ArrayList<>();
+		queue.drainTo(rest); // Anything queued after the writer made its last pass
+		if(!rest.isEmpty()) this.write(rest, BATCH_ATTEMPTS, true);
+
+		rest.clear();
+		this.takeSetAside(unwritten, Integer.MAX_VALUE, rest); // One last try for rows the database couldn't take earlier
+		if(!rest.isEmpty()) this.write(rest, 1, true);
+
+		List<Transaction> left = this.getSetAside(); // Nowhere left to keep them
+		if(!left.isEmpty()) System.err.println("LedgerWriter: shutting down with " + left.size() + " ledger rows set aside: " + left);
+	}
+
+	private void run() {
+		List<Pending> batch = new ArrayList<>(batchSize);
+		while(running || !queue.isEmpty()) {
+			try {
+				Pending first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if(first == null) continue;
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1); // Whatever else is waiting rides along in the same commit
+				if(this.write(batch, BATCH_ATTEMPTS, true) > 0 && !unwritten.isEmpty()) { // The database is back
+					batch.clear();
+					this.takeSetAside(unwritten, batchSize, batch);
+					this.write(batch, 1, true);
+				}
+			} catch(InterruptedException e) {
+				// Nothing to do, the loop condition decides whether there's more to write
+			} catch(RuntimeException e) {
+				e.printStackTrace(); // Keep the writer alive whatever happens to one batch
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private int write(List<Pending> batch, int attempts, boolean split) {
+		// Writes the batch, or halves of it, or sets entries aside - it always returns, and every entry ends up done.
+		// Number of rows written
+		Failure failure = this.tryWrite(batch, attempts);
+		if(failure == Failure.REFUSED && split && batch.size() > 1) {
+			int half = batch.size() / 2;
+			return this.write(batch.subList(0, half), attempts, true) // Each half completes its own entries
+					+ this.write(batch.subList(half, batch.size()), attempts, true);
+		}
+		if(failure != null) this.setAside(batch, failure);
+		
+		for(Pending p : batch) {
+			if(p.done == null) continue;
+			if(failure == null) {
+				p.done.complete(null);
+			} else { // The caller stops waiting either way, but learns its row isn't in TRANSACTIONS
+				p.done.completeExceptionally(new IllegalStateException("Ledger rows " + (failure == Failure.REFUSED
+						? "refused by the database" : "not written, the database couldn't be reached") + ". They were set aside"));
+			}
+		}
+		return failure == null ? rowsOf(batch).size() : 0;
+	}
+	
+	private Failure tryWrite(List<Pending> batch, int attempts) { // null once written
+		List<Transaction> rows = rowsOf(batch);
+		for(int attempt = 1; ; attempt++) {
+			try {
+				int result = dao.insertAll(rows);
+				if(result == rows.size()) {
+					written.add(rows.size());
+					batches.increment();
+					return null;
+				}
+			} catch(SQLException e) {
+				if(isRefusal(e)) {
+					failedBatches.increment();
+					return Failure.REFUSED; // The same rows would be refused again, retrying can't help
+				}
+				e.printStackTrace();
+			} catch(RuntimeException e) {
+				e.printStackTrace();
+			}
+			
+			failedBatches.increment();
+			if(attempt >= attempts) return Failure.UNREACHABLE;
+			try {
+				Thread.sleep(Math.min(MAX_RETRY_PAUSE_MILLIS, 50L << Math.min(attempt, 10)));
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return Failure.UNREACHABLE; // Don't keep an interrupted thread retrying
+			}
+		}
+	}
+	
+	static boolean isRefusal(SQLException e) {
+		// Whether the database turned down the rows themselves, rather than failing to take them. Drivers wrap the
+		// statement's own error in the BatchUpdateException, so that's looked at first when there is one
+		if(e instanceof BatchUpdateException && e.getCause() instanceof SQLException) e = (SQLException) e.getCause();
+		String state = e.getSQLState();
+		if(e instanceof SQLRecoverableException || e instanceof SQLTransientException
+				|| e instanceof SQLNonTransientConnectionException || (state != null && state.startsWith("08"))) {
+			return false; // Connection trouble, even inside a batch
+		}
+		return e instanceof BatchUpdateException || e instanceof SQLIntegrityConstraintViolationException
+				|| e instanceof SQLDataException || (state != null && (state.startsWith("23") || state.startsWith("22")));
+	}
+	
+	private void setAside(List<Pending> batch, Failure failure) {
+		// The balances these rows describe have already changed, so they're kept until they can be written
+		for(Pending p : batch) {
+			setAside.add(p.transactions.size());
+			if(held.incrementAndGet() > capacity) {
+				held.decrementAndGet();
+				System.err.println("LedgerWriter: too many ledger rows set aside, printing these for replay by hand: " + p.transactions);
+				continue;
+			}
+			(failure == Failure.REFUSED ? refused : unwritten).add(p);
+		}
+	}
+	
+	private void takeSetAside(Queue<Pending> from, int max, List<Pending> to) {
+		for(int i = 0; i < max; i++) {
+			Pending p = from.poll();
+			if(p == null) return;
+			held.decrementAndGet();
+			to.add(p);
+		}
+	}
+	
+	private static List<Transaction> rowsOf(List<Pending> batch) {
+		List<Transaction> rows = new ArrayList<>();
+		for(Pending p : batch) {
+			rows.addAll(p.transactions);
+		}
+		return rows;
+	}
+
+	@Override
+	public String toString() {
+		return "LedgerWriter " + this.getStatistics();
+	}
+
+	private enum Failure { REFUSED, UNREACHABLE }
+
+	private static final class Pending {
+		final List<Transaction> transactions;
+		final CompletableFuture<Void> done; // null unless synchronous
+
+		Pending(List<Transaction> transactions, CompletableFuture<Void> done) {
+			this.transactions = transactions;
+			this.done = done;
+		}
+	}
+}
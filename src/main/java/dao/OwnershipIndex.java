@@ -0,0 +1,143 @@
+package dao;
+
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+import models.UserAccount;
+import util.IntMultimap;
+
+public class OwnershipIndex {
+	/** A node-local copy of the USERS_ACCOUNTS relation, indexed by user and by account.
+	 *
+	 * Built on IntMultimap, so it holds nothing but int arrays - no Integer or UserAccount objects.
+	 * Reads take an optimistic StampedLock stamp and only fall back to a real read lock if a writer
+	 * got in the way, so the common case is a couple of array lookups with no locking at all.
+	 * Writes (new owners, deletes) are rare and simply take the write lock.
+	 *
+	 * Until the first load() the index isn't ready and answers nothing - callers go to the database instead.
+	 * */
+
+	private final StampedLock lock = new StampedLock();
+	private final IntMultimap accountsByUser;
+	private final IntMultimap usersByAccount;
+	private volatile boolean ready; // Set by the first successful load()
+
+	public OwnershipIndex(int expectedPairs) {
+		super();
+		this.accountsByUser = new IntMultimap(expectedPairs);
+		this.usersByAccount = new IntMultimap(expectedPairs);
+	}
+
+	public boolean isOwner(int userId, int accountId) {
+		long stamp = lock.tryOptimisticRead();
+		boolean owner = accountsByUser.contains(userId, accountId);
+		if(lock.validate(stamp)) return owner;
+
+		stamp = lock.readLock(); // A writer was busy, read again properly
+		try {
+			return accountsByUser.contains(userId, accountId);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int[] accountsOf(int userId) { // Sorted account ids. Don't modify the returned array.
+		long stamp = lock.tryOptimisticRead();
+		int[] accounts = accountsByUser.get(userId);
+		if(lock.validate(stamp)) return accounts;
+
+		stamp = lock.readLock();
+		try {
+			return accountsByUser.get(userId);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public int[] ownersOf(int accountId) { // Sorted user ids. Don't modify the returned array.
+		long stamp = lock.tryOptimisticRead();
+		int[] owners = usersByAccount.get(accountId);
+		if(lock.validate(stamp)) return owners;
+
+		stamp = lock.readLock();
+		try {
+			return usersByAccount.get(accountId);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public void add(int userId, int accountId) {
+		long stamp = lock.writeLock();
+		try {
+			accountsByUser.add(userId, accountId);
+			usersByAccount.add(accountId, userId);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public void removeUser(int userId) {
+		long stamp = lock.writeLock();
+		try {
+			for(int accountId : accountsByUser.removeKey(userId)) {
+				usersByAccount.remove(accountId, userId);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public void removeAccount(int accountId) {
+		long stamp = lock.writeLock();
+		try {
+			for(int userId : usersByAccount.removeKey(accountId)) {
+				accountsByUser.remove(userId, accountId);
+			}
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public boolean isReady() { // False until the whole relation has been loaded once - don't trust the index before then
+		return ready;
+	}
+
+	public void load(List<UserAccount> pairs) { // Replaces the whole index, used at startup
+		long stamp = lock.writeLock();
+		try {
+			accountsByUser.clear();
+			usersByAccount.clear();
+			for(UserAccount ua : pairs) {
+				accountsByUser.add(ua.getUserId(), ua.getAccountId());
+				usersByAccount.add(ua.getAccountId(), ua.getUserId());
+			}
+			ready = true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	public int size() { // Number of user/account pairs
+		long stamp = lock.readLock();
+		try {
+			return accountsByUser.valueCount();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	public long footprintBytes() { // Approximate heap used by both indexes
+		long stamp = lock.readLock();
+		try {
+			return accountsByUser.footprintBytes() + usersByAccount.footprintBytes();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "OwnershipIndex [ready=" + ready + ", pairs=" + this.size() + ", footprintBytes=" + this.footprintBytes() + "]";
+	}
+}
@@ -0,0 +1,161 @@
+package dao;
+
+import java.util.Map;
+
+import models.AccountStatus;
+import models.AccountType;
+import models.Role;
+
+public class ReferenceData {
+	/** Startup-loaded copy of ROLES, ACCOUNT_STATUS and ACCOUNT_TYPE.
+	 *
+	 * These tables are a handful of rows that practically never change, so the DAOs no longer join them
+	 * into every query. Rows carry only the ids, and the mappers swap those for the one shared instance
+	 * of each Role / AccountStatus / AccountType held here - an array lookup, with no allocation per row.
+	 *
+	 * The shared instances are read-only: their setters throw, so one caller can't rename "Open" for
+	 * everybody. Code that wants a different role or status sets a new object, as it always did.
+	 * */
+
+	private static final int MAX_ID = 1024; // Lookup arrays are indexed by id, so keep them small
+	private static final long RELOAD_INTERVAL_MILLIS = 1000; // At most one reload a second for ids we don't know
+
+	private final IReferenceDataDAO source;
+
+	// Replaced whole on reload, never modified
+	private volatile Role[] roles;
+	private volatile AccountStatus[] statuses;
+	private volatile AccountType[] types;
+	private long lastReload;
+
+	public ReferenceData(IReferenceDataDAO source) {
+		super();
+		this.source = source;
+		this.reload();
+	}
+
+	public synchronized void reload() {
+		Map<Integer, String> roleRows = source.findRoles();
+		Role[] r = new Role[maxId(roleRows) + 1];
+		for(Map.Entry<Integer, String> row : roleRows.entrySet()) {
+			r[row.getKey()] = new FrozenRole(row.getKey(), row.getValue());
+		}
+
+		Map<Integer, String> statusRows = source.findAccountStatuses();
+		AccountStatus[] s = new AccountStatus[maxId(statusRows) + 1];
+		for(Map.Entry<Integer, String> row : statusRows.entrySet()) {
+			s[row.getKey()] = new FrozenAccountStatus(row.getKey(), row.getValue());
+		}
+
+		Map<Integer, String> typeRows = source.findAccountTypes();
+		AccountType[] t = new AccountType[maxId(typeRows) + 1];
+		for(Map.Entry<Integer, String> row : typeRows.entrySet()) {
+			t[row.getKey()] = new FrozenAccountType(row.getKey(), row.getValue());
+		}
+
+		roles = r;
+		statuses = s;
+		types = t;
+		lastReload = System.currentTimeMillis();
+	}
+
+	public Role role(int roleId) {
+		Role[] r = roles;
+		if(roleId > 0 && roleId < r.length && r[roleId] != null) return r[roleId];
+		if(this.reloadForMiss()) return this.role(roleId);
+		return new Role(roleId, null); // Same as the old join finding no name
+	}
+
+	public AccountStatus status(int statusId) {
+		AccountStatus[] s = statuses;
+		if(statusId > 0 && statusId < s.length && s[statusId] != null) return s[statusId];
+		if(this.reloadForMiss()) return this.status(statusId);
+		return new AccountStatus(statusId, null);
+	}
+
+	public AccountType type(int typeId) {
+		AccountType[] t = types;
+		if(typeId > 0 && typeId < t.length && t[typeId] != null) return t[typeId];
+		if(this.reloadForMiss()) return this.type(typeId);
+		return new AccountType(typeId, null);
+	}
+
+	private synchronized boolean reloadForMiss() {
+		// A row added to a lookup table after startup - pick it up, but don't let a bad id hammer the database
+		if(System.currentTimeMillis() - lastReload < RELOAD_INTERVAL_MILLIS) return false;
+		this.reload();
+		return true;
+	}
+
+	private static int maxId(Map<Integer, String> rows) {
+		int max = 0;
+		for(int id : rows.keySet()) {
+			if(id <= 0 || id > MAX_ID) {
+				throw new IllegalStateException("Reference data id " + id + " is outside 1.." + MAX_ID);
+			}
+			max = Math.max(max, id);
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return "ReferenceData [roles=" + count(roles) + ", statuses=" + count(statuses) + ", types=" + count(types) + "]";
+	}
+
+	private static int count(Object[] table) {
+		int n = 0;
+		for(Object o : table) {
+			if(o != null) n++;
+		}
+		return n;
+	}
+
+	private static final class FrozenRole extends Role {
+		FrozenRole(int roleId, String role) {
+			super(roleId, role);
+		}
+
+		@Override
+		public void setRoleId(int roleId) {
+			throw new UnsupportedOperationException("Shared reference data, set a new Role instead");
+		}
+
+		@Override
+		public void setRole(String role) {
+			throw new UnsupportedOperationException("Shared reference data, set a new Role instead");
+		}
+	}
+
+	private static final class FrozenAccountStatus extends AccountStatus {
+		FrozenAccountStatus(int statusId, String status) {
+			super(statusId, status);
+		}
+
+		@Override
+		public void setStatusId(int statusId) {
+			throw new UnsupportedOperationException("Shared reference data, set a new AccountStatus instead");
+		}
+
+		@Override
+		public void setStatus(String status) {
+			throw new UnsupportedOperationException("Shared reference data, set a new AccountStatus instead");
+		}
+	}
+
+	private static final class FrozenAccountType extends AccountType {
+		FrozenAccountType(int typeId, String type) {
+			super(typeId, type);
+		}
+
+		@Override
+		public void setTypeId(int typeId) {
+			throw new UnsupportedOperationException("Shared reference data, set a new AccountType instead");
+		}
+
+		@Override
+		public void setType(String type) {
+			throw new UnsupportedOperationException("Shared reference data, set a new AccountType instead");
+		}
+	}
+}
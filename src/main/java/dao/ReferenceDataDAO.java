@@ -0,0 +1,46 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import util.ConnectionUtil;
+
+public class ReferenceDataDAO implements IReferenceDataDAO {
+
+	@Override
+	public Map<Integer, String> findRoles() {
+		return this.findAll("SELECT ID, ROLE_NAME FROM ROLES");
+	}
+
+	@Override
+	public Map<Integer, String> findAccountStatuses() {
+		return this.findAll("SELECT ID, STATUS FROM ACCOUNT_STATUS");
+	}
+
+	@Override
+	public Map<Integer, String> findAccountTypes() {
+		return this.findAll("SELECT ID, TYPE FROM ACCOUNT_TYPE");
+	}
+
+	private Map<Integer, String> findAll(String sql) { // Every row of a two column (ID, name) lookup table
+		Map<Integer, String> rows = new HashMap<>();
+		try (Connection conn = ConnectionUtil.getConnection()) {
+
+			PreparedStatement stmnt = conn.prepareStatement(sql);
+			ResultSet rs = stmnt.executeQuery();
+
+			while(rs.next()) {
+				rows.put(rs.getInt(1), rs.getString(2));
+			}
+
+		} catch(SQLException e) {
+			e.printStackTrace();
+			return new HashMap<Integer, String>(); // If something goes wrong, return an empty map.
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,9 @@
+package dao;
+
+import java.io.IOException;
+
+@FunctionalInterface
+public interface RowCallback<T> {
+	// Handed each row as the DAO reads it, so callers can stream results out instead of collecting them into a List first
+	public void accept(T row) throws IOException;
+}
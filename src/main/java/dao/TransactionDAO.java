@@ -0,0 +1,53 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+import models.Transaction;
+import util.ConnectionUtil;
+
+public class TransactionDAO implements ITransactionDAO {
+
+	@Override
+	public int insertAll(List<Transaction> transactions) throws SQLException {
+		// Called by LedgerWriter with everything that queued up since its last flush - one executeBatch and one
+		// commit for the lot, so a busy minute costs a handful of round trips instead of one per movement.
+		if(transactions.isEmpty()) return 0;
+		try (Connection conn = ConnectionUtil.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				String sql = "INSERT INTO TRANSACTIONS (ACCOUNT_ID, KIND, AMOUNT_CENTS, BALANCE_AFTER_CENTS, COUNTERPARTY_ID, CREATED_AT) "
+						+ "VALUES (?, ?, ?, ?, ?, ?)";
+
+				PreparedStatement stmnt = conn.prepareStatement(sql);
+				for(Transaction t : transactions) {
+					stmnt.setInt(1, t.getAccountId());
+					stmnt.setString(2, t.getKind());
+					stmnt.setLong(3, t.getAmountCents());
+					stmnt.setLong(4, t.getBalanceAfterCents());
+					if(t.getCounterpartyAccountId() == 0) {
+						stmnt.setNull(5, Types.INTEGER);
+					} else {
+						stmnt.setInt(5, t.getCounterpartyAccountId());
+					}
+					stmnt.setTimestamp(6, new Timestamp(t.getCreatedAt()));
+					stmnt.addBatch();
+				}
+				stmnt.executeBatch();
+				conn.commit();
+			} catch(SQLException e) {
+				try {
+					conn.rollback(); // All or nothing, so the writer can safely retry the whole batch
+				} catch(SQLException rollback) {
+					e.addSuppressed(rollback); // The connection is likely gone, and the pool rolls back anyway. Keep the first error
+				}
+				throw e;
+			}
+		}
+		return transactions.size();
+	}
+}
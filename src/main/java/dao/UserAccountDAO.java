@@ -59,7 +59,7 @@ public class UserAccountDAO implements IUserAccountDAO {
 
 		} catch(SQLException e) {
 			e.printStackTrace();
-			return new ArrayList<UserAccount>(); // If something goes wrong, return an empty list.
+			return null; // Not an empty list - the ownership index must be able to tell a failed load from an empty table
 		}
 		return accountsByUser; // Successful return
 	}
@@ -122,6 +122,51 @@ public class UserAccountDAO implements IUserAccountDAO {
 		return usersByAccount; // Successful return
 	}
 
+	@Override
+	public boolean isOwner(int userId, int accountId) {
+		// Answered straight from the USERS_ACCOUNTS key, without loading the account or its owner list
+		boolean result = false;
+		try (Connection conn = ConnectionUtil.getConnection()) {
+
+			String sql = "SELECT 1 FROM USERS_ACCOUNTS WHERE USER_ID = ? AND ACCOUNT_ID = ?";
+
+			PreparedStatement stmnt = conn.prepareStatement(sql);
+			stmnt.setInt(1, userId);
+			stmnt.setInt(2, accountId);
+
+			ResultSet rs = stmnt.executeQuery();
+			result = rs.next(); // Any row at all means they own it
+
+		} catch(SQLException e) {
+			e.printStackTrace();
+			return false; // If something goes wrong, don't grant ownership
+		}
+		return result;
+	}
+
+	@Override
+	public boolean hasPremiumOwner(int accountId) {
+		// Replaces loading every owner and then each owner's user record to look at their role
+		boolean result = false;
+		try (Connection conn = ConnectionUtil.getConnection()) {
+
+			String sql = "SELECT 1 FROM DUAL WHERE EXISTS ("
+					+ "SELECT 1 FROM USERS_ACCOUNTS INNER JOIN USERS ON USERS_ACCOUNTS.user_id = USERS.id "
+					+ "WHERE USERS_ACCOUNTS.ACCOUNT_ID = ? AND USERS.ROLE_ID > 1)"; // Roles above 1 (Standard) are Premium or higher
+
+			PreparedStatement stmnt = conn.prepareStatement(sql);
+			stmnt.setInt(1, accountId);
+
+			ResultSet rs = stmnt.executeQuery();
+			result = rs.next();
+
+		} catch(SQLException e) {
+			e.printStackTrace();
+			return false; // If something goes wrong, don't grant anything
+		}
+		return result;
+	}
+
 	@Override
 	public int deleteByUser(AbstractUser u) {
 		// Adds a user/account pair of IDs into our table. 
@@ -0,0 +1,38 @@
+package exceptions;
+
+public class ConcurrentUpdateException extends RuntimeException {
+	// Thrown when an update carries a version the row has already moved past - someone else changed it first
+	private static final long serialVersionUID = 4718932250176420873L;
+
+	public ConcurrentUpdateException() {
+		super();
+		// TODO Auto-generated constructor stub
+	}
+
+	public ConcurrentUpdateException(String message, Throwable cause, boolean enableSuppression,
+			boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+		// TODO Auto-generated constructor stub
+	}
+
+	public ConcurrentUpdateException(String message, Throwable cause) {
+		super(message, cause);
+		// TODO Auto-generated constructor stub
+	}
+
+	public ConcurrentUpdateException(String message) {
+		super(message);
+		// TODO Auto-generated constructor stub
+	}
+
+	public ConcurrentUpdateException(Throwable cause) {
+		super(cause);
+		// TODO Auto-generated constructor stub
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentUpdateException []";
+	}
+
+}
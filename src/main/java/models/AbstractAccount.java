@@ -4,19 +4,20 @@ import java.util.Objects;
 
 public abstract class AbstractAccount {
 	  private int accountId; // primary key
-	  private double balance;  // not null
+	  private long balanceCents;  // not null, whole cents
 	  private AccountStatus status;
 	  private AccountType type;
+	  private int version; // not null, bumped by every UPDATE. Send back the version you read when updating.
 	  
 	public AbstractAccount() {
 		super();
 		// TODO Auto-generated constructor stub
 	}
 
-	public AbstractAccount(int accountId, double balance, AccountStatus status, AccountType type) {
+	public AbstractAccount(int accountId, long balanceCents, AccountStatus status, AccountType type) {
 		super();
 		this.accountId = accountId;
-		this.balance = balance;
+		this.balanceCents = balanceCents;
 		this.status = status;
 		this.type = type;
 	}
@@ -29,12 +30,12 @@ public abstract class AbstractAccount {
 		this.accountId = accountId;
 	}
 
-	public double getBalance() {
-		return balance;
+	public long getBalanceCents() {
+		return balanceCents;
 	}
 
-	public void setBalance(double balance) {
-		this.balance = balance;
+	public void setBalanceCents(long balanceCents) {
+		this.balanceCents = balanceCents;
 	}
 
 	public AccountStatus getStatus() {
@@ -53,9 +54,17 @@ public abstract class AbstractAccount {
 		this.type = type;
 	}
 
+	public int getVersion() {
+		return version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	@Override
 	public int hashCode() {
-		return Objects.hash(accountId, balance, status, type);
+		return Objects.hash(accountId, balanceCents, status, type, version);
 	}
 
 	@Override
@@ -68,14 +77,15 @@ public abstract class AbstractAccount {
 		}
 		AbstractAccount other = (AbstractAccount) obj;
 		return accountId == other.accountId
-				&& Double.doubleToLongBits(balance) == Double.doubleToLongBits(other.balance)
-				&& Objects.equals(status, other.status) && Objects.equals(type, other.type);
+				&& balanceCents == other.balanceCents
+				&& Objects.equals(status, other.status) && Objects.equals(type, other.type)
+				&& version == other.version;
 	}
 
 	@Override
 	public String toString() {
-		return "AbstractAccount [accountId=" + accountId + ", balance=" + balance + ", status=" + status + ", type="
-				+ type + "]";
+		return "AbstractAccount [accountId=" + accountId + ", balanceCents=" + balanceCents + ", status=" + status + ", type="
+				+ type + ", version=" + version + "]";
 	}
 	
 	
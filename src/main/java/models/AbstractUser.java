@@ -8,6 +8,7 @@ public class AbstractUser {
 	private String lastName; // not null
 	private String email; // not null
 	private Role role;
+	private int version; // not null, bumped by every UPDATE. Send back the version you read when updating.
 	
 	public AbstractUser(int userId, String username, String password, String firstName, String lastName, String email,
 			Role role) {
@@ -81,6 +82,14 @@ public class AbstractUser {
 		this.role = role;
 	}
 
+	public int getVersion() {
+		return version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -92,6 +101,7 @@ public class AbstractUser {
 		result = prime * result + ((role == null) ? 0 : role.hashCode());
 		result = prime * result + userId;
 		result = prime * result + ((username == null) ? 0 : username.hashCode());
+		result = prime * result + version;
 		return result;
 	}
 
@@ -149,13 +159,16 @@ public class AbstractUser {
 		} else if (!username.equals(other.username)) {
 			return false;
 		}
+		if (version != other.version) {
+			return false;
+		}
 		return true;
 	}
 
 	@Override
 	public String toString() {
 		return "User [userId=" + userId + ", username=" + username + ", password=" + password + ", firstName="
-				+ firstName + ", lastName=" + lastName + ", email=" + email + ", role=" + role + "]";
+				+ firstName + ", lastName=" + lastName + ", email=" + email + ", role=" + role + ", version=" + version + "]";
 	}
 	
 	
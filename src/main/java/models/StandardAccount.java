@@ -2,8 +2,8 @@ package models;
 
 public class StandardAccount extends AbstractAccount {
 
-	public StandardAccount(int id, double balance, AccountStatus as, AccountType at) {
-		super( id,  balance,  as,  at);
+	public StandardAccount(int id, long balanceCents, AccountStatus as, AccountType at) {
+		super( id,  balanceCents,  as,  at);
 	}
 	
 	public StandardAccount() {
@@ -0,0 +1,119 @@
+package models;
+
+import java.util.Objects;
+
+public class Transaction {
+	// One row of the append-only TRANSACTIONS ledger - a single movement of money in or out of one account.
+	// A transfer is two rows, one per account, pointing at each other through counterpartyAccountId.
+	public static final String DEPOSIT = "DEPOSIT";
+	public static final String WITHDRAWAL = "WITHDRAWAL";
+	public static final String TRANSFER = "TRANSFER";
+	public static final String INTEREST = "INTEREST";
+	public static final String ADJUSTMENT = "ADJUSTMENT"; // Balance set directly through PUT /accounts
+	public static final String OPENING = "OPENING"; // Balance a new account was created with
+
+	private long transactionId; // primary key, assigned when the ledger writes the row
+	private int accountId;
+	private String kind;
+	private long amountCents; // Signed, negative for money leaving the account
+	private long balanceAfterCents;
+	private int counterpartyAccountId; // The other side of a transfer, 0 for none
+	private long createdAt; // Epoch millis
+
+	public Transaction() {
+		super();
+	}
+
+	public Transaction(int accountId, String kind, long amountCents, long balanceAfterCents, int counterpartyAccountId) {
+		super();
+		this.accountId = accountId;
+		this.kind = kind;
+		this.amountCents = amountCents;
+		this.balanceAfterCents = balanceAfterCents;
+		this.counterpartyAccountId = counterpartyAccountId;
+		this.createdAt = System.currentTimeMillis();
+	}
+
+	public long getTransactionId() {
+		return transactionId;
+	}
+
+	public void setTransactionId(long transactionId) {
+		this.transactionId = transactionId;
+	}
+
+	public int getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(int accountId) {
+		this.accountId = accountId;
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public void setKind(String kind) {
+		this.kind = kind;
+	}
+
+	public long getAmountCents() {
+		return amountCents;
+	}
+
+	public void setAmountCents(long amountCents) {
+		this.amountCents = amountCents;
+	}
+
+	public long getBalanceAfterCents() {
+		return balanceAfterCents;
+	}
+
+	public void setBalanceAfterCents(long balanceAfterCents) {
+		this.balanceAfterCents = balanceAfterCents;
+	}
+
+	public int getCounterpartyAccountId() {
+		return counterpartyAccountId;
+	}
+
+	public void setCounterpartyAccountId(int counterpartyAccountId) {
+		this.counterpartyAccountId = counterpartyAccountId;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(long createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(transactionId, accountId, kind, amountCents, balanceAfterCents, counterpartyAccountId, createdAt);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof Transaction)) {
+			return false;
+		}
+		Transaction other = (Transaction) obj;
+		return transactionId == other.transactionId && accountId == other.accountId && Objects.equals(kind, other.kind)
+				&& amountCents == other.amountCents && balanceAfterCents == other.balanceAfterCents
+				&& counterpartyAccountId == other.counterpartyAccountId && createdAt == other.createdAt;
+	}
+
+	@Override
+	public String toString() {
+		return "Transaction [transactionId=" + transactionId + ", accountId=" + accountId + ", kind=" + kind
+				+ ", amountCents=" + amountCents + ", balanceAfterCents=" + balanceAfterCents
+				+ ", counterpartyAccountId=" + counterpartyAccountId + ", createdAt=" + createdAt + "]";
+	}
+
+}
@@ -2,31 +2,31 @@ package templates;
 
 import java.util.Objects;
 
-public class AmountTemplate { // Represents an amount posted to /accounts/:accountId?[deposit||withdraw]
+public class AmountTemplate { // Represents an amount in cents posted to /accounts/:accountId?[deposit||withdraw]
 	
-	private double amount;
+	private long amountCents;
 
 	public AmountTemplate() {
 		super();
 		// TODO Auto-generated constructor stub
 	}
 
-	public AmountTemplate(double amount) {
+	public AmountTemplate(long amountCents) {
 		super();
-		this.amount = amount;
+		this.amountCents = amountCents;
 	}
 
-	public double getAmount() {
-		return amount;
+	public long getAmountCents() {
+		return amountCents;
 	}
 
-	public void setAmount(double amount) {
-		this.amount = amount;
+	public void setAmountCents(long amountCents) {
+		this.amountCents = amountCents;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(amount);
+		return Objects.hash(amountCents);
 	}
 
 	@Override
@@ -38,12 +38,12 @@ public class AmountTemplate { // Represents an amount posted to /accounts/:accou
 			return false;
 		}
 		AmountTemplate other = (AmountTemplate) obj;
-		return Double.doubleToLongBits(amount) == Double.doubleToLongBits(other.amount);
+		return amountCents == other.amountCents;
 	}
 
 	@Override
 	public String toString() {
-		return "AmountTemplate [amount=" + amount + "]";
+		return "AmountTemplate [amountCents=" + amountCents + "]";
 	}
 	
 }
@@ -5,12 +5,12 @@ import java.util.Objects;
 public class BalanceTemplate {
 	// Template for taking in POSTed information on the withdraw/deposit endpoints
 	private int accountId; // Used to represent the associated account id we're going to modify
-	private double amount; // the amount we want to change it by.
+	private long amountCents; // the amount we want to change it by, in cents.
 	
-	public BalanceTemplate(int accountId, double amount) {
+	public BalanceTemplate(int accountId, long amountCents) {
 		super();
 		this.accountId = accountId;
-		this.amount = amount;
+		this.amountCents = amountCents;
 	}
 	
 	public BalanceTemplate() {
@@ -26,17 +26,17 @@ public class BalanceTemplate {
 		this.accountId = accountId;
 	}
 
-	public double getAmount() {
-		return amount;
+	public long getAmountCents() {
+		return amountCents;
 	}
 
-	public void setAmount(double amount) {
-		this.amount = amount;
+	public void setAmountCents(long amountCents) {
+		this.amountCents = amountCents;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(accountId, amount);
+		return Objects.hash(accountId, amountCents);
 	}
 
 	@Override
@@ -48,12 +48,12 @@ public class BalanceTemplate {
 			return false;
 		}
 		BalanceTemplate other = (BalanceTemplate) obj;
-		return accountId == other.accountId && Double.doubleToLongBits(amount) == Double.doubleToLongBits(other.amount);
+		return accountId == other.accountId && amountCents == other.amountCents;
 	}
 
 	@Override
 	public String toString() {
-		return "BalanceTemplate [accountId=" + accountId + ", amount=" + amount + "]";
+		return "BalanceTemplate [accountId=" + accountId + ", amountCents=" + amountCents + "]";
 	}
 	
 	
@@ -0,0 +1,118 @@
+package templates;
+
+import java.util.Objects;
+
+public class BatchTransferItemTemplate {
+	// One entry of POST /accounts?batchTransfer's results, in the same position as the transfer it answers
+	public static final String COMPLETED = "COMPLETED";
+	public static final String INSUFFICIENT_FUNDS = "INSUFFICIENT_FUNDS"; // Would have overdrawn the source (or overflowed the target)
+	public static final String NO_SUCH_ACCOUNT = "NO_SUCH_ACCOUNT";
+	public static final String INVALID = "INVALID"; // Negative amount, or source and target are the same account
+	public static final String FAILED = "FAILED"; // The database couldn't apply the batch, nothing in it went through
+
+	private int index;
+	private int sourceAccountId;
+	private int targetAccountId;
+	private long amountCents;
+	private String status;
+	private long sourceBalanceCents; // Balances after this transfer, only set when COMPLETED
+	private long targetBalanceCents;
+
+	public BatchTransferItemTemplate() {
+		super();
+	}
+
+	public BatchTransferItemTemplate(int index, int sourceAccountId, int targetAccountId, long amountCents, String status,
+			long sourceBalanceCents, long targetBalanceCents) {
+		super();
+		this.index = index;
+		this.sourceAccountId = sourceAccountId;
+		this.targetAccountId = targetAccountId;
+		this.amountCents = amountCents;
+		this.status = status;
+		this.sourceBalanceCents = sourceBalanceCents;
+		this.targetBalanceCents = targetBalanceCents;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public int getSourceAccountId() {
+		return sourceAccountId;
+	}
+
+	public void setSourceAccountId(int sourceAccountId) {
+		this.sourceAccountId = sourceAccountId;
+	}
+
+	public int getTargetAccountId() {
+		return targetAccountId;
+	}
+
+	public void setTargetAccountId(int targetAccountId) {
+		this.targetAccountId = targetAccountId;
+	}
+
+	public long getAmountCents() {
+		return amountCents;
+	}
+
+	public void setAmountCents(long amountCents) {
+		this.amountCents = amountCents;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public long getSourceBalanceCents() {
+		return sourceBalanceCents;
+	}
+
+	public void setSourceBalanceCents(long sourceBalanceCents) {
+		this.sourceBalanceCents = sourceBalanceCents;
+	}
+
+	public long getTargetBalanceCents() {
+		return targetBalanceCents;
+	}
+
+	public void setTargetBalanceCents(long targetBalanceCents) {
+		this.targetBalanceCents = targetBalanceCents;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(amountCents, index, sourceAccountId, sourceBalanceCents, status, targetAccountId, targetBalanceCents);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof BatchTransferItemTemplate)) {
+			return false;
+		}
+		BatchTransferItemTemplate other = (BatchTransferItemTemplate) obj;
+		return amountCents == other.amountCents && index == other.index && sourceAccountId == other.sourceAccountId
+				&& sourceBalanceCents == other.sourceBalanceCents && Objects.equals(status, other.status)
+				&& targetAccountId == other.targetAccountId && targetBalanceCents == other.targetBalanceCents;
+	}
+
+	@Override
+	public String toString() {
+		return "BatchTransferItemTemplate [index=" + index + ", sourceAccountId=" + sourceAccountId + ", targetAccountId="
+				+ targetAccountId + ", amountCents=" + amountCents + ", status=" + status + ", sourceBalanceCents="
+				+ sourceBalanceCents + ", targetBalanceCents=" + targetBalanceCents + "]";
+	}
+}
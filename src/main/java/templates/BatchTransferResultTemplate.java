@@ -0,0 +1,92 @@
+package templates;
+
+import java.util.List;
+import java.util.Objects;
+
+public class BatchTransferResultTemplate {
+	// Returned from POST /accounts?batchTransfer: totals, then one result per transfer in the order they were sent
+	private String message;
+	private int completed;
+	private int refused;
+	private long elapsedMicros; // Time the whole batch took, including any retries
+	private List<BatchTransferItemTemplate> results;
+
+	public BatchTransferResultTemplate() {
+		super();
+	}
+
+	public BatchTransferResultTemplate(String message, int completed, int refused, long elapsedMicros,
+			List<BatchTransferItemTemplate> results) {
+		super();
+		this.message = message;
+		this.completed = completed;
+		this.refused = refused;
+		this.elapsedMicros = elapsedMicros;
+		this.results = results;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public int getCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(int completed) {
+		this.completed = completed;
+	}
+
+	public int getRefused() {
+		return refused;
+	}
+
+	public void setRefused(int refused) {
+		this.refused = refused;
+	}
+
+	public long getElapsedMicros() {
+		return elapsedMicros;
+	}
+
+	public void setElapsedMicros(long elapsedMicros) {
+		this.elapsedMicros = elapsedMicros;
+	}
+
+	public List<BatchTransferItemTemplate> getResults() {
+		return results;
+	}
+
+	public void setResults(List<BatchTransferItemTemplate> results) {
+		this.results = results;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(completed, elapsedMicros, message, refused, results);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof BatchTransferResultTemplate)) {
+			return false;
+		}
+		BatchTransferResultTemplate other = (BatchTransferResultTemplate) obj;
+		return completed == other.completed && elapsedMicros == other.elapsedMicros
+				&& Objects.equals(message, other.message) && refused == other.refused
+				&& Objects.equals(results, other.results);
+	}
+
+	@Override
+	public String toString() {
+		return "BatchTransferResultTemplate [message=" + message + ", completed=" + completed + ", refused=" + refused
+				+ ", elapsedMicros=" + elapsedMicros + ", results=" + results + "]";
+	}
+}
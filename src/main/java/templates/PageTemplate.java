@@ -0,0 +1,68 @@
+package templates;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+public class PageTemplate<T> {
+	// One page of a keyset-paginated listing. Pass nextCursor back as ?after= to get the following page.
+	private List<T> items;
+	private Integer nextCursor; // Id of the last item, or null when this is the last page
+	
+	public PageTemplate() {
+		super();
+	}
+
+	public PageTemplate(List<T> items, Integer nextCursor) {
+		super();
+		this.items = items;
+		this.nextCursor = nextCursor;
+	}
+	
+	public static <T> PageTemplate<T> of(List<T> rows, int limit, ToIntFunction<T> idOf) {
+		// rows should have been fetched with limit + 1, the extra row only tells us there's another page
+		if(rows.size() > limit) {
+			List<T> items = rows.subList(0, limit);
+			return new PageTemplate<>(items, idOf.applyAsInt(items.get(limit - 1)));
+		}
+		return new PageTemplate<>(rows, null);
+	}
+
+	public List<T> getItems() {
+		return items;
+	}
+
+	public void setItems(List<T> items) {
+		this.items = items;
+	}
+
+	public Integer getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(Integer nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(items, nextCursor);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PageTemplate)) {
+			return false;
+		}
+		PageTemplate<?> other = (PageTemplate<?>) obj;
+		return Objects.equals(items, other.items) && Objects.equals(nextCursor, other.nextCursor);
+	}
+
+	@Override
+	public String toString() {
+		return "PageTemplate [items=" + items + ", nextCursor=" + nextCursor + "]";
+	}
+}
@@ -0,0 +1,79 @@
+package templates;
+
+import java.util.Objects;
+
+public class PassTimeResultTemplate {
+	// Returned from POST /accounts?passTime so the caller can see how much work the accrual did
+	private String message;
+	private int numOfMonths;
+	private int accountsAffected; // Savings accounts that had interest applied
+	private long elapsedMillis; // Time spent applying it
+	
+	public PassTimeResultTemplate() {
+		super();
+	}
+
+	public PassTimeResultTemplate(String message, int numOfMonths, int accountsAffected, long elapsedMillis) {
+		super();
+		this.message = message;
+		this.numOfMonths = numOfMonths;
+		this.accountsAffected = accountsAffected;
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public int getNumOfMonths() {
+		return numOfMonths;
+	}
+
+	public void setNumOfMonths(int numOfMonths) {
+		this.numOfMonths = numOfMonths;
+	}
+
+	public int getAccountsAffected() {
+		return accountsAffected;
+	}
+
+	public void setAccountsAffected(int accountsAffected) {
+		this.accountsAffected = accountsAffected;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(accountsAffected, elapsedMillis, message, numOfMonths);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof PassTimeResultTemplate)) {
+			return false;
+		}
+		PassTimeResultTemplate other = (PassTimeResultTemplate) obj;
+		return accountsAffected == other.accountsAffected && elapsedMillis == other.elapsedMillis
+				&& Objects.equals(message, other.message) && numOfMonths == other.numOfMonths;
+	}
+
+	@Override
+	public String toString() {
+		return "PassTimeResultTemplate [message=" + message + ", numOfMonths=" + numOfMonths + ", accountsAffected="
+				+ accountsAffected + ", elapsedMillis=" + elapsedMillis + "]";
+	}
+}
@@ -10,7 +10,7 @@ import models.StandardAccount;
 public class PostAccountTemplate{
 	private int userId;
 	int accountId;
-	double balance;
+	long balanceCents;
 	AccountStatus status;
 	AccountType type;
 
@@ -20,11 +20,11 @@ public class PostAccountTemplate{
 
 
 
-	public PostAccountTemplate(int userId, int accountId, double balance, AccountStatus status, AccountType type) {
+	public PostAccountTemplate(int userId, int accountId, long balanceCents, AccountStatus status, AccountType type) {
 		super();
 		this.userId = userId;
 		this.accountId = accountId;
-		this.balance = balance;
+		this.balanceCents = balanceCents;
 		this.status = status;
 		this.type = type;
 	}
@@ -55,14 +55,14 @@ public class PostAccountTemplate{
 
 
 
-	public double getBalance() {
-		return balance;
+	public long getBalanceCents() {
+		return balanceCents;
 	}
 
 
 
-	public void setBalance(double balance) {
-		this.balance = balance;
+	public void setBalanceCents(long balanceCents) {
+		this.balanceCents = balanceCents;
 	}
 
 
@@ -93,7 +93,7 @@ public class PostAccountTemplate{
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(accountId, balance, status, type, userId);
+		return Objects.hash(accountId, balanceCents, status, type, userId);
 	}
 
 
@@ -108,7 +108,7 @@ public class PostAccountTemplate{
 		}
 		PostAccountTemplate other = (PostAccountTemplate) obj;
 		return accountId == other.accountId
-				&& Double.doubleToLongBits(balance) == Double.doubleToLongBits(other.balance)
+				&& balanceCents == other.balanceCents
 				&& Objects.equals(status, other.status) && Objects.equals(type, other.type) && userId == other.userId;
 	}
 
@@ -116,12 +116,12 @@ public class PostAccountTemplate{
 
 	@Override
 	public String toString() {
-		return "PostAccountTemplate [userId=" + userId + ", accountId=" + accountId + ", balance=" + balance
+		return "PostAccountTemplate [userId=" + userId + ", accountId=" + accountId + ", balanceCents=" + balanceCents
 				+ ", status=" + status + ", type=" + type + "]";
 	}
 
 	public AbstractAccount toAccount() {
-		return new StandardAccount(accountId,balance,status,type);
+		return new StandardAccount(accountId,balanceCents,status,type);
 	}
 
 	
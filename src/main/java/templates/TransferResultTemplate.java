@@ -0,0 +1,116 @@
+package templates;
+
+import java.util.Objects;
+
+public class TransferResultTemplate {
+	// Returned after a completed transfer: where the money went, the balances it left behind and how long it took
+	private String message;
+	private int sourceAccountId;
+	private int targetAccountId;
+	private long amountCents;
+	private long sourceBalanceCents; // Balance of the source account after the transfer
+	private long targetBalanceCents; // Balance of the target account after the transfer
+	private long elapsedMicros; // Time the transfer took, including any retries
+	
+	public TransferResultTemplate() {
+		super();
+	}
+
+	public TransferResultTemplate(String message, int sourceAccountId, int targetAccountId, long amountCents,
+			long sourceBalanceCents, long targetBalanceCents, long elapsedMicros) {
+		super();
+		this.message = message;
+		this.sourceAccountId = sourceAccountId;
+		this.targetAccountId = targetAccountId;
+		this.amountCents = amountCents;
+		this.sourceBalanceCents = sourceBalanceCents;
+		this.targetBalanceCents = targetBalanceCents;
+		this.elapsedMicros = elapsedMicros;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public int getSourceAccountId() {
+		return sourceAccountId;
+	}
+
+	public void setSourceAccountId(int sourceAccountId) {
+		this.sourceAccountId = sourceAccountId;
+	}
+
+	public int getTargetAccountId() {
+		return targetAccountId;
+	}
+
+	public void setTargetAccountId(int targetAccountId) {
+		this.targetAccountId = targetAccountId;
+	}
+
+	public long getAmountCents() {
+		return amountCents;
+	}
+
+	public void setAmountCents(long amountCents) {
+		this.amountCents = amountCents;
+	}
+
+	public long getSourceBalanceCents() {
+		return sourceBalanceCents;
+	}
+
+	public void setSourceBalanceCents(long sourceBalanceCents) {
+		this.sourceBalanceCents = sourceBalanceCents;
+	}
+
+	public long getTargetBalanceCents() {
+		return targetBalanceCents;
+	}
+
+	public void setTargetBalanceCents(long targetBalanceCents) {
+		this.targetBalanceCents = targetBalanceCents;
+	}
+
+	public long getElapsedMicros() {
+		return elapsedMicros;
+	}
+
+	public void setElapsedMicros(long elapsedMicros) {
+		this.elapsedMicros = elapsedMicros;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(amountCents, elapsedMicros, message, sourceAccountId, sourceBalanceCents, targetAccountId,
+				targetBalanceCents);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TransferResultTemplate)) {
+			return false;
+		}
+		TransferResultTemplate other = (TransferResultTemplate) obj;
+		return amountCents == other.amountCents
+				&& elapsedMicros == other.elapsedMicros && Objects.equals(message, other.message)
+				&& sourceAccountId == other.sourceAccountId
+				&& sourceBalanceCents == other.sourceBalanceCents
+				&& targetAccountId == other.targetAccountId
+				&& targetBalanceCents == other.targetBalanceCents;
+	}
+
+	@Override
+	public String toString() {
+		return "TransferResultTemplate [message=" + message + ", sourceAccountId=" + sourceAccountId
+				+ ", targetAccountId=" + targetAccountId + ", amountCents=" + amountCents + ", sourceBalanceCents=" + sourceBalanceCents
+				+ ", targetBalanceCents=" + targetBalanceCents + ", elapsedMicros=" + elapsedMicros + "]";
+	}
+}
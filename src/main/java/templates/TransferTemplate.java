@@ -6,13 +6,13 @@ public class TransferTemplate {
 	// Used to handle Transfer input from the client
 	private int sourceAccountId; // Account ID we withdraw from
 	private int targetAccountId; // Account ID we deposit to
-	private double amount; // The amount to withdraw / deposit
+	private long amountCents; // The amount to move, in cents
 	
-	public TransferTemplate(int sourceAccountId, int targetAccountId, double amount) {
+	public TransferTemplate(int sourceAccountId, int targetAccountId, long amountCents) {
 		super();
 		this.sourceAccountId = sourceAccountId;
 		this.targetAccountId = targetAccountId;
-		this.amount = amount;
+		this.amountCents = amountCents;
 	}
 
 	public TransferTemplate() {
@@ -36,17 +36,17 @@ public class TransferTemplate {
 		this.targetAccountId = targetAccountId;
 	}
 
-	public double getAmount() {
-		return amount;
+	public long getAmountCents() {
+		return amountCents;
 	}
 
-	public void setAmount(double amount) {
-		this.amount = amount;
+	public void setAmountCents(long amountCents) {
+		this.amountCents = amountCents;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(amount, sourceAccountId, targetAccountId);
+		return Objects.hash(amountCents, sourceAccountId, targetAccountId);
 	}
 
 	@Override
@@ -58,14 +58,14 @@ public class TransferTemplate {
 			return false;
 		}
 		TransferTemplate other = (TransferTemplate) obj;
-		return Double.doubleToLongBits(amount) == Double.doubleToLongBits(other.amount)
+		return amountCents == other.amountCents
 				&& sourceAccountId == other.sourceAccountId && targetAccountId == other.targetAccountId;
 	}
 
 	@Override
 	public String toString() {
 		return "TransferTemplate [sourceAccountId=" + sourceAccountId + ", targetAccountId=" + targetAccountId
-				+ ", amount=" + amount + "]";
+				+ ", amountCents=" + amountCents + "]";
 	}
 
 	
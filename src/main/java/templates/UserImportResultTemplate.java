@@ -0,0 +1,83 @@
+package templates;
+
+import java.util.Objects;
+
+public class UserImportResultTemplate {
+	// One element of POST /user?import's response, in the same position as the user it answers
+	public static final String CREATED = "CREATED";
+	public static final String REFUSED = "REFUSED"; // The database wouldn't take it - a username that's taken, an unknown role...
+	public static final String INVALID = "INVALID"; // Couldn't be read as a user, or the JSON broke off here
+
+	private int index;
+	private String username;
+	private int userId; // Only set when CREATED
+	private String status;
+
+	public UserImportResultTemplate() {
+		super();
+	}
+
+	public UserImportResultTemplate(int index, String username, int userId, String status) {
+		super();
+		this.index = index;
+		this.username = username;
+		this.userId = userId;
+		this.status = status;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public int getUserId() {
+		return userId;
+	}
+
+	public void setUserId(int userId) {
+		this.userId = userId;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(index, status, userId, username);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof UserImportResultTemplate)) {
+			return false;
+		}
+		UserImportResultTemplate other = (UserImportResultTemplate) obj;
+		return index == other.index && Objects.equals(status, other.status) && userId == other.userId
+				&& Objects.equals(username, other.username);
+	}
+
+	@Override
+	public String toString() {
+		return "UserImportResultTemplate [index=" + index + ", username=" + username + ", userId=" + userId + ", status="
+				+ status + "]";
+	}
+}
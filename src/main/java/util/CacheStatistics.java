@@ -0,0 +1,77 @@
+package util;
+
+public class CacheStatistics {
+	// Point-in-time snapshot of ConcurrentLruCache counters. Plain getters so it can be written out with ObjectMapper.
+	private final int size; // Entries currently cached
+	private final int maxSize;
+	private final long hits;
+	private final long misses;
+	private final long evictions; // Entries dropped to make room, not counting invalidations
+	private final long expirations; // Entries dropped for outliving their time to live
+	private final long loads; // Misses that went to the database
+	private final long averageLoadMicros;
+	private final long maxLoadMicros;
+
+	public CacheStatistics(int size, int maxSize, long hits, long misses, long evictions, long expirations, long loads,
+			long averageLoadMicros, long maxLoadMicros) {
+		super();
+		this.size = size;
+		this.maxSize = maxSize;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.loads = loads;
+		this.averageLoadMicros = averageLoadMicros;
+		this.maxLoadMicros = maxLoadMicros;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public double getHitRatio() { // 0 until the first lookup
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public long getExpirations() {
+		return expirations;
+	}
+
+	public long getLoads() {
+		return loads;
+	}
+
+	public long getAverageLoadMicros() {
+		return averageLoadMicros;
+	}
+
+	public long getMaxLoadMicros() {
+		return maxLoadMicros;
+	}
+
+	@Override
+	public String toString() {
+		return "CacheStatistics [size=" + size + ", maxSize=" + maxSize + ", hits=" + hits + ", misses=" + misses
+				+ ", hitRatio=" + this.getHitRatio() + ", evictions=" + evictions + ", expirations=" + expirations + ", loads=" + loads
+				+ ", averageLoadMicros=" + averageLoadMicros + ", maxLoadMicros=" + maxLoadMicros + "]";
+	}
+
+}
@@ -0,0 +1,271 @@
+package util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class ConcurrentLruCache<K, V> {
+	/** A size-bounded map that drops the least recently used entry once full.
+	 *
+	 * The key space is split over a fixed number of segments, each an access-ordered LinkedHashMap with its
+	 * own lock, so threads working on different keys rarely wait on each other. LRU order is per segment.
+	 * Entries can also be given a time to live, counted from when they were stored.
+	 *
+	 * Loads (get with a loader) run outside the lock. Each segment counts its writes, and a loaded value
+	 * is only stored if no write touched the segment while the load was running - otherwise a slow load
+	 * could put back a row that a concurrent update had already replaced.
+	 *
+	 * Write-through callers bracket their database write with beginWrite / endWrite. The written value
+	 * is only cached if no other write to the same key overlapped it; if two did, nobody can tell which
+	 * committed last, so the entry is dropped and the next read loads it fresh.
+	 * */
+
+	private static final int SEGMENTS = 16; // Power of two
+
+	private final Segment<K, V>[] segments;
+	private final int maxSize;
+	private final long timeToLiveNanos; // 0 for no expiry
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+	private final AtomicLong maxLoadNanos = new AtomicLong();
+
+	public ConcurrentLruCache(int maxSize) {
+		this(maxSize, 0);
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"}) // Generic arrays can only be created raw
+	public ConcurrentLruCache(int maxSize, long timeToLiveMillis) {
+		if(maxSize < SEGMENTS) throw new IllegalArgumentException("maxSize must be at least " + SEGMENTS);
+		this.maxSize = maxSize;
+		this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeToLiveMillis));
+		this.segments = new Segment[SEGMENTS];
+		int perSegment = (maxSize + SEGMENTS - 1) / SEGMENTS;
+		for(int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment<>(perSegment, evictions);
+		}
+	}
+
+	public V get(K key) { // Cached value or null, counted as a hit or a miss
+		Segment<K, V> s = this.segmentFor(key);
+		V value;
+		synchronized(s) {
+			value = this.lookup(s, key);
+		}
+		if(value == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	public V get(K key, Function<K, V> loader) { // Cached value, or loads and caches it. Null results aren't cached.
+		Segment<K, V> s = this.segmentFor(key);
+		long writes;
+		synchronized(s) {
+			V value = this.lookup(s, key);
+			if(value != null) {
+				hits.increment();
+				return value;
+			}
+			writes = s.writes;
+		}
+		misses.increment();
+
+		V loaded = this.load(key, loader); // Database round trip, so no lock held
+
+		if(loaded != null) {
+			synchronized(s) {
+				if(s.writes == writes) this.store(s, key, loaded); // Nobody wrote meanwhile, the loaded value is current
+			}
+		}
+		return loaded;
+	}
+
+	public <L> V load(L lookupKey, Function<L, V> loader) { // Runs a loader and records its latency, without caching the result
+		long start = System.nanoTime();
+		V loaded = loader.apply(lookupKey);
+		long elapsed = System.nanoTime() - start;
+		loads.increment();
+		loadNanos.add(elapsed);
+		maxLoadNanos.accumulateAndGet(elapsed, Math::max);
+		return loaded;
+	}
+
+	public long writeStamp() {
+		// Total writes over all segments. For values found by something other than their key (e.g. a user
+		// loaded by username): take a stamp before the load, then store the result with putIfUnchanged.
+		long sum = 0;
+		for(Segment<K, V> s : segments) {
+			sum += s.writes;
+		}
+		return sum;
+	}
+
+	public boolean putIfUnchanged(K key, V value, long stamp) { // Stores the value only if nothing was written since the stamp
+		Segment<K, V> s = this.segmentFor(key);
+		synchronized(s) {
+			if(this.writeStamp() != stamp) return false;
+			this.store(s, key, value);
+			return true;
+		}
+	}
+
+	public void put(K key, V value) {
+		Segment<K, V> s = this.segmentFor(key);
+		synchronized(s) {
+			s.writes++;
+			this.store(s, key, value);
+		}
+	}
+
+	public V putIfAbsent(K key, V value) { // Stores the value unless the key holds a live one already, which is returned instead
+		Segment<K, V> s = this.segmentFor(key);
+		synchronized(s) {
+			V current = this.lookup(s, key);
+			if(current != null) return current;
+			s.writes++;
+			this.store(s, key, value);
+			return null;
+		}
+	}
+
+	public void beginWrite(K key) { // Call before writing the key's row, and always pair with endWrite
+		Segment<K, V> s = this.segmentFor(key);
+		synchronized(s) {
+			s.writes++;
+			long[] p = s.pending.computeIfAbsent(key, k -> new long[2]); // {writes in flight, overlapped}
+			if(p[0] > 0) p[1] = 1; // Someone else is writing this key too
+			p[0]++;
+		}
+	}
+
+	public void endWrite(K key, Function<V, V> update) {
+		// Call after the write, successful or not. 'update' maps the cached value (or null) to the new one,
+		// returning null to drop it. It's only applied if no other write to the key overlapped this one.
+		Segment<K, V> s = this.segmentFor(key);
+		synchronized(s) {
+			s.writes++;
+			long[] p = s.pending.get(key);
+			boolean alone = p != null && p[1] == 0;
+			if(p != null && --p[0] == 0) s.pending.remove(key);
+
+			V updated = alone ? update.apply(this.lookup(s, key)) : null;
+			if(updated == null) {
+				s.map.remove(key);
+			} else {
+				this.store(s, key, updated);
+			}
+		}
+	}
+
+	public void invalidate(K key) {
+		Segment<K, V> s = this.segmentFor(key);
+		synchronized(s) {
+			s.writes++;
+			s.map.remove(key);
+		}
+	}
+
+	public void invalidateIf(Predicate<V> condition) { // Walks every entry, for changes made by set-based statements
+		for(Segment<K, V> s : segments) {
+			synchronized(s) {
+				s.writes++;
+				Iterator<Node<V>> it = s.map.values().iterator();
+				while(it.hasNext()) {
+					if(condition.test(it.next().value)) it.remove();
+				}
+			}
+		}
+	}
+
+	public void invalidateAll() {
+		for(Segment<K, V> s : segments) {
+			synchronized(s) {
+				s.writes++;
+				s.map.clear();
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for(Segment<K, V> s : segments) {
+			synchronized(s) {
+				size += s.map.size();
+			}
+		}
+		return size;
+	}
+
+	public CacheStatistics getStatistics() {
+		long loadCount = loads.sum();
+		return new CacheStatistics(this.size(), maxSize, hits.sum(), misses.sum(), evictions.sum(), expirations.sum(),
+				loadCount, loadCount == 0 ? 0 : loadNanos.sum() / loadCount / 1000, maxLoadNanos.get() / 1000);
+	}
+
+	private V lookup(Segment<K, V> s, K key) { // Caller holds the segment lock
+		Node<V> node = s.map.get(key);
+		if(node == null) return null;
+		if(timeToLiveNanos > 0 && System.nanoTime() - node.storedAt > timeToLiveNanos) {
+			s.map.remove(key); // Expired entries are dropped when they're next looked at
+			expirations.increment();
+			return null;
+		}
+		return node.value;
+	}
+
+	private void store(Segment<K, V> s, K key, V value) { // Caller holds the segment lock
+		s.map.put(key, new Node<>(value, timeToLiveNanos > 0 ? System.nanoTime() : 0));
+	}
+
+	private Segment<K, V> segmentFor(K key) {
+		int h = key.hashCode() * 0x9E3779B9; // Spread sequential ids over the segments
+		return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	@Override
+	public String toString() {
+		return "ConcurrentLruCache " + this.getStatistics();
+	}
+
+	private static final class Node<V> {
+		final V value;
+		final long storedAt; // System.nanoTime(), only set when entries expire
+
+		Node(V value, long storedAt) {
+			this.value = value;
+			this.storedAt = storedAt;
+		}
+	}
+
+	private static final class Segment<K, V> {
+		final LinkedHashMap<K, Node<V>> map;
+		final Map<K, long[]> pending = new HashMap<>(); // Keys with writes in flight
+		volatile long writes; // Only changed under the segment's monitor, volatile so writeStamp can sum it without locking
+
+		Segment(int capacity, LongAdder evictions) {
+			this.map = new LinkedHashMap<K, Node<V>>(16, 0.75f, true) { // Access order, so the eldest entry is the least recently used
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<K, Node<V>> eldest) {
+					if(size() <= capacity) return false;
+					evictions.increment();
+					return true;
+				}
+			};
+		}
+	}
+}
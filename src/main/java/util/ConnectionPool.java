@@ -0,0 +1,600 @@
+package util;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+public class ConnectionPool implements DataSource {
+	/** A bounded pool of physical JDBC connections.
+	 *
+	 * Callers borrow a connection with getConnection() and give it back by calling close() on it,
+	 * which is exactly what the try-with-resources blocks in our DAOs already do.
+	 * The Connection handed out is a thin proxy: close() returns the physical connection to the pool
+	 * (closing any statements opened through it) instead of hanging up on the database.
+	 *
+	 * Each physical connection also keeps an LRU cache of PreparedStatements keyed by SQL text,
+	 * so the same query prepared again on a later borrow skips the parse/prepare round trip.
+	 * */
+
+	private final String url;
+	private final String username;
+	private final String password;
+
+	private final int minSize; // Connections we keep warm even when idle
+	private final int maxSize; // Hard upper bound on physical connections
+	private final long borrowTimeoutMillis; // How long a caller waits for a free connection before giving up
+	private final long idleTimeoutMillis; // Idle connections above minSize are closed after this long
+	private final long leakThresholdMillis; // Borrowed longer than this is reported as a possible leak (0 disables)
+	private final boolean leakStackTraces; // Record where each connection was borrowed, for the leak report. Costs a stack walk per borrow
+	private final int validationTimeoutSeconds; // Passed to Connection.isValid on borrow
+	private final int statementCacheSize; // Prepared statements kept per connection (0 disables caching)
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final ArrayDeque<PooledConnection> idle = new ArrayDeque<>(); // LIFO so the warmest connection is reused first
+	private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+	private int total = 0; // Physical connections open or being opened, guarded by lock
+	private int waiters = 0; // Threads blocked in getConnection(), guarded by lock
+	private boolean shutdown = false;
+
+	// Statistics
+	private final LongAdder borrowCount = new LongAdder();
+	private final LongAdder borrowNanos = new LongAdder();
+	private final AtomicLong maxBorrowNanos = new AtomicLong();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder created = new LongAdder();
+	private final LongAdder destroyed = new LongAdder();
+	private final LongAdder failedValidations = new LongAdder();
+	private final LongAdder leaksDetected = new LongAdder();
+	private final LongAdder statementHits = new LongAdder();
+	private final LongAdder statementMisses = new LongAdder();
+	private final LongAdder statementEvictions = new LongAdder();
+
+	private final ScheduledExecutorService housekeeper;
+
+	public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+			long borrowTimeoutMillis, long idleTimeoutMillis, long leakThresholdMillis, boolean leakStackTraces,
+			int validationTimeoutSeconds, int statementCacheSize) {
+		super();
+		if(minSize < 0 || maxSize < 1 || minSize > maxSize) {
+			throw new IllegalArgumentException("Pool sizes must satisfy 0 <= min <= max and max >= 1");
+		}
+		this.url = url;
+		this.username = username;
+		this.password = password;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.leakThresholdMillis = leakThresholdMillis;
+		this.leakStackTraces = leakStackTraces;
+		this.validationTimeoutSeconds = validationTimeoutSeconds;
+		this.statementCacheSize = statementCacheSize;
+
+		this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-housekeeper");
+			t.setDaemon(true); // Never keep the servlet container from shutting down
+			return t;
+		});
+		long period = Math.max(1000, Math.min(idleTimeoutMillis, 30000));
+		housekeeper.scheduleWithFixedDelay(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+		while(true) {
+			PooledConnection pc = null;
+			boolean create = false;
+
+			lock.lock();
+			try {
+				while(true) {
+					if(shutdown) throw new SQLException("Connection pool has been shut down");
+
+					pc = idle.pollFirst();
+					if(pc != null) break; // Reuse a warm connection
+
+					if(total < maxSize) { // Room to grow, reserve the slot and open outside the lock
+						total++;
+						create = true;
+						break;
+					}
+
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0) {
+						timeouts.increment();
+						throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a database connection");
+					}
+					waiters++;
+					try {
+						available.awaitNanos(remaining);
+					} catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a database connection", e);
+					} finally {
+						waiters--;
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			if(create) {
+				pc = this.open(); // Releases the reserved slot itself if opening fails
+			} else if(!this.validate(pc)) {
+				failedValidations.increment();
+				this.destroy(pc);
+				continue; // Stale connection, try again with what's left of the deadline
+			}
+
+			long elapsed = System.nanoTime() - start;
+			borrowCount.increment();
+			borrowNanos.add(elapsed);
+			maxBorrowNanos.accumulateAndGet(elapsed, Math::max);
+
+			return pc.lease(this);
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		try {
+			Connection physical = DriverManager.getConnection(url, username, password);
+			created.increment();
+			return new PooledConnection(physical, this);
+		} catch(SQLException | RuntimeException e) {
+			this.releaseSlot();
+			throw e;
+		}
+	}
+
+	private boolean validate(PooledConnection pc) {
+		try {
+			return !pc.physical.isClosed() && pc.physical.isValid(validationTimeoutSeconds);
+		} catch(SQLException e) {
+			return false;
+		}
+	}
+
+	void giveBack(PooledConnection pc) { // Called by the proxy when a borrower closes its connection
+		borrowed.remove(pc);
+		boolean healthy;
+		try {
+			if(!pc.physical.getAutoCommit()) {
+				pc.physical.rollback(); // Never hand uncommitted work to the next borrower
+				pc.physical.setAutoCommit(true);
+			}
+			healthy = !pc.physical.isClosed();
+		} catch(SQLException e) {
+			healthy = false;
+		}
+
+		if(!healthy) {
+			this.destroy(pc);
+			return;
+		}
+
+		lock.lock();
+		try {
+			if(shutdown) {
+				total--;
+			} else {
+				pc.lastReturned = System.nanoTime();
+				idle.offerFirst(pc);
+				available.signal();
+				return;
+			}
+		} finally {
+			lock.unlock();
+		}
+		this.closeQuietly(pc); // Pool shut down while it was borrowed
+	}
+
+	private void destroy(PooledConnection pc) {
+		this.closeQuietly(pc);
+		this.releaseSlot();
+	}
+
+	private void releaseSlot() {
+		lock.lock();
+		try {
+			total--;
+			available.signal(); // A waiter may now open a fresh connection
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeQuietly(PooledConnection pc) {
+		destroyed.increment();
+		try {
+			pc.physical.close();
+		} catch(SQLException e) {
+			// Nothing useful to do, the connection is being thrown away anyway
+		}
+	}
+
+	private void housekeep() {
+		// Evict connections that have been idle too long, then top back up to minSize
+		long now = System.nanoTime();
+		long idleNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+		List<PooledConnection> evicted = new ArrayList<>();
+		int missing;
+
+		lock.lock();
+		try {
+			if(shutdown) return;
+			Iterator<PooledConnection> it = idle.descendingIterator(); // Oldest returned first
+			while(it.hasNext() && total - evicted.size() > minSize) {
+				PooledConnection pc = it.next();
+				if(now - pc.lastReturned > idleNanos) {
+					it.remove();
+					evicted.add(pc);
+				}
+			}
+			total -= evicted.size();
+			missing = minSize - total;
+			if(missing > 0) total += missing; // Reserve the slots we are about to fill
+		} finally {
+			lock.unlock();
+		}
+
+		for(PooledConnection pc : evicted) {
+			this.closeQuietly(pc);
+		}
+
+		for(int i = 0; i < missing; i++) {
+			try {
+				PooledConnection pc = this.open();
+				this.giveBack(pc);
+			} catch(SQLException e) {
+				for(int j = i + 1; j < missing; j++) this.releaseSlot(); // Database unreachable, try again next round
+				break;
+			}
+		}
+
+		if(leakThresholdMillis > 0) {
+			long leakNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+			for(PooledConnection pc : borrowed) {
+				if(!pc.leakReported && now - pc.borrowedAt > leakNanos) {
+					pc.leakReported = true;
+					leaksDetected.increment();
+					String message = "Connection borrowed by thread " + pc.borrowThread + " "
+							+ TimeUnit.NANOSECONDS.toMillis(now - pc.borrowedAt) + "ms ago has not been returned - possible leak";
+					StackTraceElement[] where = pc.borrowTrace;
+					if(where == null) {
+						System.err.println(message + ". Run with -Drocp.pool.leakStackTraces=true to see where it was borrowed");
+					} else {
+						Exception trace = new Exception(message);
+						trace.setStackTrace(where);
+						trace.printStackTrace();
+					}
+				}
+			}
+		}
+	}
+
+	public PoolStatistics getStatistics() {
+		lock.lock();
+		try {
+			long count = borrowCount.sum();
+			return new PoolStatistics(total - idle.size(), idle.size(), total, waiters, maxSize,
+					count, count == 0 ? 0 : borrowNanos.sum() / count / 1000, maxBorrowNanos.get() / 1000,
+					timeouts.sum(), created.sum(), destroyed.sum(), failedValidations.sum(), leaksDetected.sum(),
+					statementHits.sum(), statementMisses.sum(), statementEvictions.sum());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void shutdown() {
+		List<PooledConnection> toClose;
+		lock.lock();
+		try {
+			shutdown = true;
+			toClose = new ArrayList<>(idle);
+			total -= idle.size();
+			idle.clear();
+			available.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		housekeeper.shutdownNow();
+		for(PooledConnection pc : toClose) {
+			this.closeQuietly(pc);
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("The pool only hands out connections for its configured user");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		// Not used, the pool reports through its statistics
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		DriverManager.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return DriverManager.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) return iface.cast(this);
+		throw new SQLException("Not a wrapper for " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	static class PooledConnection {
+		// One physical connection plus the bookkeeping the pool needs about it
+		final Connection physical;
+		final Map<String, CachedStatement> statementCache;
+		volatile long lastReturned = System.nanoTime();
+		volatile long borrowedAt;
+		volatile String borrowThread;
+		volatile StackTraceElement[] borrowTrace; // Only when the pool records them
+		volatile boolean leakReported;
+
+		PooledConnection(Connection physical, ConnectionPool pool) {
+			this.physical = physical;
+			// Access-ordered LinkedHashMap is our LRU. Only the current borrower touches it, so no locking is needed.
+			this.statementCache = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+					if(size() <= pool.statementCacheSize) return false;
+					pool.statementEvictions.increment();
+					eldest.getValue().evict();
+					return true;
+				}
+			};
+		}
+
+		Connection lease(ConnectionPool pool) {
+			borrowedAt = System.nanoTime();
+			leakReported = false;
+			borrowThread = Thread.currentThread().getName();
+			borrowTrace = pool.leakStackTraces && pool.leakThresholdMillis > 0 ? Thread.currentThread().getStackTrace() : null;
+			pool.borrowed.add(this);
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] {Connection.class}, new Lease(pool, this));
+		}
+	}
+
+	private static class CachedStatement implements InvocationHandler {
+		// A PreparedStatement that outlives the borrow it was prepared in. close() only ends the caller's use of it.
+		private final PreparedStatement physical;
+		private final int defaultFetchSize; // As the driver prepared it, put back on every check in
+		private final int defaultMaxRows;
+		private final int defaultQueryTimeout;
+		private PreparedStatement handle; // What callers see, so close() comes back through invoke()
+		private ResultSet lastResult;
+		private boolean inUse = false;
+		private boolean evicted = false;
+
+		CachedStatement(PreparedStatement physical) throws SQLException {
+			this.physical = physical;
+			this.defaultFetchSize = physical.getFetchSize();
+			this.defaultMaxRows = physical.getMaxRows();
+			this.defaultQueryTimeout = physical.getQueryTimeout();
+		}
+
+		PreparedStatement checkOut() {
+			inUse = true;
+			if(handle == null) {
+				handle = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+						new Class<?>[] {PreparedStatement.class}, this);
+			}
+			return handle;
+		}
+
+		void checkIn() {
+			inUse = false;
+			if(lastResult != null) {
+				try {
+					lastResult.close(); // Frees the cursor, the statement itself stays prepared
+				} catch(SQLException e) {
+					// Cursor already gone
+				}
+				lastResult = null;
+			}
+			if(!evicted && !this.reset()) evicted = true; // Can't vouch for its state, so nobody gets it again
+			if(evicted) this.closePhysical();
+		}
+
+		private boolean reset() {
+			// Binds, a batch the last borrower never executed and any settings it changed all live on the physical
+			// statement. Left there, the next borrower's executeBatch() would run someone else's rows.
+			try {
+				physical.clearBatch();
+				physical.clearParameters();
+				if(physical.getFetchSize() != defaultFetchSize) physical.setFetchSize(defaultFetchSize);
+				if(physical.getMaxRows() != defaultMaxRows) physical.setMaxRows(defaultMaxRows);
+				if(physical.getQueryTimeout() != defaultQueryTimeout) physical.setQueryTimeout(defaultQueryTimeout);
+				return true;
+			} catch(SQLException e) {
+				return false;
+			}
+		}
+
+		void evict() {
+			evicted = true;
+			if(!inUse) this.closePhysical(); // Otherwise closed when the caller is done with it
+		}
+
+		private void closePhysical() {
+			try {
+				physical.close();
+			} catch(SQLException e) {
+				// Nothing to do, it's being thrown away
+			}
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch(method.getName()) {
+			case "close":
+				if(inUse) this.checkIn();
+				return null;
+			case "isClosed":
+				return !inUse;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			}
+
+			if(!inUse) throw new SQLException("Statement has already been closed");
+
+			try {
+				Object result = method.invoke(physical, args);
+				if(result instanceof ResultSet) lastResult = (ResultSet) result;
+				return result;
+			} catch(InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private static class Lease implements InvocationHandler {
+		// A single borrow of a PooledConnection. A new Lease is made per borrow so a stale handle can't touch the next borrower's work.
+		private final ConnectionPool pool;
+		private final PooledConnection pc;
+		private final List<Statement> statements = new ArrayList<>(); // Closed for the caller when the connection goes back
+		private boolean closed = false;
+
+		Lease(ConnectionPool pool, PooledConnection pc) {
+			this.pool = pool;
+			this.pc = pc;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch(method.getName()) {
+			case "close":
+				if(!closed) {
+					closed = true;
+					for(Statement s : statements) {
+						try {
+							s.close();
+						} catch(SQLException e) {
+							// Already broken, the connection is validated before reuse anyway
+						}
+					}
+					pool.giveBack(pc);
+				}
+				return null;
+			case "isClosed":
+				return closed;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled" + pc.physical.toString();
+			}
+
+			if(closed) throw new SQLException("Connection has already been returned to the pool");
+
+			if(pool.statementCacheSize > 0 && method.getName().equals("prepareStatement")) {
+				if(args.length == 1) return this.prepareCached((String) args[0], null);
+				if(args.length == 2 && args[1] instanceof String[]) return this.prepareCached((String) args[0], (String[]) args[1]); // Returning columns
+			}
+
+			try {
+				Object result = method.invoke(pc.physical, args);
+				if(result instanceof Statement) statements.add((Statement) result);
+				return result;
+			} catch(InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		private PreparedStatement prepareCached(String sql, String[] returning) throws SQLException {
+			// Statements that return generated columns are different statements to the driver, so they get their own key
+			String key = (returning == null) ? sql : sql + '\0' + String.join(",", returning);
+			CachedStatement cached = pc.statementCache.get(key);
+			if(cached != null && cached.evicted) { // Its reset failed when it was last closed
+				pc.statementCache.remove(key);
+				cached = null;
+			}
+			if(cached != null && !cached.inUse) {
+				pool.statementHits.increment();
+			} else if(cached != null) {
+				// Same SQL already open in this borrow, hand out a one-off statement rather than share it
+				pool.statementMisses.increment();
+				PreparedStatement ps = this.prepare(sql, returning);
+				statements.add(ps);
+				return ps;
+			} else {
+				pool.statementMisses.increment();
+				PreparedStatement ps = this.prepare(sql, returning);
+				try {
+					cached = new CachedStatement(ps);
+				} catch(SQLException e) {
+					ps.close();
+					throw e;
+				}
+				pc.statementCache.put(key, cached);
+			}
+			PreparedStatement handle = cached.checkOut();
+			statements.add(handle);
+			return handle;
+		}
+
+		private PreparedStatement prepare(String sql, String[] returning) throws SQLException {
+			return (returning == null) ? pc.physical.prepareStatement(sql) : pc.physical.prepareStatement(sql, returning);
+		}
+	}
+}
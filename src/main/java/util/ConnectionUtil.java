@@ -1,42 +1,62 @@
 package util;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 public class ConnectionUtil {
-	private static Connection conn = null;
-	
+	private static volatile boolean initialized = false;
+
 	// Prevents us from EVER instantiating this class. Just used for static calls to the method below
 	private ConnectionUtil() {
 		super();
 	}
-	
-	public static Connection getConnection() {
-		/**We will be using DriverManager to get out connection to the DB.
-		 * 
+
+	private static class PoolHolder { // Lazily builds the pool the first time a DAO asks for a connection
+		/**We will be using a pool of DriverManager connections to the DB.
+		 *
 		 * We provide it the credential information:
 		 * Connection String = "jdbc:oracle:thin:@ENDPOINT:PORT:SID"
 		 * So ours would be like:
 		 * jdbc:oracle:thin:@ENDPOINT:1521:ORCL
+		 *
+		 * Every setting can be overridden with a -D system property, e.g. -Drocp.pool.maxSize=20
 		 * */
-		
-		try {
-			Class.forName("oracle.jdbc.driver.OracleDriver");
-			
+		static final ConnectionPool POOL = create();
+
+		private static ConnectionPool create() {
+			initialized = true;
 			try {
-				conn = DriverManager.getConnection(
-						"jdbc:oracle:thin:@trainingdb.c3ynkxcfuk8l.us-east-2.rds.amazonaws.com:1521:ORCL", 
-						"root", 
-						"password"); // <-- HARD CODED PASSWORD
-						// Exceedingly unsafe, you can't push to github. Need environment variables to hide it basically.
-			} catch(SQLException e) {
-				e.printStackTrace();
+				Class.forName("oracle.jdbc.driver.OracleDriver"); // Only needs to happen once, not per connection
+			} catch(ClassNotFoundException e) {
+				System.out.println("Did not find Oracle JDBC Driver class!");
 			}
-		} catch(ClassNotFoundException e) {
-			System.out.println("Did not find Oracle JDBC Driver class!");
+
+			return new ConnectionPool(
+					System.getProperty("rocp.db.url", "jdbc:oracle:thin:@trainingdb.c3ynkxcfuk8l.us-east-2.rds.amazonaws.com:1521:ORCL"),
+					System.getProperty("rocp.db.username", "root"),
+					System.getProperty("rocp.db.password", "password"), // <-- HARD CODED PASSWORD default
+					// Exceedingly unsafe, you can't push to github. Need environment variables to hide it basically.
+					Integer.getInteger("rocp.pool.minSize", 2),
+					Integer.getInteger("rocp.pool.maxSize", 10),
+					Long.getLong("rocp.pool.borrowTimeoutMillis", 5000L),
+					Long.getLong("rocp.pool.idleTimeoutMillis", 600000L),
+					Long.getLong("rocp.pool.leakThresholdMillis", 60000L),
+					Boolean.getBoolean("rocp.pool.leakStackTraces"), // Off: a stack walk on every borrow is too dear to leave on
+					Integer.getInteger("rocp.pool.validationTimeoutSeconds", 2),
+					Integer.getInteger("rocp.pool.statementCacheSize", 50));
 		}
-		
-		return conn;
+	}
+
+	public static Connection getConnection() throws SQLException {
+		// Borrows a warm connection from the pool. Closing it (try-with-resources) hands it back instead of disconnecting.
+		return PoolHolder.POOL.getConnection();
+	}
+
+	public static PoolStatistics getPoolStatistics() {
+		return PoolHolder.POOL.getStatistics();
+	}
+
+	public static void shutdown() {
+		if(initialized) PoolHolder.POOL.shutdown(); // Don't build a pool just to close it (e.g. on the in-memory backend)
 	}
 }
@@ -0,0 +1,114 @@
+package util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+public class IdempotencyStore {
+	/** Remembers the response to each Idempotency-Key for a while, so a client retrying a POST gets the
+	 * original answer back instead of moving the money twice.
+	 *
+	 * claim() is atomic per key: the first request gets an empty Claim and goes ahead, and a request arriving
+	 * while it's still running is told so (IN_FLIGHT) rather than running in parallel. Once the first request
+	 * succeeds, complete() stores its response, and later retries get a REPLAY of it until it expires.
+	 * A request that fails releases its claim instead - nothing was moved, so running the retry is safe.
+	 *
+	 * Keys are only compared together with the request body, so reusing a key for a different request is
+	 * refused (MISMATCH) rather than answered with the wrong response.
+	 *
+	 * Finished responses live in a ConcurrentLruCache, bounded in size and with a time to live. A key that
+	 * falls out of it - expired, or evicted under pressure - is treated as never seen. Claims whose request is
+	 * still running are kept apart, in a map that is never evicted: losing one would let a retry run the
+	 * request a second time. There is at most one per request being served, so it stays small.
+	 * */
+
+	public enum Outcome { NEW, REPLAY, IN_FLIGHT, MISMATCH }
+
+	private final ConcurrentLruCache<String, Entry> entries; // Finished requests
+	private final ConcurrentHashMap<String, Entry> inFlight = new ConcurrentHashMap<>(); // Claimed, not finished
+
+	public IdempotencyStore(int maxSize, long timeToLiveMillis) {
+		this.entries = new ConcurrentLruCache<>(maxSize, timeToLiveMillis);
+	}
+
+	public Claim claim(String key, String request) {
+		Entry done = entries.get(key);
+		if(done != null) return this.answer(key, done, request);
+
+		Entry claimed = new Entry(request, 0, null);
+		Entry existing = inFlight.putIfAbsent(key, claimed);
+		if(existing != null) return this.answer(key, existing, request);
+
+		// A request holding the key may have finished between the lookup above and the claim. complete() stores
+		// the response before it drops its claim, so it's visible now
+		done = entries.get(key);
+		if(done != null) {
+			inFlight.remove(key, claimed);
+			return this.answer(key, done, request);
+		}
+		return new Claim(key, claimed, Outcome.NEW);
+	}
+
+	public int getInFlight() {
+		return inFlight.size();
+	}
+
+	public CacheStatistics getStatistics() {
+		return entries.getStatistics();
+	}
+
+	@Override
+	public String toString() {
+		return "IdempotencyStore " + entries.getStatistics() + ", " + inFlight.size() + " in flight";
+	}
+
+	private Claim answer(String key, Entry existing, String request) {
+		if(!existing.request.equals(request)) return new Claim(key, existing, Outcome.MISMATCH);
+		return new Claim(key, existing, existing.response == null ? Outcome.IN_FLIGHT : Outcome.REPLAY);
+	}
+
+	private static final class Entry {
+		final String request; // Body of the request that claimed the key
+		final int status;
+		final byte[] response; // The JSON body as sent, null while the request is still running
+
+		Entry(String request, int status, byte[] response) {
+			this.request = request;
+			this.status = status;
+			this.response = response;
+		}
+	}
+
+	public final class Claim {
+		private final String key;
+		private final Entry entry;
+		private final Outcome outcome;
+
+		private Claim(String key, Entry entry, Outcome outcome) {
+			this.key = key;
+			this.entry = entry;
+			this.outcome = outcome;
+		}
+
+		public Outcome getOutcome() {
+			return outcome;
+		}
+
+		public int getStatus() { // The stored response, for a REPLAY
+			return entry.status;
+		}
+
+		public byte[] getResponse() {
+			return entry.response;
+		}
+
+		public void complete(int status, byte[] response) { // Only for a NEW claim, once its request has gone through
+			// Only while the claim is still this one's - a completed or released claim leaves the stored answer alone
+			if(outcome != Outcome.NEW || inFlight.get(key) != entry) return;
+			entries.put(key, new Entry(entry.request, status, response)); // Before the claim goes, see claim()
+			inFlight.remove(key, entry);
+		}
+
+		public void release() { // Only for a NEW claim whose request failed, so a retry can run it again
+			if(outcome == Outcome.NEW) inFlight.remove(key, entry);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package util;
+
+import java.util.Arrays;
+
+public class IntMultimap {
+	/** Maps an int key to a small set of int values, without boxing anything.
+	 *
+	 * Keys live in an open-addressing (linear probing) table. Each key's values are a sorted int[]
+	 * that is replaced, never modified, on every change - so an array handed out by get() is a stable
+	 * snapshot, and contains() is a binary search.
+	 *
+	 * Not thread safe on its own: callers serialize writers and validate readers (see OwnershipIndex).
+	 * Keys must be positive, 0 marks an empty slot. Database ids start at 1, so that's never a real key.
+	 * */
+
+	private static final int[] NONE = new int[0];
+	private static final int EMPTY = 0;
+
+	private int[] keys;
+	private int[][] values;
+	private int size; // Number of keys
+	private int valueCount; // Number of key/value pairs
+
+	public IntMultimap(int expectedKeys) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedKeys * 2 - 1)) << 1; // Power of two, at most half full
+		this.keys = new int[capacity];
+		this.values = new int[capacity][];
+	}
+
+	public int[] get(int key) { // Values for the key, sorted. Never null, and never modified afterwards.
+		int[] k = keys;
+		int[][] v = values;
+		if(k.length != v.length) return NONE; // Caught mid-resize by an optimistic reader, who will retry
+		int mask = k.length - 1;
+		for(int i = mix(key) & mask; ; i = (i + 1) & mask) {
+			int found = k[i];
+			if(found == key) {
+				int[] result = v[i];
+				return result == null ? NONE : result;
+			}
+			if(found == EMPTY) return NONE;
+		}
+	}
+
+	public boolean contains(int key, int value) {
+		return Arrays.binarySearch(this.get(key), value) >= 0;
+	}
+
+	public boolean add(int key, int value) {
+		checkKey(key);
+		int slot = this.slotFor(key);
+		int[] current = keys[slot] == key ? values[slot] : NONE;
+		int pos = Arrays.binarySearch(current, value);
+		if(pos >= 0) return false; // Already there
+
+		int insertAt = -pos - 1;
+		int[] updated = new int[current.length + 1];
+		System.arraycopy(current, 0, updated, 0, insertAt);
+		updated[insertAt] = value;
+		System.arraycopy(current, insertAt, updated, insertAt + 1, current.length - insertAt);
+
+		if(keys[slot] != key) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = updated; // Publish the new array only once it's complete
+		valueCount++;
+
+		if(size * 2 > keys.length) this.resize(keys.length * 2);
+		return true;
+	}
+
+	public boolean remove(int key, int value) {
+		int slot = this.find(key);
+		if(slot < 0) return false;
+		int[] current = values[slot];
+		int pos = Arrays.binarySearch(current, value);
+		if(pos < 0) return false;
+
+		if(current.length == 1) {
+			this.removeSlot(slot);
+		} else {
+			int[] updated = new int[current.length - 1];
+			System.arraycopy(current, 0, updated, 0, pos);
+			System.arraycopy(current, pos + 1, updated, pos, current.length - pos - 1);
+			values[slot] = updated;
+		}
+		valueCount--;
+		return true;
+	}
+
+	public int[] removeKey(int key) { // Drops the key and returns the values it had
+		int slot = this.find(key);
+		if(slot < 0) return NONE;
+		int[] removed = values[slot];
+		valueCount -= removed.length;
+		this.removeSlot(slot);
+		return removed;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, null);
+		size = 0;
+		valueCount = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int valueCount() {
+		return valueCount;
+	}
+
+	public long footprintBytes() {
+		// Rough retained size: the two tables plus every value array (16 byte header + 4 per int, 8 byte aligned)
+		long bytes = 16 + 4L * keys.length + 16 + 8L * values.length;
+		for(int[] v : values) {
+			if(v != null) bytes += (16 + 4L * v.length + 7) & ~7L;
+		}
+		return bytes;
+	}
+
+	private int find(int key) {
+		int mask = keys.length - 1;
+		for(int i = mix(key) & mask; ; i = (i + 1) & mask) {
+			if(keys[i] == key) return i;
+			if(keys[i] == EMPTY) return -1;
+		}
+	}
+
+	private int slotFor(int key) { // The key's slot, or the empty slot it would go in
+		int mask = keys.length - 1;
+		int i = mix(key) & mask;
+		while(keys[i] != key && keys[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void removeSlot(int slot) {
+		// Backward-shift deletion: pull later entries of the probe run back so lookups never hit a false gap
+		int mask = keys.length - 1;
+		int gap = slot;
+		for(int i = (slot + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+			int home = mix(keys[i]) & mask;
+			if(((i - home) & mask) >= ((i - gap) & mask)) { // Entry may move back into the gap
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				gap = i;
+			}
+		}
+		keys[gap] = EMPTY;
+		values[gap] = null;
+		size--;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[][] oldValues = values;
+		int[] newKeys = new int[capacity];
+		int[][] newValues = new int[capacity][];
+		int mask = capacity - 1;
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldKeys[j] == EMPTY) continue;
+			int i = mix(oldKeys[j]) & mask;
+			while(newKeys[i] != EMPTY) i = (i + 1) & mask;
+			newKeys[i] = oldKeys[j];
+			newValues[i] = oldValues[j];
+		}
+		values = newValues;
+		keys = newKeys;
+	}
+
+	private static int mix(int key) { // Spread sequential ids across the table
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static void checkKey(int key) {
+		if(key <= 0) throw new IllegalArgumentException("Keys must be positive ids, got " + key);
+	}
+}
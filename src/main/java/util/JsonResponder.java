@@ -0,0 +1,127 @@
+package util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import models.AbstractAccount;
+import models.AbstractUser;
+import templates.MessageTemplate;
+import templates.PageTemplate;
+
+public class JsonResponder {
+	/** Writes JSON response bodies as UTF-8 bytes straight to the ServletOutputStream.
+	 *
+	 * Jackson encodes into the response buffer itself - no String of the whole body, no char-to-byte pass
+	 * through a PrintWriter. Bodies that never change, like "Resource not found", are serialized once with
+	 * message() and sent as a byte array with a Content-Length.
+	 *
+	 * ObjectWriters are made once per type: the account and user lists and pages have their own, and any
+	 * other type gets one the first time it's written. Jackson then doesn't look the serializer up per call.
+	 *
+	 * Every body ends with a newline, as println used to add. Everything goes through the output stream,
+	 * and a response must not mix that with getWriter(), so nothing writing a FrontController response should
+	 * call getWriter().
+	 * */
+
+	private static final byte NEWLINE = '\n';
+	private static final ObjectWriter messageWriter = new ObjectMapper().writerFor(MessageTemplate.class);
+
+	private final ObjectMapper om;
+	private final ObjectWriter accountsWriter;
+	private final ObjectWriter usersWriter;
+	private final ObjectWriter accountPageWriter;
+	private final ObjectWriter userPageWriter;
+	private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+	public JsonResponder(ObjectMapper om) {
+		this.om = om;
+		this.accountsWriter = this.writerFor(new TypeReference<List<AbstractAccount>>() {});
+		this.usersWriter = this.writerFor(new TypeReference<List<AbstractUser>>() {});
+		this.accountPageWriter = this.writerFor(new TypeReference<PageTemplate<AbstractAccount>>() {});
+		this.userPageWriter = this.writerFor(new TypeReference<PageTemplate<AbstractUser>>() {});
+	}
+
+	public static byte[] message(String message) { // A MessageTemplate body, serialized once and kept by the caller
+		try {
+			return withNewline(messageWriter.writeValueAsBytes(new MessageTemplate(message)));
+		} catch(JsonProcessingException e) {
+			throw new IllegalStateException(e); // One String field, can't happen
+		}
+	}
+
+	public byte[] toBytes(Object value) throws IOException { // The same bytes write() would send, for storing and replaying
+		return withNewline(this.writerOf(value).writeValueAsBytes(value));
+	}
+
+	public void write(HttpServletResponse rsp, byte[] body) throws IOException {
+		rsp.setContentLength(body.length);
+		rsp.getOutputStream().write(body);
+	}
+
+	public void write(HttpServletResponse rsp, Object value) throws IOException {
+		this.write(rsp, this.writerOf(value), value);
+	}
+
+	public void writeAccounts(HttpServletResponse rsp, List<AbstractAccount> accounts) throws IOException {
+		this.write(rsp, accountsWriter, accounts);
+	}
+
+	public void writeUsers(HttpServletResponse rsp, List<AbstractUser> users) throws IOException {
+		this.write(rsp, usersWriter, users);
+	}
+
+	public void writeAccountPage(HttpServletResponse rsp, PageTemplate<AbstractAccount> page) throws IOException {
+		this.write(rsp, accountPageWriter, page);
+	}
+
+	public void writeUserPage(HttpServletResponse rsp, PageTemplate<AbstractUser> page) throws IOException {
+		this.write(rsp, userPageWriter, page);
+	}
+
+	private void write(HttpServletResponse rsp, ObjectWriter writer, Object value) throws IOException {
+		OutputStream out = rsp.getOutputStream();
+		try (JsonGenerator gen = om.getFactory().createGenerator(out)) { // UTF-8 by default
+			gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // The container owns the stream
+			writer.writeValue(gen, value);
+			gen.writeRaw('\n');
+		}
+	}
+
+	private ObjectWriter writerOf(Object value) {
+		if(value == null) return writers.computeIfAbsent(Object.class, this::writerFor); // Writes null, like writeValueAsString did
+		return writers.computeIfAbsent(value.getClass(), this::writerFor);
+	}
+
+	private ObjectWriter writerFor(Class<?> type) {
+		// Flushing is left to the container - the default would flush the socket after every value
+		return om.writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	}
+
+	private ObjectWriter writerFor(TypeReference<?> type) {
+		return om.writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	}
+
+	private static byte[] withNewline(byte[] json) {
+		byte[] body = new byte[json.length + 1];
+		System.arraycopy(json, 0, body, 0, json.length);
+		body[json.length] = NEWLINE;
+		return body;
+	}
+
+	@Override
+	public String toString() {
+		return "JsonResponder [writers=" + (writers.size() + 4) + "]";
+	}
+}
@@ -0,0 +1,83 @@
+package util;
+
+public class LedgerStatistics {
+	// Point-in-time snapshot of LedgerWriter counters. Plain getters so it can be written out with ObjectMapper.
+	private final int queueDepth; // Entries waiting for the writer
+	private final int queueCapacity;
+	private final boolean synchronous; // true when record() waits for the commit
+	private final long recorded; // Ledger rows handed to the writer
+	private final long written; // Ledger rows committed
+	private final long batches; // Commits it took to write them
+	private final long callerWrites; // Rows written on the request thread because the queue was full
+	private final long failedBatches; // Batch attempts that failed and were retried
+	private final long setAside; // Rows that couldn't be written when first tried
+	private final int setAsideWaiting; // Entries set aside and not written yet, see LedgerWriter.getSetAside()
+
+	public LedgerStatistics(int queueDepth, int queueCapacity, boolean synchronous, long recorded, long written,
+			long batches, long callerWrites, long failedBatches, long setAside, int setAsideWaiting) {
+		super();
+		this.queueDepth = queueDepth;
+		this.queueCapacity = queueCapacity;
+		this.synchronous = synchronous;
+		this.recorded = recorded;
+		this.written = written;
+		this.batches = batches;
+		this.callerWrites = callerWrites;
+		this.failedBatches = failedBatches;
+		this.setAside = setAside;
+		this.setAsideWaiting = setAsideWaiting;
+	}
+
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public boolean isSynchronous() {
+		return synchronous;
+	}
+
+	public long getRecorded() {
+		return recorded;
+	}
+
+	public long getWritten() {
+		return written;
+	}
+
+	public long getBatches() {
+		return batches;
+	}
+
+	public double getAverageBatchSize() { // Rows per commit, 0 until the first batch
+		return batches == 0 ? 0 : (double) written / batches;
+	}
+
+	public long getCallerWrites() {
+		return callerWrites;
+	}
+
+	public long getFailedBatches() {
+		return failedBatches;
+	}
+
+	public long getSetAside() {
+		return setAside;
+	}
+
+	public int getSetAsideWaiting() {
+		return setAsideWaiting;
+	}
+
+	@Override
+	public String toString() {
+		return "LedgerStatistics [queueDepth=" + queueDepth + ", queueCapacity=" + queueCapacity + ", synchronous="
+				+ synchronous + ", recorded=" + recorded + ", written=" + written + ", batches=" + batches
+				+ ", averageBatchSize=" + this.getAverageBatchSize() + ", callerWrites=" + callerWrites
+				+ ", failedBatches=" + failedBatches + ", setAside=" + setAside + ", setAsideWaiting=" + setAsideWaiting + "]";
+	}
+
+}
@@ -0,0 +1,71 @@
+package util;
+
+import java.util.Map;
+
+public class LockStatistics {
+	// Point-in-time snapshot of StripedLocks counters. Plain getters so it can be written out with ObjectMapper.
+	private final int stripes;
+	private final long acquisitions; // Times a stripe was taken
+	private final long contended; // Of those, times the caller had to wait for another request
+	private final long totalWaitMicros; // Time spent waiting, across all callers
+	private final long maxWaitMicros; // Longest single wait
+	private final int waiting; // Callers waiting right now
+	private final Map<Integer, Long> mostContended; // Stripe -> contended acquisitions, busiest first
+
+	public LockStatistics(int stripes, long acquisitions, long contended, long totalWaitMicros, long maxWaitMicros,
+			int waiting, Map<Integer, Long> mostContended) {
+		super();
+		this.stripes = stripes;
+		this.acquisitions = acquisitions;
+		this.contended = contended;
+		this.totalWaitMicros = totalWaitMicros;
+		this.maxWaitMicros = maxWaitMicros;
+		this.waiting = waiting;
+		this.mostContended = mostContended;
+	}
+
+	public int getStripes() {
+		return stripes;
+	}
+
+	public long getAcquisitions() {
+		return acquisitions;
+	}
+
+	public long getContended() {
+		return contended;
+	}
+
+	public double getContentionRate() { // Share of acquisitions that had to wait, 0 until the first one
+		return acquisitions == 0 ? 0 : (double) contended / acquisitions;
+	}
+
+	public long getTotalWaitMicros() {
+		return totalWaitMicros;
+	}
+
+	public double getAverageWaitMicros() { // Per contended acquisition
+		return contended == 0 ? 0 : (double) totalWaitMicros / contended;
+	}
+
+	public long getMaxWaitMicros() {
+		return maxWaitMicros;
+	}
+
+	public int getWaiting() {
+		return waiting;
+	}
+
+	public Map<Integer, Long> getMostContended() {
+		return mostContended;
+	}
+
+	@Override
+	public String toString() {
+		return "LockStatistics [stripes=" + stripes + ", acquisitions=" + acquisitions + ", contended=" + contended
+				+ ", contentionRate=" + this.getContentionRate() + ", totalWaitMicros=" + totalWaitMicros
+				+ ", averageWaitMicros=" + this.getAverageWaitMicros() + ", maxWaitMicros=" + maxWaitMicros
+				+ ", waiting=" + waiting + ", mostContended=" + mostContended + "]";
+	}
+
+}
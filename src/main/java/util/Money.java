@@ -0,0 +1,47 @@
+package util;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+public final class Money {
+	// Money is held everywhere as a long count of cents, never a double - 0.1 + 0.2 is exactly 30 cents.
+	// Sums are overflow checked, so the DAOs refuse a change rather than wrap a balance negative.
+	// Interest rates are whole basis points (1 bp = 0.01%), so a rate is an exact integer too.
+
+	public static final int BASIS_POINTS_PER_UNIT = 10000; // 100% in basis points
+
+	// Oracle NUMBER keeps 38 to 40 significant digits. Up to 9 months the factor has fewer digits than that and is
+	// exact, past it both sides round it - far below a cent for any balance a long can hold.
+	private static final MathContext FACTOR_PRECISION = new MathContext(40, RoundingMode.HALF_UP);
+
+	private Money() {
+		super();
+	}
+
+	public static boolean overflows(long cents, long deltaCents) { // True if cents + deltaCents doesn't fit in a long
+		long sum = cents + deltaCents;
+		return ((cents ^ sum) & (deltaCents ^ sum)) < 0; // Same test Math.addExact makes
+	}
+
+	public static long compound(long cents, int monthlyRateBasisPoints, int months) {
+		return compound(cents, compoundFactor(monthlyRateBasisPoints, months));
+	}
+
+	public static BigDecimal compoundFactor(int monthlyRateBasisPoints, int months) { // (1 + rate)^months, worked out once per run
+		BigDecimal monthly = BigDecimal.ONE.add(BigDecimal.valueOf(monthlyRateBasisPoints, 4)); // bp / 10000, exact
+		return monthly.pow(months, FACTOR_PRECISION);
+	}
+
+	public static long compound(long cents, BigDecimal factor) {
+		// cents * factor in decimal, rounded half away from zero to the cent once at the end - the same rule as
+		// ROUND(BALANCE_CENTS * POWER(1 + bp / 10000, months)) in AccountDAO. Throws ArithmeticException past a long.
+		return BigDecimal.valueOf(cents).multiply(factor).setScale(0, RoundingMode.HALF_UP).longValueExact();
+	}
+
+	public static String format(long cents) { // "$12.34", "-$0.05" - for messages only, JSON carries the raw cents
+		long abs = Math.abs(cents); // Long.MIN_VALUE stays negative, but no balance can reach it through add
+		long fraction = abs % 100;
+		return (cents < 0 ? "-$" : "$") + (abs / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+	}
+}
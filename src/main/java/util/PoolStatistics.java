@@ -0,0 +1,120 @@
+package util;
+
+public class PoolStatistics {
+	// Point-in-time snapshot of ConnectionPool counters. Plain getters so it can be written out with ObjectMapper.
+	private final int active; // Connections currently borrowed
+	private final int idle; // Connections sitting in the pool ready to use
+	private final int total; // active + idle
+	private final int waiters; // Threads blocked waiting for a connection
+	private final int maxSize;
+	private final long borrowCount;
+	private final long averageBorrowMicros; // Time spent inside getConnection(), including any waiting
+	private final long maxBorrowMicros;
+	private final long timeouts;
+	private final long created;
+	private final long destroyed;
+	private final long failedValidations;
+	private final long leaksDetected;
+	private final long statementCacheHits; // prepareStatement calls answered from a connection's statement cache
+	private final long statementCacheMisses;
+	private final long statementCacheEvictions;
+
+	public PoolStatistics(int active, int idle, int total, int waiters, int maxSize, long borrowCount,
+			long averageBorrowMicros, long maxBorrowMicros, long timeouts, long created, long destroyed,
+			long failedValidations, long leaksDetected, long statementCacheHits, long statementCacheMisses,
+			long statementCacheEvictions) {
+		super();
+		this.active = active;
+		this.idle = idle;
+		this.total = total;
+		this.waiters = waiters;
+		this.maxSize = maxSize;
+		this.borrowCount = borrowCount;
+		this.averageBorrowMicros = averageBorrowMicros;
+		this.maxBorrowMicros = maxBorrowMicros;
+		this.timeouts = timeouts;
+		this.created = created;
+		this.destroyed = destroyed;
+		this.failedValidations = failedValidations;
+		this.leaksDetected = leaksDetected;
+		this.statementCacheHits = statementCacheHits;
+		this.statementCacheMisses = statementCacheMisses;
+		this.statementCacheEvictions = statementCacheEvictions;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	public int getIdle() {
+		return idle;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public int getWaiters() {
+		return waiters;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public long getBorrowCount() {
+		return borrowCount;
+	}
+
+	public long getAverageBorrowMicros() {
+		return averageBorrowMicros;
+	}
+
+	public long getMaxBorrowMicros() {
+		return maxBorrowMicros;
+	}
+
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getDestroyed() {
+		return destroyed;
+	}
+
+	public long getFailedValidations() {
+		return failedValidations;
+	}
+
+	public long getLeaksDetected() {
+		return leaksDetected;
+	}
+
+	public long getStatementCacheHits() {
+		return statementCacheHits;
+	}
+
+	public long getStatementCacheMisses() {
+		return statementCacheMisses;
+	}
+
+	public long getStatementCacheEvictions() {
+		return statementCacheEvictions;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolStatistics [active=" + active + ", idle=" + idle + ", total=" + total + ", waiters=" + waiters
+				+ ", maxSize=" + maxSize + ", borrowCount=" + borrowCount + ", averageBorrowMicros="
+				+ averageBorrowMicros + ", maxBorrowMicros=" + maxBorrowMicros + ", timeouts=" + timeouts
+				+ ", created=" + created + ", destroyed=" + destroyed + ", failedValidations=" + failedValidations
+				+ ", leaksDetected=" + leaksDetected + ", statementCacheHits=" + statementCacheHits
+				+ ", statementCacheMisses=" + statementCacheMisses + ", statementCacheEvictions="
+				+ statementCacheEvictions + "]";
+	}
+
+}
@@ -0,0 +1,154 @@
+package util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class StripedLocks {
+	/** A fixed set of locks shared out by key, so requests on the same key take turns inside the JVM.
+	 *
+	 * A key always maps to the same stripe, and two keys may share one - that only costs some needless waiting.
+	 * The number of locks stays fixed however many keys there are, so nothing grows or needs cleaning up.
+	 *
+	 * lock(keys...) takes the stripes in ascending stripe order, each one once. Every caller uses the same
+	 * order, so two requests locking the same pair of keys from opposite ends queue up instead of deadlocking.
+	 * Locks are reentrant, but a nested lock() must only ask for stripes the thread already holds - taking a
+	 * new one out of order would defeat the ordering.
+	 *
+	 * Each stripe counts its acquisitions, how many of them had to wait, and for how long, so a hot key shows up
+	 * in getStatistics() as a hot stripe.
+	 * */
+
+	private static final int STAT_PAD = 8; // Counters a cache line apart, so busy stripes don't share one
+	private static final int MOST_CONTENDED = 5; // Stripes listed by name in the statistics
+
+	private final ReentrantLock[] locks;
+	private final int mask;
+	private final AtomicLongArray acquisitions;
+	private final AtomicLongArray contended;
+	private final AtomicLongArray waitNanos;
+	private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+	public StripedLocks(int stripes) {
+		if(stripes < 1) throw new IllegalArgumentException("stripes must be at least 1");
+		int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1; // Rounded up to a power of two, so a stripe is a mask away
+		this.locks = new ReentrantLock[size];
+		for(int s = 0; s < size; s++) {
+			locks[s] = new ReentrantLock();
+		}
+		this.mask = size - 1;
+		this.acquisitions = new AtomicLongArray(size * STAT_PAD);
+		this.contended = new AtomicLongArray(size * STAT_PAD);
+		this.waitNanos = new AtomicLongArray(size * STAT_PAD);
+	}
+
+	public Held lock(int key) {
+		int stripe = this.stripeOf(key);
+		this.acquire(stripe);
+		return new Held(new int[] {stripe});
+	}
+
+	public Held lock(int... keys) { // Any number of keys, taken in stripe order. Duplicates are fine
+		int[] stripes = new int[keys.length];
+		for(int k = 0; k < keys.length; k++) {
+			stripes[k] = this.stripeOf(keys[k]);
+		}
+		Arrays.sort(stripes);
+
+		int distinct = 0;
+		for(int k = 0; k < stripes.length; k++) {
+			if(k > 0 && stripes[k] == stripes[k - 1]) continue; // Two keys on one stripe, it's only taken once
+			stripes[distinct++] = stripes[k];
+		}
+		stripes = Arrays.copyOf(stripes, distinct);
+
+		int taken = 0;
+		try {
+			for(; taken < stripes.length; taken++) {
+				this.acquire(stripes[taken]);
+			}
+		} finally {
+			if(taken < stripes.length) { // Something went wrong half way, don't leave the first stripes locked
+				for(int s = taken - 1; s >= 0; s--) {
+					locks[stripes[s]].unlock();
+				}
+			}
+		}
+		return new Held(stripes);
+	}
+
+	public int getStripes() {
+		return locks.length;
+	}
+
+	public LockStatistics getStatistics() {
+		long totalAcquisitions = 0;
+		long totalContended = 0;
+		long totalWaitNanos = 0;
+		int waiting = 0;
+		long[] contendedByStripe = new long[locks.length]; // Copied first - sorting on counters that keep moving would break the sort
+		Integer[] byContention = new Integer[locks.length];
+		for(int s = 0; s < locks.length; s++) {
+			totalAcquisitions += acquisitions.get(s * STAT_PAD);
+			contendedByStripe[s] = contended.get(s * STAT_PAD);
+			totalContended += contendedByStripe[s];
+			totalWaitNanos += waitNanos.get(s * STAT_PAD);
+			waiting += locks[s].getQueueLength();
+			byContention[s] = s;
+		}
+		Arrays.sort(byContention, (a, b) -> Long.compare(contendedByStripe[b], contendedByStripe[a]));
+
+		Map<Integer, Long> mostContended = new LinkedHashMap<>(); // Stripe -> times a caller had to wait for it, busiest first
+		for(int s = 0; s < Math.min(MOST_CONTENDED, locks.length); s++) {
+			if(contendedByStripe[byContention[s]] == 0) break;
+			mostContended.put(byContention[s], contendedByStripe[byContention[s]]);
+		}
+		return new LockStatistics(locks.length, totalAcquisitions, totalContended, totalWaitNanos / 1000,
+				maxWaitNanos.get() / 1000, waiting, mostContended);
+	}
+
+	private int stripeOf(int key) {
+		int h = key * 0x9E3779B9; // Spread neighbouring ids over the stripes
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private void acquire(int stripe) {
+		ReentrantLock lock = locks[stripe];
+		acquisitions.incrementAndGet(stripe * STAT_PAD);
+		if(lock.tryLock()) return; // The usual case - nobody else on this stripe, no clock reads
+
+		contended.incrementAndGet(stripe * STAT_PAD);
+		long start = System.nanoTime();
+		lock.lock();
+		long waited = System.nanoTime() - start;
+		waitNanos.addAndGet(stripe * STAT_PAD, waited);
+		maxWaitNanos.accumulate(waited);
+	}
+
+	@Override
+	public String toString() {
+		return "StripedLocks " + this.getStatistics();
+	}
+
+	public final class Held implements AutoCloseable {
+		// What lock() returns. Meant for try-with-resources, which unlocks in reverse order
+		private final int[] stripes;
+		private boolean released;
+
+		private Held(int[] stripes) {
+			this.stripes = stripes;
+		}
+
+		@Override
+		public void close() {
+			if(released) return; // Closing twice must not unlock someone else's hold on a reentrant lock
+			released = true;
+			for(int s = stripes.length - 1; s >= 0; s--) {
+				locks[stripes[s]].unlock();
+			}
+		}
+	}
+}
@@ -1,7 +1,12 @@
 package web;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -9,474 +14,542 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import authorization.AuthService;
 import controllers.AccountController;
 import controllers.LoginController;
 import controllers.UserController;
+import dao.DAOFactory;
+import dao.RowCallback;
 import exceptions.AuthorizationException;
+import exceptions.ConcurrentUpdateException;
 import exceptions.FailedStatementException;
 import exceptions.IllegalBalanceException;
 import exceptions.InvalidLoginException;
 import exceptions.NotLoggedInException;
 import models.AbstractAccount;
 import models.AbstractUser;
+import models.StandardAccount;
 import templates.AmountTemplate;
 import templates.BalanceTemplate;
+import templates.BatchTransferResultTemplate;
 import templates.MessageTemplate;
+import templates.PassTimeResultTemplate;
 import templates.PassTimeTemplate;
 import templates.PostAccountTemplate;
 import templates.TransferTemplate;
+import templates.UserImportResultTemplate;
 import templates.UserAccountTemplate;
+import util.ConnectionUtil;
+import util.IdempotencyStore;
+import util.JsonResponder;
+import util.Money;
 
 @SuppressWarnings("serial")
 public class FrontController extends HttpServlet {
-	private static final ObjectMapper om = new ObjectMapper(); // Helps convert JSON to a usable object.
+	// Helps convert JSON to a usable object. Money is whole cents, so 12.5 for a *Cents field is a 400 rather than silently truncated
+	private static final ObjectMapper om = new ObjectMapper().disable(DeserializationFeature.ACCEPT_FLOAT_AS_INT);
 	private static final UserController uc = new UserController();
 	private static final LoginController lc = new LoginController();
 	private static final AccountController ac = new AccountController();
 	private static final AuthService as = new AuthService();
+	private static final int DEFAULT_PAGE_SIZE = 50; // ?limit= when only ?after= is given
+	private static final int MAX_PAGE_SIZE = 500;
+	private static final int IMPORT_BATCH_SIZE = 500; // Users per JDBC batch and commit in POST /user?import
+	// Responses to withdraw / deposit / transfer POSTs sent with an Idempotency-Key, kept for retries (10000 for a day by default)
+	private static final IdempotencyStore idempotency = new IdempotencyStore(Integer.getInteger("rocp.idempotency.maxSize", 10000),
+			Long.getLong("rocp.idempotency.ttlMillis", 86400000L));
+	// Used while streaming listings - the default flushes the socket after every single element
+	private static final ObjectWriter streamWriter = om.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	private static final JsonResponder json = new JsonResponder(om); // Every response body goes through this, straight to the output stream
+	// Bodies that never change, serialized once
+	private static final byte[] WELCOME = JsonResponder.message("This is / . 'post' to /login with your credentials to access more of the site");
+	private static final byte[] NOT_FOUND = JsonResponder.message("Resource not found");
+	private static final byte[] NOT_LOGGED_IN = JsonResponder.message("You are not logged in. Go to /login and POST your credentials");
+	private static final byte[] INVALID_LOGIN = JsonResponder.message("Invalid login credentials");
+	private static final byte[] INVALID_REQUEST = JsonResponder.message("Invalid request");
+	private static final byte[] INVALID_POST_REQUEST = JsonResponder.message("Invalid POST request");
+	private static final byte[] NOT_AUTHORIZED = JsonResponder.message("You are not authorized");
+	private static final byte[] ILLEGAL_BALANCE = JsonResponder.message("The amount must be greater than $0. Any withdraws or transfers must be no greater than the source account balance");
+	private static final byte[] CONCURRENT_UPDATE = JsonResponder.message("This record was changed by someone else since you read it. GET it again and re-apply your changes with the new version.");
+	private static final byte[] UNKNOWN_ERROR = JsonResponder.message("Unknown Error. Consult the stack trace for more details. Make sure any POSTed info matches what's expected, or if updating info that the info exists to begin with.");
+	private static final byte[] IDEMPOTENCY_IN_FLIGHT = JsonResponder.message("A request with this Idempotency-Key is still being processed. Retry shortly");
+	private static final byte[] IDEMPOTENCY_MISMATCH = JsonResponder.message("This Idempotency-Key was already used for a different request");
+	private final RouteTable routes = new RouteTable(); // Filled in by init(), read-only once requests arrive
+	
+	@Override
+	public void destroy() {
+		DAOFactory.getLedger().shutdown(); // Write out queued ledger rows while the pool is still there
+		ConnectionUtil.shutdown(); // Close pooled database connections when the app is undeployed
+	}
+	
+	@Override
+	public void init() {
+		// Every endpoint, registered once. The ?action is part of the route, other query parameters are read by the handlers
+		routes.add("GET", "", true, this::welcome)
+			.add("GET", "users?login", true, (req, rsp, session, ids) -> lc.doGet(req, rsp, json, om))
+			.add("GET", "users?logout", true, (req, rsp, session, ids) -> lc.logout(req, rsp, json, om))
+			.add("GET", "users", false, this::getUsers)
+			.add("GET", "users/{id}", false, this::getUser)
+			.add("GET", "accounts", false, this::getAccounts)
+			.add("GET", "accounts/status/{id}", false, this::getAccountsByStatus)
+			.add("GET", "accounts/owner/{id}", false, this::getAccountsByOwner)
+			.add("GET", "accounts/{id}", false, this::getAccount)
+			
+			.add("POST", "user?login", true, (req, rsp, session, ids) -> lc.doPost(req, rsp, json, om))
+			.add("POST", "user", false, this::postUser)
+			.add("POST", "user?import", false, this::importUsers)
+			.add("POST", "accounts", false, this::postAccount)
+			.add("POST", "accounts?passtime", false, this::passTime)
+			.add("POST", "accounts?batchtransfer", false, this::batchTransfer)
+			.add("POST", "accounts/{id}?withdraw", false, (req, rsp, session, ids) -> this.moveMoney(req, rsp, session, ids[0], "withdraw"))
+			.add("POST", "accounts/{id}?deposit", false, (req, rsp, session, ids) -> this.moveMoney(req, rsp, session, ids[0], "deposit"))
+			.add("POST", "accounts/{id}?transfer", false, (req, rsp, session, ids) -> this.moveMoney(req, rsp, session, ids[0], "transfer"))
+			
+			.add("PUT", "users", false, this::putUser)
+			.add("PUT", "users?upgrade", false, this::upgradeUser)
+			.add("PUT", "accounts", false, this::putAccount)
+			.add("PUT", "accounts?addjointuser", false, this::addJointUser);
+	}
 	
 	@Override
 	protected void doGet(HttpServletRequest req, HttpServletResponse rsp)
 		throws ServletException, IOException{
+		this.dispatch("GET", req, rsp);
+	}
+	
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse rsp)
+			throws ServletException, IOException{
+		this.dispatch("POST", req, rsp);
+	}
+	
+	@Override
+	protected void doPut(HttpServletRequest req, HttpServletResponse rsp) 
+			throws ServletException, IOException{
+		this.dispatch("PUT", req, rsp);
+	}
+	
+	private void dispatch(String method, HttpServletRequest req, HttpServletResponse rsp) throws ServletException, IOException {
+		rsp.setContentType("application/json"); //Formats our output in responses to be JSON
+		rsp.setCharacterEncoding("UTF-8"); // What JsonResponder writes
 		
-		rsp.setContentType("application/json");
-			
-		String URI = req.getRequestURI().replace("/rocp-project", "").replaceFirst("/", "").toLowerCase(); //Determine where the 'get' is coming from. Removes leading 	project name
-		String[] portions = URI.split("/");
+		String path = req.getRequestURI().substring(req.getContextPath().length()); // Without the leading project name
 		HttpSession session = req.getSession();
-		MessageTemplate message = null;
 		
 		try {
-			switch(portions[0]) {
-			
-			case "":
-				rsp.setStatus(200); // 200 OK
-				message = new MessageTemplate("This is / . 'post' to /login with your credentials to access more of the site");
-				rsp.getWriter().println(om.writeValueAsString(message));
-				break;			
-				
-			case "users":
-				if(req.getQueryString() != null) {
-					switch(req.getQueryString().toLowerCase()) {
-					
-					case "login":
-						lc.doGet(req, rsp, message, om);
-						break;
-						
-					case "logout":
-						lc.logout(req, rsp, message, om);
-						break;
-						
-					// No default case just yet - we'll have more opportunities for querystring later
-					}
-				}
-				
-				as.guard(session);
-				if(portions.length > 1) {
-					// If URI structured as /user/(something) - try and parse that something to see if it's a userId
-					// If it is, then access that user information if the currentuser is allowed to 
-					
-					int userId = -99; // Dummy value to make sure the try block works.
-					
-					try {
-						userId = Integer.parseInt(portions[1]);
-					} catch (NumberFormatException e) {
-						throw new FailedStatementException();
-					}
-					
-					as.guard(session, userId, "Employee", "Admin");
-					AbstractUser u = uc.accessUser(userId);
-					rsp.setStatus(200);
-					rsp.getWriter().println(om.writeValueAsString(u));
-					
-				} else {
-					// If not accessing a specific user, allow Employee or Admin to see list of all users.
-					as.guard(session, "Employee", "Admin");
-					List<AbstractUser> users = uc.findAll();
-					rsp.getWriter().println(om.writeValueAsString(users));
-				}
-				break;
-			
-			case "accounts":
-				as.guard(session);
-				
-				if(portions.length==1) { // If the URI is just 'accounts'
-					as.guard(session, "Employee", "Admin"); // Checks if employee or admin
-					List<AbstractAccount> accounts = ac.findAll(); // Get all accounts
-					rsp.getWriter().println(om.writeValueAsString(accounts));
-					break;
-				}
-				switch(portions[1]) {
-				case "status": 
-					// Find all accounts with a specific 'statusId' in portions[2]
-					
-					as.guard(session, "Employee", "Admin"); // Check if they have permission first
-					
-					try {
-						
-						int statusId = Integer.parseInt(portions[2]); // Check what status ID to get
-						List<AbstractAccount> accounts = ac.findByStatus(statusId); // grab the list of accounts
-						rsp.getWriter().println(om.writeValueAsString(accounts)); // Write to HttpServletResponse
-						break;
-						
-					} catch(NumberFormatException e) {
-						rsp.setStatus(404);
-						message = new MessageTemplate("Resource not found");
-						rsp.getWriter().println(om.writeValueAsString(message));
-					}
-					break;
-					
-				case "owner":
-					// Find all accounts related to a specific 'ownerId' in portions[2]
-					int userId = -99; // Dummy value
-
-					try {
-
-						userId = Integer.parseInt(portions[2]); // Check what user ID to get
-						as.guard(session, userId, "Employee", "Admin"); // Check if they have permission first
-
-
-					} catch(NumberFormatException e) { // Catch in case there's not a valid resource
-						
-						rsp.setStatus(404);
-						message = new MessageTemplate("Resource not found");
-						rsp.getWriter().println(om.writeValueAsString(message));
-						
-					}
-
-					if(req.getQueryString() != null) { // If there's a query string
-
-						try {
-							String[] query = req.getQueryString().toLowerCase().split("="); // First should be statusId, second is the id
-							int statusId = Integer.parseInt(query[1]); // Try to parse it, should be status
-							
-							List<AbstractAccount> results = ac.findByOwnerAndStatus(userId, statusId); // Fetch the list
-							rsp.setStatus(200); // OK
-							rsp.getWriter().println(om.writeValueAsString(results)); // Print results
-							
-						} catch (NumberFormatException e) { //Invalid parse
-							rsp.setStatus(404);
-							message = new MessageTemplate("Resource not found");
-							rsp.getWriter().println(om.writeValueAsString(message));
-						}
-						
-					} else { // If no query string, then just grab the specified ID
-						
-						List<AbstractAccount> accounts = ac.findByOwner(userId); // grab the list of associated accounts
-						rsp.getWriter().println(om.writeValueAsString(accounts)); // Write to HttpServletResponse
-						break;
-						
-					}
-					
-					
-					
-				default: // If not accounts/status or accounts/owner
-					
-					try { // Try to parse from accounts/(accountId)
-						
-						int accountId = Integer.parseInt(portions[1]); // Parse our account ID
-						
-						if(!(ac.isOwner(session, accountId))) { // If our current user isn't a listed owner
-							as.guard(session, "Employee", "Admin"); // Check if they are employee or admin
-						}
-						// By passing through they're either an owner or an employee/admin
-						AbstractAccount account = ac.findAccountById(accountId); // Grab the account
-						rsp.getWriter().println(om.writeValueAsString(account)); // Print the value.
-						
-					} catch(NumberFormatException e) {
-						
-						rsp.setStatus(404);
-						message = new MessageTemplate("Resource not found");
-						rsp.getWriter().println(om.writeValueAsString(message));
-						
-					}
-				}
-				break;
-				
-			default: 
+			RouteTable.Match route = routes.find(method, path, req.getQueryString());
+			if(route == null) { // No such endpoint, or an {id} that isn't a number
 				rsp.setStatus(404); // Unable to be found
-				message = new MessageTemplate("Resource not found");
-				rsp.getWriter().println(om.writeValueAsString(message));
+				json.write(rsp, NOT_FOUND);
+				return;
 			}
+			if(!route.isOpen()) as.guard(session); // Everything but the welcome message and logging in / out requires a login
+			route.handle(req, rsp, session);
+			
 		} catch (NotLoggedInException e) { //If user isn't logged in
 			rsp.setStatus(401);
-			message = new MessageTemplate("You are not logged in. Go to /login and POST your credentials");
-			rsp.getWriter().println(om.writeValueAsString(message));
+			json.write(rsp, NOT_LOGGED_IN);
+			
+		} catch (InvalidLoginException e) { // If they put in bad credentials
+			rsp.setStatus(400);
+			json.write(rsp, INVALID_LOGIN);
 			
 		} catch (FailedStatementException e) { // If there's some kind of unexpected SQL result (like update not hitting any rows)
 			rsp.setStatus(400);
-			message = new MessageTemplate("Invalid request");
-			rsp.getWriter().println(om.writeValueAsString(message));
+			json.write(rsp, method.equals("POST") ? INVALID_POST_REQUEST : INVALID_REQUEST);
 			
 		} catch (AuthorizationException e) { // If the current user doesn't meet our authorization conditions.
 			rsp.setStatus(401);
-			message = new MessageTemplate("You are not authorized");
-			rsp.getWriter().println(om.writeValueAsString(message));
+			json.write(rsp, NOT_AUTHORIZED);
+		} catch (IllegalBalanceException e) {
+			rsp.setStatus(400);
+			json.write(rsp, ILLEGAL_BALANCE);
+		} catch (ConcurrentUpdateException e) { // The version sent with the update is out of date
+			rsp.setStatus(409); // Conflict
+			json.write(rsp, CONCURRENT_UPDATE);
 		} catch (Exception e) { // If all else fails, might be SQLException or Jackson's ObjectMapper exceptions, maybe IOException or something else
+			if(rsp.isCommitted()) { // Part of the body is already out, e.g. a listing that failed half way - abort rather than append to it
+				throw new ServletException("Response failed after it was committed", e);
+			}
+			rsp.resetBuffer(); // Drop anything half written that hasn't gone out yet
 			rsp.setStatus(400);
-			message = new MessageTemplate("Unknown Error. Consult the stack trace for more details. Make sure any POSTed info matches what's expected, or if updating info that the info exists to begin with.");
-			rsp.getWriter().println(om.writeValueAsString(message));
+			json.write(rsp, UNKNOWN_ERROR);
 		}
-		
-		
-			
 	}
 	
-	@Override
-	protected void doPost(HttpServletRequest req, HttpServletResponse rsp)
-			throws ServletException, IOException{
+	private void welcome(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		rsp.setStatus(200); // 200 OK
+		json.write(rsp, WELCOME);
+	}
+	
+	private void getUsers(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// Allow Employee or Admin to see list of all users.
+		as.guard(session, "Employee", "Admin");
+		rsp.setStatus(200);
+		int[] page = this.pageParams(req);
+		if(page != null) { // /users?after=<id>&limit=N
+			json.writeUserPage(rsp, uc.findPage(page[0], page[1]));
+			return;
+		}
+		this.streamArray(rsp, uc::streamAll); // Written straight to the response as rows come back
+	}
+	
+	private void getUser(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// /users/{userId} - that user's information, if the current user is allowed to see it
+		int userId = ids[0];
+		as.guard(session, userId, "Employee", "Admin");
+		AbstractUser u = uc.accessUser(userId);
+		rsp.setStatus(200);
+		json.write(rsp, u);
+	}
+	
+	private void getAccounts(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		as.guard(session, "Employee", "Admin"); // Checks if employee or admin
+		rsp.setStatus(200);
+		int[] page = this.pageParams(req);
+		if(page != null) { // /accounts?after=<id>&limit=N
+			json.writeAccountPage(rsp, ac.findPage(page[0], page[1]));
+			return;
+		}
+		this.streamArray(rsp, ac::streamAll); // Written straight to the response as rows come back
+	}
+	
+	private void getAccountsByStatus(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// Find all accounts with a specific 'statusId'
+		as.guard(session, "Employee", "Admin"); // Check if they have permission first
+		int statusId = ids[0];
+		int[] page = this.pageParams(req);
+		if(page != null) { // /accounts/status/{id}?after=<id>&limit=N
+			json.writeAccountPage(rsp, ac.findByStatusPage(statusId, page[0], page[1]));
+			return;
+		}
+		List<AbstractAccount> accounts = ac.findByStatus(statusId); // grab the list of accounts
+		json.writeAccounts(rsp, accounts); // Write to HttpServletResponse
+	}
+	
+	private void getAccountsByOwner(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// Find all accounts related to a specific 'ownerId', optionally only those with ?statusId=N
+		int userId = ids[0];
+		as.guard(session, userId, "Employee", "Admin"); // Check if they have permission first
 		
-		rsp.setContentType("application/json");
+		String status = req.getParameter("statusId");
+		int statusId = 0; // Any status
+		if(status != null) {
+			try {
+				statusId = Integer.parseInt(status);
+			} catch(NumberFormatException e) {
+				throw new FailedStatementException();
+			}
+		}
 		
-		String URI = req.getRequestURI().replace("/rocp-project", "").replaceFirst("/", "").toLowerCase(); //Determine where the 'get' is coming from. Removes leading 	project name
-		String[] portions = URI.split("/");
-		HttpSession session = req.getSession();
-		MessageTemplate message = null;
+		int[] page = this.pageParams(req);
+		if(page != null) { // /accounts/owner/{id}?after=<id>&limit=N, optionally &statusId=N
+			rsp.setStatus(200);
+			json.writeAccountPage(rsp, ac.findByOwnerPage(userId, statusId, page[0], page[1]));
+			return;
+		}
+		
+		List<AbstractAccount> accounts = (status == null) ? ac.findByOwner(userId) // grab the list of associated accounts
+				: ac.findByOwnerAndStatus(userId, statusId);
+		rsp.setStatus(200); // OK
+		json.writeAccounts(rsp, accounts); // Write to HttpServletResponse
+	}
+	
+	private void getAccount(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		int accountId = ids[0];
+		if(!(ac.isOwner(session, accountId))) { // If our current user isn't a listed owner
+			as.guard(session, "Employee", "Admin"); // Check if they are employee or admin
+		}
+		// By passing through they're either an owner or an employee/admin
+		AbstractAccount account = ac.findAccountById(accountId); // Grab the account
+		json.write(rsp, account); // Print the value.
+	}
+	
+	private int[] pageParams(HttpServletRequest req) {
+		// Reads ?after=<id>&limit=N into {afterId, limit}. Returns null when the request isn't asking for a page.
+		String after = req.getParameter("after");
+		String limit = req.getParameter("limit");
+		if(after == null && limit == null) return null;
 		
 		try {
-			if(portions[0].equals("user") && req.getQueryString().toLowerCase().equals("login")) {
-				lc.doPost(req, rsp, message, om);
-				return;
-			}
-			
-			as.guard(session); // The following switch statements require a login. This blocks out any unsigned users
-			
-			switch(portions[0]) {
-				
-			case "user":
-				// insert into the user table and return the stuff.
-				as.guard(session, "Employee","Admin"); //Rather have it so employees are the ones to instantiate an account. This isn't gmail, it's a bank
-				AbstractUser postedUser = om.readValue(req.getReader(), AbstractUser.class);
-				postedUser = uc.insert(postedUser);
-				rsp.setStatus(201); // 201 created
-				rsp.getWriter().println(om.writeValueAsString(postedUser));
-				break;
-			
-			case "accounts":
-
-				if(portions.length == 1) { // Just /accounts - posting there is for creating accounts or passtime, depending on query
-					
-					if(req.getQueryString().toLowerCase().equals("passtime")) { // if /accounts?passTime
-						
-						// Accrue an amount of compound interest per month 
-						as.guard(session, "Admin"); //Check if user is admin
-						PassTimeTemplate passTime =  om.readValue(req.getReader(),PassTimeTemplate.class); // Grab our template from the body
-						ac.passTime(passTime.getNumOfMonths()); //Pass the time by the specified number of months
-						
-						rsp.setStatus(200);//Ok
-						message = new MessageTemplate(passTime.getNumOfMonths() + " months of compound interest have been accrued on all Savings accounts");
-						rsp.getWriter().println(om.writeValueAsString(message));
-						return;
-					}
-					
-					PostAccountTemplate postedAccount = om.readValue(req.getReader(), PostAccountTemplate.class); // Get values
-					int userId = postedAccount.getUserId(); // Find associated userID
-					as.guard(session, userId, "Employee", "Admin"); // Check if Employee or admin, or belongs to the user
-					if (uc.accessUser(userId) == null) throw new FailedStatementException(); // Extra check to make sure User exists
-					AbstractAccount account = ac.insert(postedAccount); // Insert our records
-					
-					rsp.setStatus(201); // 201 Created
-					rsp.getWriter().println(om.writeValueAsString(account)); // Return the entered value.
-					return;
+			int afterId = (after == null) ? 0 : Integer.parseInt(after); // Ids start at 1, so 0 means the first page
+			int size = (limit == null) ? DEFAULT_PAGE_SIZE : Integer.parseInt(limit);
+			if(afterId < 0 || size < 1) throw new FailedStatementException();
+			return new int[] {afterId, Math.min(size, MAX_PAGE_SIZE)};
+		} catch(NumberFormatException e) {
+			throw new FailedStatementException(); // 400 Invalid request
+		}
+	}
+	
+	private interface RowSource<T> { // Something that hands us rows one at a time, like AccountController.streamAll
+		void streamAll(RowCallback<T> callback) throws IOException;
+	}
+	
+	private <T> void streamArray(HttpServletResponse rsp, RowSource<T> source) throws IOException {
+		// Writes a JSON array element by element to the response, so memory stays flat however big the table is.
+		// If the source fails part way through, the array is left unclosed and the exception goes up to dispatch()
+		try (JsonGenerator gen = om.getFactory().createGenerator(rsp.getOutputStream())) {
+			gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET); // The container owns the stream
+			gen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT); // close() would otherwise add the ']' and make a partial listing look whole
+			gen.writeStartArray();
+			boolean[] first = {true};
+			source.streamAll(row -> {
+				streamWriter.writeValue(gen, row);
+				if(first[0]) { // Get the first bytes to the client right away, the rest goes out as buffers fill
+					first[0] = false;
+					gen.flush();
 				}
-				
-				if(req.getQueryString() != null) { // If we have a query string
-					
-					int accountId = -99; // Dummy value to make sure our parse works.
-					
-					try { // Try and parse the source userId from the URI
-						
-						accountId = Integer.parseInt(portions[1]);
-						
-					} catch (NumberFormatException e) {
-						
-						rsp.setStatus(404);
-						message = new MessageTemplate("Resource not found");
-						rsp.getWriter().println(om.writeValueAsString(message));
-						
-					}
-					
-					switch(req.getQueryString().toLowerCase()) { // To make for more restful endpoints I want to involve query strings
-					
-					case "withdraw":
-						
-						AmountTemplate amount = om.readValue(req.getReader(), AmountTemplate.class); // fetch amount posted
-						BalanceTemplate withdraw = new BalanceTemplate(accountId,amount.getAmount()); // Fetch our account ID and amount to change
-					
-						if(ac.isOwner(session, withdraw.getAccountId()) == false) { // If the user is not an owner of the account
-							as.guard(session, "Admin"); // Check if they are an admin
-						}
-						
-						// Getting past means user is an owner of the account or an admin
-						ac.withdraw(withdraw); // Withdraw the amount from the specified account
-						rsp.setStatus(200); // OK
-						message = new MessageTemplate("$" + withdraw.getAmount() + "has been withdrawn from Account #" + withdraw.getAccountId());
-						rsp.getWriter().println(om.writeValueAsString(message)); // Write the updated account values.
-						break;
-						
-					case "deposit":
-						
-						BalanceTemplate deposit = om.readValue(req.getReader(), BalanceTemplate.class); // Fetch our account ID and amount to change
-						
-						if(ac.isOwner(session, deposit.getAccountId()) == false) { // If the user is not an owner of the account
-							as.guard(session, "Admin"); // Check if they are an admin
-						}
-						
-						// Getting past means user is an owner of the account or an admin
-						ac.deposit(deposit); // Deposit the amount to the specified account
-						rsp.setStatus(200); // OK
-						message = new MessageTemplate("$" + deposit.getAmount() + " has been deposited from Account #" + deposit.getAccountId());
-						rsp.getWriter().println(om.writeValueAsString(message)); // Write the updated account values.
-						break;
-					
-					case "transfer":
-						
-						TransferTemplate transfer = om.readValue(req.getReader(),TransferTemplate.class); // Fetch source and target ids and transfer amount
-						if(ac.isOwner(session, transfer.getSourceAccountId()) == false) { // If the user is not an owner of the account
-							as.guard(session, "Admin"); // Check if they are an admin
-						} 
-						// Getting past means user is an owner of the source account or an admin
-						rsp.setStatus(200); // OK
-						message = new MessageTemplate("$" + transfer.getAmount() + " has been transfered from Account #" + transfer.getSourceAccountId()
-						+ " to Account #" + transfer.getTargetAccountId());
-						rsp.getWriter().println(om.writeValueAsString(message));
-						break;
-					
-					default:
-						rsp.setStatus(404);
-						message = new MessageTemplate("Resource not found");
-						rsp.getWriter().println(om.writeValueAsString(message));
+			});
+			gen.writeEndArray();
+		}
+	}
+	
+	private void importUsers(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// POST /user?import - a JSON array of users, or one user per line (NDJSON). The body is parsed one user at a time and
+		// inserted IMPORT_BATCH_SIZE at a time, and each batch's results are written out before the next batch is read, so
+		// memory stays flat however many users are sent. The results are a JSON array, one per user, in the order sent.
+		// Batches already written stay written if the body turns out to be malformed further on.
+		as.guard(session, "Employee","Admin"); // Same as adding a single user
+		rsp.setStatus(200); // Goes out with the first results, so per-user problems are reported in the results
+		try (JsonParser parser = om.getFactory().createParser(req.getInputStream());
+				JsonGenerator gen = om.getFactory().createGenerator(rsp.getOutputStream())) {
+			parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE); // The container owns both streams
+			gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			gen.writeStartArray();
+			List<AbstractUser> batch = new ArrayList<>(IMPORT_BATCH_SIZE); // null for a row that couldn't be read as a user
+			int index = 0;
+			try {
+				JsonToken token = parser.nextToken();
+				if(token == JsonToken.START_ARRAY) token = parser.nextToken(); // Otherwise NDJSON, one root-level user after another
+				while(token != null && token != JsonToken.END_ARRAY) {
+					JsonNode row = om.readTree(parser); // One user's worth of JSON
+					AbstractUser u;
+					try {
+						u = om.treeToValue(row, AbstractUser.class);
+					} catch(JsonProcessingException | IllegalArgumentException e) { // Well-formed, but not a user
+						u = null;
 					}
-				} else {
-					rsp.setStatus(404);
-					message = new MessageTemplate("Resource not found");
-					rsp.getWriter().println(om.writeValueAsString(message));
+					batch.add(u);
+					if(batch.size() == IMPORT_BATCH_SIZE) index = this.importBatch(gen, batch, index);
+					token = parser.nextToken();
 				}
-				
-				break;
+				index = this.importBatch(gen, batch, index);
+			} catch(JsonParseException e) { // Malformed JSON, nothing after this point can be read
+				index = this.importBatch(gen, batch, index);
+				streamWriter.writeValue(gen, new UserImportResultTemplate(index, null, 0, UserImportResultTemplate.INVALID));
 			}
-			
-		}catch (NotLoggedInException e) { //If user isn't logged in
-			rsp.setStatus(401);
-			message = new MessageTemplate("You are not logged in. Go to /login and POST your credentials");
-			rsp.getWriter().println(om.writeValueAsString(message));
-			
-		} catch (InvalidLoginException e) { // If they put in bad credentials
-			rsp.setStatus(400);
-			message = new MessageTemplate("Invalid login credentials");
-			rsp.getWriter().println(om.writeValueAsString(message));
-			
-		} catch (FailedStatementException e) { // If there's some kind of unexpected SQL result (like update not hitting any rows)
-			rsp.setStatus(400);
-			message = new MessageTemplate("Invalid POST request");
-			rsp.getWriter().println(om.writeValueAsString(message));
-			
-		} catch (AuthorizationException e) { // If the current user doesn't meet our authorization conditions.
-			rsp.setStatus(401);
-			message = new MessageTemplate("You are not authorized");
-			rsp.getWriter().println(om.writeValueAsString(message));
-		} catch (IllegalBalanceException e) {
-			rsp.setStatus(400);
-			message = new MessageTemplate("The amount must be greater than $0. Any withdraws or transfers must be no greater than the source account balance");
-			rsp.getWriter().println(om.writeValueAsString(message));
-		} catch (Exception e) { // If all else fails, might be SQLException or Jackson's ObjectMapper exceptions or something else
-			rsp.setStatus(400);
-			message = new MessageTemplate("Unknown Error. Consult the stack trace for more details. Make sure any POSTed info matches what's expected, or if updating info that the info exists to begin with.");
-			rsp.getWriter().println(om.writeValueAsString(message));
+			gen.writeEndArray();
 		}
-
 	}
 	
-	@Override
-	protected void doPut(HttpServletRequest req, HttpServletResponse rsp) 
-			throws ServletException, IOException{
+	private int importBatch(JsonGenerator gen, List<AbstractUser> batch, int index) throws IOException {
+		// Inserts one batch, writes a result for each of its users and returns the index of the next user
+		if(batch.isEmpty()) return index;
+		int[] results = uc.insertAll(batch);
+		for(int i = 0; i < batch.size(); i++) {
+			AbstractUser u = batch.get(i);
+			if(u == null) {
+				streamWriter.writeValue(gen, new UserImportResultTemplate(index + i, null, 0, UserImportResultTemplate.INVALID));
+			} else if(results[i] == 1) {
+				streamWriter.writeValue(gen, new UserImportResultTemplate(index + i, u.getUsername(), u.getUserId(), UserImportResultTemplate.CREATED));
+			} else {
+				streamWriter.writeValue(gen, new UserImportResultTemplate(index + i, u.getUsername(), 0, UserImportResultTemplate.REFUSED));
+			}
+		}
+		gen.flush(); // The client sees each batch as soon as it's committed
+		index += batch.size();
+		batch.clear();
+		return index;
+	}
+	
+	private void postUser(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// insert into the user table and return the stuff.
+		as.guard(session, "Employee","Admin"); //Rather have it so employees are the ones to instantiate an account. This isn't gmail, it's a bank
+		AbstractUser postedUser = om.readValue(req.getReader(), AbstractUser.class);
+		postedUser = uc.insert(postedUser);
+		rsp.setStatus(201); // 201 created
+		json.write(rsp, postedUser);
+	}
+	
+	private void postAccount(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		PostAccountTemplate postedAccount = om.readValue(req.getReader(), PostAccountTemplate.class); // Get values
+		int userId = postedAccount.getUserId(); // Find associated userID
+		as.guard(session, userId, "Employee", "Admin"); // Check if Employee or admin, or belongs to the user
+		if (uc.accessUser(userId) == null) throw new FailedStatementException(); // Extra check to make sure User exists
+		AbstractAccount account = ac.insert(postedAccount); // Insert our records
 		
-		rsp.setContentType("application/json"); //Formats our output in responses to be JSON
+		rsp.setStatus(201); // 201 Created
+		json.write(rsp, account); // Return the entered value.
+	}
+	
+	private void passTime(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// Accrue an amount of compound interest per month 
+		as.guard(session, "Admin"); //Check if user is admin
+		PassTimeTemplate passTime =  om.readValue(req.getReader(),PassTimeTemplate.class); // Grab our template from the body
+		PassTimeResultTemplate result = ac.passTime(passTime.getNumOfMonths()); //Pass the time by the specified number of months
 		
-		String URI = req.getRequestURI().replace("/rocp-project", "").replaceFirst("/", "").toLowerCase(); //Determine where the 'get' is coming from. Removes leading 	project name
-		String[] portions = URI.split("/");
-		HttpSession session = req.getSession();
-		MessageTemplate message = null;
+		rsp.setStatus(200);//Ok
+		json.write(rsp, result); // Message plus how many accounts were affected and how long it took
+	}
+	
+	private void batchTransfer(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		List<TransferTemplate> transfers = Arrays.asList(om.readValue(req.getReader(), TransferTemplate[].class)); // Array of transfers
+		Set<Integer> sourceIds = new HashSet<>();
+		for(TransferTemplate t : transfers) {
+			sourceIds.add(t.getSourceAccountId());
+		}
+		if(ac.isOwnerOfAll(session, sourceIds) == false) { // If the user doesn't own every source account
+			as.guard(session, "Admin"); // Check if they are an admin
+		}
+		
+		BatchTransferResultTemplate result = ac.transferAll(transfers);
+		rsp.setStatus(200); // OK, even if some transfers were refused - see each result's status
+		json.write(rsp, result);
+	}
+	
+	private void moveMoney(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int accountId, String action)
+			throws IOException {
+		// withdraw, deposit and transfer. With an Idempotency-Key header, a retry of a request that went through gets the
+		// stored response back without reaching AccountService. Keys are per user and per endpoint.
+		String body = this.readBody(req);
+		IdempotencyStore.Claim claim = null;
+		String key = req.getHeader("Idempotency-Key");
+		if(key != null) {
+			AbstractUser currentUser = (AbstractUser) session.getAttribute("currentUser");
+			claim = idempotency.claim(currentUser.getUserId() + " accounts/" + accountId + "?" + action + " " + key, body);
+			switch(claim.getOutcome()) {
+			case REPLAY:
+				rsp.setStatus(claim.getStatus());
+				rsp.setHeader("Idempotent-Replayed", "true");
+				json.write(rsp, claim.getResponse());
+				return;
+			case IN_FLIGHT:
+				rsp.setStatus(409); // Conflict - the first attempt hasn't finished, so there's nothing to replay yet
+				json.write(rsp, IDEMPOTENCY_IN_FLIGHT);
+				return;
+			case MISMATCH:
+				rsp.setStatus(422); // Unprocessable Entity
+				json.write(rsp, IDEMPOTENCY_MISMATCH);
+				return;
+			default:
+				break; // NEW, go ahead
+			}
+		}
 		
+		boolean completed = false;
 		try {
-			as.guard(session); // Ensures our user is logged in, otherwise they can't access
+			Object result;
+			switch(action) {
+			case "withdraw":
+				AmountTemplate amount = om.readValue(body, AmountTemplate.class); // fetch amount posted
+				BalanceTemplate withdraw = new BalanceTemplate(accountId,amount.getAmountCents()); // Fetch our account ID and amount to change
 			
-			switch(portions[0]) {
-			case "users":
-				
-				if(req.getQueryString().toLowerCase().equals("upgrade")) { // If they PUT to users?upgrade
-					
-					AbstractUser currentuser = (AbstractUser) session.getAttribute("currentuser"); //Get the user
-					
-					if(currentuser.getRole().getRoleId() > 1) { // If not a 'Standard' user
-						
-						UserAccountTemplate userToUpgrade = om.readValue(req.getReader(), UserAccountTemplate.class); // Read the PUT
-						
-						as.guard(session, userToUpgrade.getUserId(), "Admin"); // If the current user is upgrading their account or an admin
-
-						uc.upgradeUser(userToUpgrade.getUserId(),userToUpgrade.getAccountId(), ac);
-						rsp.setStatus(200); // OK
-						message = new MessageTemplate("User #" + userToUpgrade.getUserId() + " has been made Premium. $100 deducted from Account #" + userToUpgrade.getAccountId());
-						rsp.getWriter().println(om.writeValueAsString(message));
-					} else {
-						throw new AuthorizationException(); // Not authorized to do this
-					}
-					
+				if(ac.isOwner(session, withdraw.getAccountId()) == false) { // If the user is not an owner of the account
+					as.guard(session, "Admin"); // Check if they are an admin
 				}
 				
-				AbstractUser u = om.readValue(req.getReader(), AbstractUser.class); // Pulls out the User from the request.
-				
-				as.guard(session, u.getUserId(), "Admin"); // Checks if either the appropriate User or an Admin
-				AbstractUser user = uc.updateUser(u);
-				rsp.setStatus(200); // OK
-				rsp.getWriter().println(om.writeValueAsString(user)); // Returns the updated user if no exception thrown.
+				// Getting past means user is an owner of the account or an admin
+				long newBalance = ac.withdraw(withdraw); // Withdraw the amount from the specified account
+				result = new MessageTemplate(Money.format(withdraw.getAmountCents()) + " has been withdrawn from Account #" + withdraw.getAccountId()
+				+ ". New balance: " + Money.format(newBalance));
 				break;
 				
-			case "accounts":
+			case "deposit":
+				BalanceTemplate deposit = om.readValue(body, BalanceTemplate.class); // Fetch our account ID and amount to change
 				
-				if(req.getQueryString().toLowerCase().equals("addjointuser")) { // If a Premium / Employee / Admin wants to add a user to an account
-					
-					as.guard(session, "Premium","Employee","Admin"); // First check they are an allowed role
-					
-					UserAccountTemplate putUserAccount = om.readValue(req.getReader(), UserAccountTemplate.class); // Get PUT information
-					
-					AbstractUser currentuser = (AbstractUser) session.getAttribute("currentuser");
-					
-					ac.addUserAccount(putUserAccount, currentuser.getUserId());
-					
-					rsp.setStatus(200); // OK
-					message = new MessageTemplate("User #" + putUserAccount.getUserId() + " added as joint owner to Account #" + putUserAccount.getAccountId());
+				if(ac.isOwner(session, deposit.getAccountId()) == false) { // If the user is not an owner of the account
+					as.guard(session, "Admin"); // Check if they are an admin
 				}
 				
-				AbstractAccount account = om.readValue(req.getReader(), AbstractAccount.class); // Pull the account info from the request
-				as.guard(session, "Admin"); // Only allow Admins to perform this kind of update.
-				AbstractAccount updatedAccount = ac.update(account);
-				rsp.setStatus(200); // 200 OK
-				rsp.getWriter().println(om.writeValueAsString(updatedAccount)); // Return the updated accounts
-				
-			}
-			
-		}catch (NotLoggedInException e) { //If user isn't logged in
-			rsp.setStatus(401);
-			message = new MessageTemplate("You are not logged in. Go to /login and POST your credentials");
-			rsp.getWriter().println(om.writeValueAsString(message));
+				// Getting past means user is an owner of the account or an admin
+				long depositedBalance = ac.deposit(deposit); // Deposit the amount to the specified account
+				result = new MessageTemplate(Money.format(deposit.getAmountCents()) + " has been deposited from Account #" + deposit.getAccountId()
+				+ ". New balance: " + Money.format(depositedBalance));
+				break;
 			
-		}  catch (FailedStatementException e) { // If there's some kind of unexpected SQL result (like update not hitting any rows)
-			rsp.setStatus(400);
-			message = new MessageTemplate("Invalid request");
-			rsp.getWriter().println(om.writeValueAsString(message));
+			default: // transfer
+				TransferTemplate transfer = om.readValue(body,TransferTemplate.class); // Fetch source and target ids and transfer amount
+				if(ac.isOwner(session, transfer.getSourceAccountId()) == false) { // If the user is not an owner of the account
+					as.guard(session, "Admin"); // Check if they are an admin
+				} 
+				// Getting past means user is an owner of the source account or an admin
+				result = ac.transfer(transfer); // Debit and credit in one transaction. Message, resulting balances and latency
+			}
 			
-		} catch (AuthorizationException e) { // If the current user doesn't meet our authorization conditions.
-			rsp.setStatus(401);
-			message = new MessageTemplate("You are not authorized");
-			rsp.getWriter().println(om.writeValueAsString(message));
-		} catch (Exception e) { // If all else fails, might be SQLException or Jackson's ObjectMapper exceptions or something else
-			rsp.setStatus(400);
-			message = new MessageTemplate("Unknown Error. Consult the stack trace for more details. Make sure any POSTed info matches what's expected, or if updating info that the info exists to begin with.");
-			rsp.getWriter().println(om.writeValueAsString(message));
+			byte[] response = json.toBytes(result);
+			if(claim != null) claim.complete(200, response);
+			completed = true;
+			rsp.setStatus(200); // OK
+			json.write(rsp, response);
+		} finally {
+			if(claim != null && !completed) claim.release(); // Refused or failed, so nothing moved - a retry runs it again
+		}
+	}
+	
+	private String readBody(HttpServletRequest req) throws IOException { // Whole body as a String. Our POST bodies are a few fields of JSON
+		StringBuilder body = new StringBuilder();
+		char[] buffer = new char[512];
+		BufferedReader reader = req.getReader();
+		for(int n = reader.read(buffer); n != -1; n = reader.read(buffer)) {
+			body.append(buffer, 0, n);
 		}
+		return body.toString();
+	}
+	
+	private void putUser(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		AbstractUser u = om.readValue(req.getReader(), AbstractUser.class); // Pulls out the User from the request.
+		
+		as.guard(session, u.getUserId(), "Admin"); // Checks if either the appropriate User or an Admin
+		AbstractUser user = uc.updateUser(u);
+		rsp.setStatus(200); // OK
+		json.write(rsp, user); // Returns the updated user if no exception thrown.
+	}
+	
+	private void upgradeUser(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		AbstractUser currentuser = (AbstractUser) session.getAttribute("currentUser"); //Get the user
+		if(currentuser.getRole().getRoleId() <= 1) throw new AuthorizationException(); // 'Standard' users aren't authorized to do this
+		
+		UserAccountTemplate userToUpgrade = om.readValue(req.getReader(), UserAccountTemplate.class); // Read the PUT
+		
+		as.guard(session, userToUpgrade.getUserId(), "Admin"); // If the current user is upgrading their account or an admin
+		
+		uc.upgradeUser(userToUpgrade.getUserId(),userToUpgrade.getAccountId(), ac);
+		rsp.setStatus(200); // OK
+		MessageTemplate message = new MessageTemplate("User #" + userToUpgrade.getUserId() + " has been made Premium. " + Money.format(UserController.UPGRADE_FEE_CENTS) + " deducted from Account #" + userToUpgrade.getAccountId());
+		json.write(rsp, message);
+	}
+	
+	private void putAccount(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		AbstractAccount account = om.readValue(req.getReader(), StandardAccount.class); // Pull the account info from the request (AbstractAccount can't be instantiated)
+		as.guard(session, "Admin"); // Only allow Admins to perform this kind of update.
+		AbstractAccount updatedAccount = ac.update(account);
+		rsp.setStatus(200); // 200 OK
+		json.write(rsp, updatedAccount); // Return the updated accounts
+	}
+	
+	private void addJointUser(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids) throws IOException {
+		// A Premium / Employee / Admin adds a user to an account
+		as.guard(session, "Premium","Employee","Admin"); // First check they are an allowed role
+		
+		UserAccountTemplate putUserAccount = om.readValue(req.getReader(), UserAccountTemplate.class); // Get PUT information
+		
+		AbstractUser currentuser = (AbstractUser) session.getAttribute("currentUser");
+		
+		ac.addUserAccount(putUserAccount, currentuser.getUserId());
+		
+		rsp.setStatus(200); // OK
+		MessageTemplate message = new MessageTemplate("User #" + putUserAccount.getUserId() + " added as joint owner to Account #" + putUserAccount.getAccountId());
+		json.write(rsp, message);
 	}
 }
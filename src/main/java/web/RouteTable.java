@@ -0,0 +1,138 @@
+package web;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+public class RouteTable {
+	/** Maps method + path + ?action to the handler for it. Filled in once when the servlet starts, read-only after that.
+	 *
+	 * Templates look like "accounts/{id}?withdraw". To find a request's route, its path is turned into the same
+	 * shape in one pass over the characters - a segment of digits becomes {id} and its value is kept, anything else
+	 * is lowercased - and looked up with a single HashMap get. No split(), no parseInt() and no exceptions, and the
+	 * cost doesn't grow with the number of routes.
+	 *
+	 * A query string without '=' is the action (?login, ?withdraw) and part of the lookup. One with '=' carries
+	 * parameters (?after=5&limit=10) and is left for the handler. Empty segments are skipped, so "/users/" is "users".
+	 * */
+
+	private static final String ID = "{id}";
+	private static final int MAX_IDS = 4; // More {id}s than this in a path and the extra ones can't match anything
+	private static final int MAX_ID_DIGITS = 9; // Always fits an int. Anything longer can't be a row id of ours
+	private static final int[] NO_IDS = new int[0];
+
+	public interface Handler {
+		void handle(HttpServletRequest req, HttpServletResponse rsp, HttpSession session, int[] ids)
+				throws ServletException, IOException;
+	}
+
+	private final Map<String, Route> routes = new HashMap<>();
+
+	public RouteTable add(String method, String template, boolean open, Handler handler) {
+		// open routes can be reached without logging in. Everything else is refused with a 401 before its handler runs
+		String key = method.toUpperCase() + " " + template.toLowerCase();
+		if(routes.putIfAbsent(key, new Route(handler, open)) != null) throw new IllegalStateException("Route registered twice: " + key);
+		return this;
+	}
+
+	public Match find(String method, String path, String query) { // null if nothing is registered for the request
+		StringBuilder key = new StringBuilder(method.length() + path.length() + 24).append(method).append(' ');
+		int[] ids = null;
+		int idCount = 0;
+		int n = path.length();
+		boolean firstSegment = true;
+		for(int start = 0; start < n; ) {
+			if(path.charAt(start) == '/') {
+				start++;
+				continue;
+			}
+			int end = path.indexOf('/', start);
+			if(end < 0) end = n;
+			if(!firstSegment) key.append('/');
+			firstSegment = false;
+
+			int id = parseId(path, start, end);
+			if(id >= 0 && idCount < MAX_IDS) {
+				if(ids == null) ids = new int[MAX_IDS];
+				ids[idCount++] = id;
+				key.append(ID);
+			} else {
+				appendLowerCase(key, path, start, end);
+			}
+			start = end;
+		}
+		if(query != null && !query.isEmpty() && query.indexOf('=') < 0) {
+			key.append('?');
+			appendLowerCase(key, query, 0, query.length());
+		}
+
+		Route route = routes.get(key.toString());
+		if(route == null) return null;
+		return new Match(route, ids == null ? NO_IDS : Arrays.copyOf(ids, idCount));
+	}
+
+	public Set<String> getRoutes() { // "GET accounts/{id}", ... sorted, for logging what's being served
+		return Collections.unmodifiableSet(new TreeSet<>(routes.keySet()));
+	}
+
+	private static int parseId(String s, int from, int to) { // The segment as a non-negative int, or -1 if it isn't one
+		if(to - from > MAX_ID_DIGITS) return -1;
+		int value = 0;
+		for(int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if(c < '0' || c > '9') return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static void appendLowerCase(StringBuilder key, String s, int from, int to) {
+		for(int i = from; i < to; i++) {
+			key.append(Character.toLowerCase(s.charAt(i)));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "RouteTable " + this.getRoutes();
+	}
+
+	private static final class Route {
+		final Handler handler;
+		final boolean open;
+
+		Route(Handler handler, boolean open) {
+			this.handler = handler;
+			this.open = open;
+		}
+	}
+
+	public static final class Match {
+		// What find() returns - the route, plus the {id} values from the path in the order they appear
+		private final Route route;
+		private final int[] ids;
+
+		private Match(Route route, int[] ids) {
+			this.route = route;
+			this.ids = ids;
+		}
+
+		public boolean isOpen() {
+			return route.open;
+		}
+
+		public void handle(HttpServletRequest req, HttpServletResponse rsp, HttpSession session)
+				throws ServletException, IOException {
+			route.handler.handle(req, rsp, session, ids);
+		}
+	}
+}
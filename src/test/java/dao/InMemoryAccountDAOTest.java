@@ -0,0 +1,216 @@
+package dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import models.AbstractAccount;
+import models.StandardAccount;
+
+public class InMemoryAccountDAOTest {
+	// Against the shared InMemoryDatabase, so every test works on accounts it opened itself
+
+	private static final ReferenceData REFS = new ReferenceData(new InMemoryReferenceDataDAO());
+	private static final HotAccounts NO_HOT_ACCOUNTS = new HotAccounts(Collections.emptySet(), 1);
+
+	private InMemoryAccountDAO plain;
+
+	@Before
+	public void setUp() {
+		plain = new InMemoryAccountDAO(REFS, NO_HOT_ACCOUNTS, null);
+	}
+
+	private int open(IAccountDAO dao, long balanceCents) {
+		AbstractAccount a = new StandardAccount(0, balanceCents, REFS.status(2), REFS.type(1));
+		assertEquals(1, dao.insert(a));
+		return a.getAccountId();
+	}
+
+	private InMemoryAccountDAO hot(int id) {
+		return new InMemoryAccountDAO(REFS, new HotAccounts(Collections.singleton(id), 4), null);
+	}
+
+	@Test
+	public void hotAccountPutAfterACreditSucceeds() {
+		int id = this.open(plain, 1000);
+		InMemoryAccountDAO dao = this.hot(id);
+		assertNotNull(dao.adjustBalance(id, 250)); // Lands in a slot
+
+		AbstractAccount read = dao.findByID(id); // The PUT's GET sees the credit
+		assertEquals(1250, read.getBalanceCents());
+		read.setBalanceCents(1200);
+		assertEquals(1, dao.update(read));
+
+		AbstractAccount after = dao.findByID(id);
+		assertEquals(1200, after.getBalanceCents());
+		assertEquals(read.getVersion(), after.getVersion());
+	}
+
+	@Test
+	public void hotAccountPutAfterALaterCreditConflicts() {
+		int id = this.open(plain, 1000);
+		InMemoryAccountDAO dao = this.hot(id);
+		AbstractAccount read = dao.findByID(id);
+		assertNotNull(dao.adjustBalance(id, 250)); // Arrives after the read
+
+		read.setBalanceCents(900);
+		assertEquals(0, dao.update(read)); // The PUT didn't know about the credit
+		AbstractAccount after = dao.findByID(id);
+		assertEquals(1250, after.getBalanceCents()); // Untouched, the credit isn't lost
+		assertEquals(1, dao.update(after)); // Read again, and it goes through
+	}
+
+	@Test
+	public void sweepingLeavesTheVersionAlone() {
+		int id = this.open(plain, 1000);
+		InMemoryAccountDAO dao = this.hot(id);
+		dao.adjustBalance(id, 100);
+		dao.adjustBalance(id, 100);
+		int version = dao.findByID(id).getVersion();
+		assertEquals(1000, (long) dao.adjustBalance(id, -200)); // A debit sweeps first
+		assertEquals(version + 1, dao.findByID(id).getVersion()); // Only the debit itself counts
+	}
+
+	@Test
+	public void transferRefusesTheSameAccount() {
+		int id = this.open(plain, 1000);
+		assertNull(plain.transfer(id, id, 100));
+		assertEquals(1000, plain.findByID(id).getBalanceCents());
+	}
+
+	@Test
+	public void refusedTransferLeavesBothSidesAlone() {
+		int source = this.open(plain, 1000);
+		int target = this.open(plain, Long.MAX_VALUE - 10);
+		assertNull(plain.transfer(source, target, 100)); // Would overflow the target
+		assertNull(plain.transfer(source, Integer.MAX_VALUE, 100)); // No such target
+		assertNull(plain.transfer(source, target, 1001)); // Would overdraw
+		assertEquals(1000, plain.findByID(source).getBalanceCents());
+		assertEquals(Long.MAX_VALUE - 10, plain.findByID(target).getBalanceCents());
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentTransfersAndDepositsLoseNothing() throws Exception {
+		// Transfers in both directions between a handful of accounts, with deposits on the same rows alongside
+		int accounts = 6;
+		int threads = 8;
+		int rounds = 5000;
+		int[] ids = new int[accounts];
+		for(int i = 0; i < accounts; i++) {
+			ids[i] = this.open(plain, 10000);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		Future<?>[] done = new Future<?>[threads];
+		long[] deposited = new long[threads];
+		for(int t = 0; t < threads; t++) {
+			int thread = t;
+			done[t] = pool.submit(() -> {
+				start.await();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for(int r = 0; r < rounds; r++) {
+					int source = ids[random.nextInt(accounts)];
+					int target = ids[random.nextInt(accounts)];
+					long[] balances = plain.transfer(source, target, random.nextInt(500));
+					if(balances != null) assertTrue(balances[0] >= 0);
+					if(r % 10 == 0 && plain.adjustBalance(target, 3) != null) deposited[thread] += 3;
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		for(Future<?> f : done) {
+			f.get(); // Rethrows anything a worker's asserts threw
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+
+		long total = 0;
+		for(int id : ids) {
+			long balance = plain.findByID(id).getBalanceCents();
+			assertTrue(balance >= 0);
+			total += balance;
+		}
+		long expected = accounts * 10000L;
+		for(long d : deposited) {
+			expected += d;
+		}
+		assertEquals(expected, total);
+	}
+
+	@Test
+	public void batchUsesRunningBalances() {
+		int a = this.open(plain, 100);
+		int b = this.open(plain, 0);
+		int c = this.open(plain, 0);
+		long[][] results = plain.transferAll(new int[] {a, b, c, b}, new int[] {b, c, a, b}, new long[] {100, 60, 61, 1});
+		assertEquals(100, results[0][1]); // b had nothing before the first transfer reached it
+		assertEquals(40, results[1][0]);
+		assertNull(results[2]); // c only has 60
+		assertNull(results[3]); // Same account
+		assertEquals(0, plain.findByID(a).getBalanceCents());
+		assertEquals(40, plain.findByID(b).getBalanceCents());
+		assertEquals(60, plain.findByID(c).getBalanceCents());
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentBatchesAndTransfersLoseNothing() throws Exception {
+		int accounts = 8;
+		int[] ids = new int[accounts];
+		for(int i = 0; i < accounts; i++) {
+			ids[i] = this.open(plain, 5000);
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(6);
+		CountDownLatch start = new CountDownLatch(1);
+		Future<?>[] done = new Future<?>[6];
+		for(int t = 0; t < done.length; t++) {
+			boolean batches = t % 2 == 0;
+			done[t] = pool.submit(() -> {
+				start.await();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for(int r = 0; r < 2000; r++) {
+					if(batches) {
+						int n = 1 + random.nextInt(6);
+						int[] sources = new int[n];
+						int[] targets = new int[n];
+						long[] amounts = new long[n];
+						for(int i = 0; i < n; i++) {
+							sources[i] = ids[random.nextInt(accounts)];
+							targets[i] = ids[random.nextInt(accounts)];
+							amounts[i] = random.nextInt(300);
+						}
+						plain.transferAll(sources, targets, amounts);
+					} else {
+						plain.transfer(ids[random.nextInt(accounts)], ids[random.nextInt(accounts)], random.nextInt(300));
+					}
+				}
+				return null;
+			});
+		}
+		start.countDown();
+		for(Future<?> f : done) {
+			f.get();
+		}
+		pool.shutdown();
+
+		long total = 0;
+		for(int id : ids) {
+			long balance = plain.findByID(id).getBalanceCents();
+			assertTrue(balance >= 0);
+			total += balance;
+		}
+		assertEquals(accounts * 5000L, total);
+	}
+}
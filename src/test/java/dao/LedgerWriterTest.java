@@ -0,0 +1,188 @@
+package dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.BatchUpdateException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLRecoverableException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import models.Transaction;
+
+public class LedgerWriterTest {
+	// LedgerWriter against a TRANSACTIONS table that refuses some rows or can't be reached. To get a batch of a known
+	// size, the writer thread is held in its first write while the rest queue up behind it.
+
+	private static final int BAD_ACCOUNT = 13; // Rows for it break a constraint
+
+	private final FakeLedger dao = new FakeLedger();
+	private LedgerWriter writer;
+
+	@After
+	public void stop() {
+		if(writer != null) writer.shutdown();
+	}
+
+	private static Transaction row(int accountId) {
+		return new Transaction(accountId, Transaction.DEPOSIT, 100, 100, 0);
+	}
+
+	@Test
+	public void refusedRowIsSplitOutAndTheRestWritten() {
+		writer = this.heldUp();
+		for(int id = 1; id <= 8; id++) {
+			writer.record(row(id == 5 ? BAD_ACCOUNT : id));
+		}
+		this.release();
+		waitFor(() -> writer.getStatistics().getWritten() + writer.getStatistics().getSetAside() == 9);
+
+		assertEquals(8, dao.rows.size()); // The first row, and the 7 good ones of the batch
+		assertEquals(1, writer.getSetAside().size());
+		assertEquals(BAD_ACCOUNT, writer.getSetAside().get(0).getAccountId());
+		assertEquals(1, writer.getStatistics().getSetAsideWaiting());
+	}
+
+	@Test
+	public void unreachableDatabaseIsRetriedNotSplit() {
+		writer = this.heldUp();
+		for(int id = 1; id <= 8; id++) {
+			writer.record(row(id));
+		}
+		dao.unreachable = true;
+		this.release();
+		waitFor(() -> writer.getSetAside().size() == 9); // Kept, not printed and dropped
+
+		assertEquals(0, dao.rows.size());
+		assertEquals(8, dao.attempts.size()); // 4 tries of the first row, then 4 of the batch
+		assertTrue(dao.attempts.subList(4, 8).stream().allMatch(size -> size == 8)); // Always whole, never split
+	}
+
+	@Test
+	public void setAsideRowsCanBeReplayed() {
+		writer = new LedgerWriter(dao, 10, 10, 0, false);
+		dao.unreachable = true;
+		writer.record(row(1), row(2)); // Queued, and set aside by the writer thread
+		waitFor(() -> writer.getSetAside().size() == 2);
+
+		dao.unreachable = false;
+		assertEquals(2, writer.replaySetAside());
+		assertEquals(2, dao.rows.size());
+		assertEquals(0, writer.getSetAside().size());
+	}
+
+	@Test
+	public void unwrittenRowsGoInAfterTheNextCommit() {
+		writer = new LedgerWriter(dao, 10, 10, 0, false);
+		dao.unreachable = true;
+		writer.record(row(1));
+		waitFor(() -> writer.getSetAside().size() == 1);
+
+		dao.unreachable = false;
+		writer.record(row(2));
+		waitFor(() -> dao.rows.size() == 2);
+		assertEquals(0, writer.getSetAside().size());
+	}
+
+	@Test
+	public void refusedRowsWaitForReplay() {
+		writer = new LedgerWriter(dao, 10, 10, 0, false);
+		writer.record(row(BAD_ACCOUNT));
+		waitFor(() -> writer.getSetAside().size() == 1);
+
+		writer.record(row(2)); // A commit doesn't bring a refused row back
+		waitFor(() -> dao.rows.size() == 1);
+		assertEquals(1, writer.getSetAside().size());
+	}
+
+	@Test
+	public void synchronousRecordFailsWhenItsRowIsSetAside() {
+		writer = new LedgerWriter(dao, 10, 10, 0, true);
+		writer.record(row(1));
+		assertEquals(1, dao.rows.size());
+		try {
+			writer.record(row(BAD_ACCOUNT));
+			fail("A synchronous record of a refused row should throw");
+		} catch(CompletionException e) {
+			// Expected - the request learns its ledger row isn't there
+		}
+		assertEquals(1, writer.getSetAside().size());
+	}
+
+	@Test
+	public void refusalsAreToldFromConnectionTrouble() {
+		assertTrue(LedgerWriter.isRefusal(new SQLIntegrityConstraintViolationException("ORA-00001", "23000")));
+		assertTrue(LedgerWriter.isRefusal(new SQLException("ORA-01438", "22003")));
+		assertTrue(LedgerWriter.isRefusal(new BatchUpdateException()));
+		assertTrue(!LedgerWriter.isRefusal(new SQLRecoverableException("Closed Connection")));
+		assertTrue(!LedgerWriter.isRefusal(new SQLException("Timed out waiting for a database connection")));
+		assertTrue(!LedgerWriter.isRefusal(new BatchUpdateException("IO error", "08006", new int[0])));
+	}
+
+	private LedgerWriter heldUp() {
+		// A writer whose thread is stuck in its first write, so everything recorded afterwards queues up
+		dao.block = true;
+		LedgerWriter w = new LedgerWriter(dao, 100, 100, 0, false);
+		w.record(row(0));
+		waitFor(() -> dao.blocked);
+		return w;
+	}
+
+	private void release() {
+		synchronized(dao) {
+			dao.block = false;
+			dao.notifyAll();
+		}
+	}
+
+	private static void waitFor(BooleanSupplier condition) {
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!condition.getAsBoolean()) {
+			if(System.currentTimeMillis() > deadline) fail("Timed out");
+			try {
+				Thread.sleep(5);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				fail("Interrupted");
+			}
+		}
+	}
+
+	private static final class FakeLedger implements ITransactionDAO {
+		final List<Transaction> rows = new CopyOnWriteArrayList<>();
+		final List<Integer> attempts = new CopyOnWriteArrayList<>(); // Batch size of each call
+		volatile boolean unreachable;
+		volatile boolean block;
+		volatile boolean blocked;
+
+		@Override
+		public synchronized int insertAll(List<Transaction> transactions) throws SQLException {
+			while(block) {
+				blocked = true;
+				try {
+					this.wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted");
+				}
+			}
+			attempts.add(transactions.size());
+			if(unreachable) throw new SQLRecoverableException("Closed Connection");
+			for(Transaction t : transactions) {
+				if(t.getAccountId() == BAD_ACCOUNT) {
+					throw new BatchUpdateException("ORA-02291: integrity constraint violated", "23000", new int[0]);
+				}
+			}
+			rows.addAll(transactions);
+			return transactions.size();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+	// The pool against a fake driver whose statements keep their batch and settings the way a real driver does
+
+	private static final String URL = "jdbc:rocp-fake:pool";
+	private static final FakeDriver DRIVER = new FakeDriver();
+
+	static {
+		try {
+			DriverManager.registerDriver(DRIVER);
+		} catch(SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private ConnectionPool pool;
+
+	@Before
+	public void setUp() {
+		DRIVER.statements.clear();
+		pool = new ConnectionPool(URL, "user", "password", 0, 1, 1000, 600000, 0, false, 1, 10);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void leaksAreReportedWithoutStackTraces() throws SQLException, InterruptedException {
+		// Stack traces are off by default, the leak report only needs the borrow time
+		ConnectionPool leaky = new ConnectionPool(URL, "user", "password", 0, 1, 1000, 1000, 1, false, 1, 10);
+		try (Connection conn = leaky.getConnection()) {
+			long deadline = System.currentTimeMillis() + 5000; // Housekeeping runs once a second here
+			while(leaky.getStatistics().getLeaksDetected() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, leaky.getStatistics().getLeaksDetected());
+		} finally {
+			leaky.shutdown();
+		}
+	}
+
+	@Test
+	public void abandonedBatchIsNotRunByTheNextBorrower() throws SQLException {
+		try (Connection conn = pool.getConnection()) {
+			PreparedStatement stmnt = conn.prepareStatement("INSERT INTO T VALUES (?)");
+			stmnt.setInt(1, 1);
+			stmnt.addBatch();
+			stmnt.setInt(1, 2);
+			stmnt.addBatch();
+			// The caller fails here, before executeBatch()
+		}
+		try (Connection conn = pool.getConnection()) {
+			PreparedStatement stmnt = conn.prepareStatement("INSERT INTO T VALUES (?)");
+			stmnt.setInt(1, 3);
+			stmnt.addBatch();
+			assertEquals(1, stmnt.executeBatch().length);
+		}
+		assertEquals(1, DRIVER.statements.size()); // The second borrow did reuse the cached statement
+		assertEquals(1, pool.getStatistics().getStatementCacheHits());
+	}
+
+	@Test
+	public void settingsGoBackToTheirDefaults() throws SQLException {
+		try (Connection conn = pool.getConnection()) {
+			PreparedStatement stmnt = conn.prepareStatement("SELECT * FROM T");
+			stmnt.setFetchSize(500);
+			stmnt.setMaxRows(7);
+			stmnt.setQueryTimeout(30);
+		}
+		try (Connection conn = pool.getConnection()) {
+			PreparedStatement stmnt = conn.prepareStatement("SELECT * FROM T");
+			assertEquals(FakeStatement.DEFAULT_FETCH_SIZE, stmnt.getFetchSize());
+			assertEquals(0, stmnt.getMaxRows());
+			assertEquals(0, stmnt.getQueryTimeout());
+		}
+	}
+
+	@Test
+	public void statementThatCantBeResetIsClosedNotCached() throws SQLException {
+		try (Connection conn = pool.getConnection()) {
+			PreparedStatement stmnt = conn.prepareStatement("SELECT * FROM T");
+			stmnt.addBatch();
+			DRIVER.statements.get(0).failClearBatch = true;
+		}
+		FakeStatement first = DRIVER.statements.get(0);
+		assertTrue(first.closed);
+
+		try (Connection conn = pool.getConnection()) {
+			conn.prepareStatement("SELECT * FROM T").executeBatch();
+		}
+		assertEquals(2, DRIVER.statements.size());
+		assertNotSame(first, DRIVER.statements.get(1));
+		assertFalse(DRIVER.statements.get(1).closed);
+	}
+
+	static final class FakeStatement {
+		static final int DEFAULT_FETCH_SIZE = 10;
+
+		final List<Object> binds = new ArrayList<>();
+		final List<List<Object>> batch = new ArrayList<>();
+		int fetchSize = DEFAULT_FETCH_SIZE;
+		int maxRows = 0;
+		int queryTimeout = 0;
+		boolean failClearBatch = false;
+		boolean closed = false;
+
+		PreparedStatement proxy() {
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] {PreparedStatement.class}, (p, method, args) -> {
+				switch(method.getName()) {
+				case "setInt": binds.add(args[1]); return null;
+				case "addBatch": batch.add(new ArrayList<>(binds)); binds.clear(); return null;
+				case "executeBatch": int[] counts = new int[batch.size()]; batch.clear(); return counts;
+				case "clearBatch":
+					if(failClearBatch) throw new SQLException("Connection reset");
+					batch.clear();
+					return null;
+				case "clearParameters": binds.clear(); return null;
+				case "getFetchSize": return fetchSize;
+				case "setFetchSize": fetchSize = (Integer) args[0]; return null;
+				case "getMaxRows": return maxRows;
+				case "setMaxRows": maxRows = (Integer) args[0]; return null;
+				case "getQueryTimeout": return queryTimeout;
+				case "setQueryTimeout": queryTimeout = (Integer) args[0]; return null;
+				case "close": closed = true; return null;
+				case "isClosed": return closed;
+				default: throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+
+	static final class FakeDriver implements Driver {
+		final List<FakeStatement> statements = new ArrayList<>();
+
+		@Override
+		public Connection connect(String url, Properties info) {
+			if(!this.acceptsURL(url)) return null;
+			boolean[] autoCommit = {true};
+			boolean[] closed = {false};
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] {Connection.class}, (p, method, args) -> {
+				switch(method.getName()) {
+				case "prepareStatement":
+					FakeStatement s = new FakeStatement();
+					statements.add(s);
+					return s.proxy();
+				case "isValid": return !closed[0];
+				case "isClosed": return closed[0];
+				case "getAutoCommit": return autoCommit[0];
+				case "setAutoCommit": autoCommit[0] = (Boolean) args[0]; return null;
+				case "rollback": return null;
+				case "close": closed[0] = true; return null;
+				default: throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+
+		@Override
+		public boolean acceptsURL(String url) {
+			return url.startsWith("jdbc:rocp-fake:");
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+}
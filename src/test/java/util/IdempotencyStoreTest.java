@@ -0,0 +1,82 @@
+package util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import util.IdempotencyStore.Claim;
+import util.IdempotencyStore.Outcome;
+
+public class IdempotencyStoreTest {
+	// A retry must never be told NEW while the first attempt can still move the money, whatever happens to the
+	// finished responses around it.
+
+	private static final byte[] OK = "{\"message\":\"done\"}".getBytes();
+
+	@Test
+	public void retryWhileTheFirstIsRunningIsInFlight() {
+		IdempotencyStore store = new IdempotencyStore(16, 60000);
+		assertEquals(Outcome.NEW, store.claim("k", "body").getOutcome());
+		assertEquals(Outcome.IN_FLIGHT, store.claim("k", "body").getOutcome());
+		assertEquals(Outcome.MISMATCH, store.claim("k", "other").getOutcome());
+	}
+
+	@Test
+	public void claimSurvivesPressureOnTheFinishedResponses() {
+		IdempotencyStore store = new IdempotencyStore(16, 60000);
+		Claim first = store.claim("k", "body");
+		for(int i = 0; i < 1000; i++) { // Far more finished requests than the store keeps
+			Claim other = store.claim("other " + i, "body");
+			other.complete(200, OK);
+		}
+		assertEquals(Outcome.IN_FLIGHT, store.claim("k", "body").getOutcome());
+
+		first.complete(201, OK);
+		Claim retry = store.claim("k", "body");
+		assertEquals(Outcome.REPLAY, retry.getOutcome());
+		assertEquals(201, retry.getStatus());
+		assertArrayEquals(OK, retry.getResponse());
+		assertEquals(0, store.getInFlight());
+	}
+
+	@Test
+	public void claimSurvivesTheTimeToLive() throws InterruptedException {
+		IdempotencyStore store = new IdempotencyStore(16, 1);
+		store.claim("k", "body");
+		Thread.sleep(20);
+		assertEquals(Outcome.IN_FLIGHT, store.claim("k", "body").getOutcome());
+	}
+
+	@Test
+	public void releasedClaimLetsTheRetryRun() {
+		IdempotencyStore store = new IdempotencyStore(16, 60000);
+		store.claim("k", "body").release();
+		assertEquals(Outcome.NEW, store.claim("k", "body").getOutcome());
+	}
+
+	@Test
+	public void completeOnlyCountsForTheClaimStillHeld() {
+		IdempotencyStore store = new IdempotencyStore(16, 60000);
+		Claim first = store.claim("k", "body");
+		first.release();
+		Claim second = store.claim("k", "body");
+		first.complete(500, OK); // Late, the key is someone else's now
+		assertEquals(Outcome.IN_FLIGHT, store.claim("k", "body").getOutcome());
+
+		second.complete(200, OK);
+		first.complete(500, OK);
+		assertEquals(200, store.claim("k", "body").getStatus());
+	}
+
+	@Test
+	public void replayAndInFlightClaimsCantComplete() {
+		IdempotencyStore store = new IdempotencyStore(16, 60000);
+		Claim first = store.claim("k", "body");
+		store.claim("k", "body").complete(500, OK);
+		assertEquals(Outcome.IN_FLIGHT, store.claim("k", "body").getOutcome());
+		first.complete(200, OK);
+		store.claim("k", "body").complete(500, OK);
+		assertEquals(200, store.claim("k", "body").getStatus());
+	}
+}
@@ -0,0 +1,63 @@
+package util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.junit.Test;
+
+public class MoneyTest {
+	// Money.compound has to land on the same cent as ROUND(BALANCE_CENTS * POWER(1 + bp / 10000, months)) in
+	// AccountDAO.accrueInterest, or the two backends and passTime disagree. The rule worked out exactly here:
+
+	private static long sqlRule(long cents, int basisPoints, int months) {
+		BigDecimal factor = BigDecimal.ONE.add(BigDecimal.valueOf(basisPoints, 4)).pow(months); // Exact, no MathContext
+		return BigDecimal.valueOf(cents).multiply(factor).setScale(0, RoundingMode.HALF_UP).longValueExact();
+	}
+
+	@Test
+	public void halfCentsRoundUp() {
+		assertEquals(101, Money.compound(100, 50, 1)); // 100.5
+		assertEquals(302, Money.compound(300, 50, 1)); // 301.5
+		assertEquals(201, Money.compound(200, 25, 1)); // 200.5
+		assertEquals(1, Money.compound(1, 50, 1)); // 1.005
+		assertEquals(100, Money.compound(100, 50, 0)); // No months, no interest
+	}
+
+	@Test
+	public void negativeHalfCentsRoundAwayFromZero() {
+		assertEquals(-101, Money.compound(-100, 50, 1)); // Oracle's ROUND, not Math.round's -100
+	}
+
+	@Test
+	public void matchesTheSqlRuleOverAGrid() {
+		int[] rates = {1, 25, 50, 125, 999};
+		for(int bp : rates) {
+			for(int months = 1; months <= 9; months++) {
+				BigDecimal factor = Money.compoundFactor(bp, months);
+				for(long cents = -1000; cents <= 20000; cents++) {
+					long expected = sqlRule(cents, bp, months);
+					assertEquals(cents + "c at " + bp + "bp for " + months + " months", expected, Money.compound(cents, bp, months));
+					assertEquals(expected, Money.compound(cents, factor));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void longRunsStayWithinACentOfExact() {
+		// Past 9 months the factor is rounded to 40 digits, as Oracle rounds POWER's result
+		long[] balances = {1, 99, 12345, 1000000000L, 123456789012L};
+		for(long cents : balances) {
+			for(int months : new int[] {12, 60, 120, 600}) {
+				assertEquals(sqlRule(cents, 50, months), Money.compound(cents, 50, months));
+			}
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	public void overflowThrows() {
+		Money.compound(Long.MAX_VALUE, 50, 1);
+	}
+}